@@ -0,0 +1,22 @@
+package com.scottescue.dropwizard.entitymanager;
+
+/**
+ * Thrown by a {@link BatchProcessor} when a chunk fails.  The transaction of the failed chunk has been
+ * rolled back, while the items of the chunks before it remain committed.
+ */
+public class BatchProcessingException extends RuntimeException {
+
+    private final long committedItems;
+
+    BatchProcessingException(long committedItems, Throwable cause) {
+        super("Batch processing failed after " + committedItems + " committed items", cause);
+        this.committedItems = committedItems;
+    }
+
+    /**
+     * @return the number of items committed before the failed chunk
+     */
+    public long getCommittedItems() {
+        return committedItems;
+    }
+}
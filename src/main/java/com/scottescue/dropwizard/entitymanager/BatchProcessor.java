@@ -0,0 +1,138 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Processes a large number of work items in chunks, each chunk in its own unit of work.
+ * <p>The items of a chunk are processed with the shared EntityManager bound to a new EntityManager, inside a
+ * transaction that is committed once the whole chunk has been processed.  The persistence context is flushed
+ * when the transaction commits and discarded when the EntityManager is closed, so its size is bounded by the
+ * chunk size however many items are processed.  If an item fails, only the transaction of its chunk is
+ * rolled back, and processing stops with a {@link BatchProcessingException}; the chunks processed before it
+ * remain committed.  Errors, like an {@link OutOfMemoryError}, roll back the chunk too, but are rethrown
+ * unchanged.</p>
+ * <p>To have the statements of a chunk sent to the database in JDBC batches, set the
+ * {@code hibernate.jdbc.batch_size} property of the data source, and match the chunk size to it, so each
+ * chunk is flushed in full batches.  Setting {@code hibernate.order_inserts} and
+ * {@code hibernate.order_updates} too groups the statements of each entity, which would otherwise split
+ * the batches when a chunk inserts or updates several entities.  Settings with
+ * {@link org.hibernate.FlushMode#COMMIT} keep queries issued while processing a chunk from flushing, and so
+ * splitting, the pending batches.</p>
+ * <p>The processor records the following metrics, prefixed with its name:</p>
+ * <ul>
+ *     <li>{@code items}: a meter of the items committed</li>
+ *     <li>{@code chunks}: a timer of the chunks processed, including commits</li>
+ *     <li>{@code failed-chunks}: a meter of the chunks rolled back</li>
+ * </ul>
+ * <p>Items are read from their source outside of the chunk transactions.</p>
+ */
+public class BatchProcessor {
+
+    private final UnitOfWorkPlan plan;
+    private final int chunkSize;
+    private final Meter items;
+    private final Timer chunks;
+    private final Meter failedChunks;
+
+    /**
+     * Creates a processor committing chunks of the given size to the EntityManagerFactory of the given bundle,
+     * with the default {@link UnitOfWork} settings.
+     *
+     * @param bundle    the bundle providing the EntityManagerFactory
+     * @param chunkSize the number of items processed per transaction
+     * @param metrics   the registry to record metrics in
+     * @param name      the name of the processor, used as the prefix of its metrics
+     */
+    public BatchProcessor(EntityManagerBundle<?> bundle, int chunkSize, MetricRegistry metrics, String name) {
+        this(bundle.getEntityManagerFactory(), UnitOfWorkSettings.defaults(), chunkSize, metrics, name);
+    }
+
+    /**
+     * Creates a processor committing chunks of the given size to the given EntityManagerFactory.
+     *
+     * @param entityManagerFactory the factory to open an EntityManager per chunk from
+     * @param settings             the settings of the unit of work of each chunk
+     * @param chunkSize            the number of items processed per transaction
+     * @param metrics              the registry to record metrics in
+     * @param name                 the name of the processor, used as the prefix of its metrics
+     */
+    public BatchProcessor(EntityManagerFactory entityManagerFactory,
+                          UnitOfWorkSettings settings,
+                          int chunkSize,
+                          MetricRegistry metrics,
+                          String name) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.plan = UnitOfWorkPlan.compile(entityManagerFactory, settings);
+        this.chunkSize = chunkSize;
+        this.items = metrics.meter(name(name, "items"));
+        this.chunks = metrics.timer(name(name, "chunks"));
+        this.failedChunks = metrics.meter(name(name, "failed-chunks"));
+    }
+
+    /**
+     * Processes every item of the given stream, closing the stream once it is consumed.
+     *
+     * @param items  the items to process
+     * @param action the action processing an item
+     * @param <T>    the type of the items
+     * @return the number of items processed and committed
+     * @throws BatchProcessingException if a chunk fails
+     */
+    public <T> long process(Stream<? extends T> items, Consumer<? super T> action) {
+        try (Stream<? extends T> stream = items) {
+            return process(stream.iterator(), action);
+        }
+    }
+
+    /**
+     * Processes every remaining item of the given iterator.
+     *
+     * @param items  the items to process
+     * @param action the action processing an item
+     * @param <T>    the type of the items
+     * @return the number of items processed and committed
+     * @throws BatchProcessingException if a chunk fails
+     */
+    public <T> long process(Iterator<? extends T> items, Consumer<? super T> action) {
+        final List<T> chunk = new ArrayList<>(chunkSize);
+        long committed = 0;
+        while (items.hasNext()) {
+            chunk.clear();
+            while (chunk.size() < chunkSize && items.hasNext()) {
+                chunk.add(items.next());
+            }
+            processChunk(chunk, action, committed);
+            committed += chunk.size();
+        }
+        return committed;
+    }
+
+    private <T> void processChunk(List<T> chunk, Consumer<? super T> action, long committed) {
+        try (Timer.Context ignored = chunks.time()) {
+            UnitOfWorks.execute(plan, () -> {
+                chunk.forEach(action);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            failedChunks.mark();
+            throw new BatchProcessingException(committed, e);
+        } catch (Error e) {
+            failedChunks.mark();
+            throw e;
+        }
+        items.mark(chunk.size());
+    }
+}
@@ -0,0 +1,48 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.google.common.collect.MapMaker;
+import org.hibernate.jpa.QueryHints;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Keeps track of the EntityManagers whose queries are cacheable by default, as requested by
+ * {@link UnitOfWork#cacheableQueries()}.  The EntityManagers are held weakly and compared by identity,
+ * so an EntityManager that is never disabled doesn't leak.
+ */
+final class CacheableQueries {
+    private static final Set<EntityManager> ENTITY_MANAGERS =
+            Collections.newSetFromMap(new MapMaker().weakKeys().<EntityManager, Boolean>makeMap());
+
+    private CacheableQueries() {
+    }
+
+    static void enable(EntityManager entityManager) {
+        ENTITY_MANAGERS.add(entityManager);
+    }
+
+    static void disable(EntityManager entityManager) {
+        ENTITY_MANAGERS.remove(entityManager);
+    }
+
+    static boolean isEnabled(EntityManager entityManager) {
+        return ENTITY_MANAGERS.contains(entityManager);
+    }
+
+    /**
+     * Makes the given query cacheable if the EntityManager that created it has cacheable queries enabled.
+     *
+     * @param entityManager the EntityManager that created the query
+     * @param query the query
+     * @return the query
+     */
+    static <Q extends Query> Q apply(EntityManager entityManager, Q query) {
+        if (isEnabled(entityManager)) {
+            query.setHint(QueryHints.HINT_CACHEABLE, true);
+        }
+        return query;
+    }
+}
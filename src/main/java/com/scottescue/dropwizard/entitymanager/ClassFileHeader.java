@@ -0,0 +1,226 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The parts of a class file needed to inspect a class without loading it: its name, its access flags and
+ * the types of its runtime visible class annotations.
+ * <p>See chapter 4 of the Java Virtual Machine Specification for the class file format.</p>
+ */
+final class ClassFileHeader {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_ANNOTATION = 0x2000;
+    private static final int ACC_ENUM = 0x4000;
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    private final String className;
+    private final int accessFlags;
+    private final ImmutableSet<String> annotations;
+
+    private ClassFileHeader(String className, int accessFlags, ImmutableSet<String> annotations) {
+        this.className = className;
+        this.accessFlags = accessFlags;
+        this.annotations = annotations;
+    }
+
+    /**
+     * Parses the header of a class file.
+     *
+     * @param bytes the content of the class file
+     * @return the header
+     * @throws IllegalArgumentException if the bytes are not a well-formed class file
+     */
+    static ClassFileHeader parse(byte[] bytes) {
+        try {
+            return new Parser(ByteBuffer.wrap(bytes)).parse();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated class file", e);
+        }
+    }
+
+    /**
+     * @return the binary name of the class, e.g. {@code com.example.Outer$Inner}
+     */
+    String getClassName() {
+        return className;
+    }
+
+    boolean isPublic() {
+        return (accessFlags & ACC_PUBLIC) != 0;
+    }
+
+    boolean isAnnotation() {
+        return (accessFlags & ACC_ANNOTATION) != 0;
+    }
+
+    boolean isEnum() {
+        return (accessFlags & ACC_ENUM) != 0;
+    }
+
+    /**
+     * @param annotationType the type of a runtime retained annotation
+     * @return true if the class itself is annotated with the given annotation type
+     */
+    boolean isAnnotatedWith(Class<?> annotationType) {
+        return annotations.contains(annotationType.getName());
+    }
+
+    private static final class Parser {
+        private final ByteBuffer buffer;
+        private int[] offsets;
+
+        Parser(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        ClassFileHeader parse() {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a class file");
+            }
+            // minor_version, major_version
+            skip(4);
+            readConstantPool();
+
+            final int accessFlags = u2();
+            final String className = classNameAt(u2());
+            // super_class
+            skip(2);
+            // interfaces
+            skip(2 * u2());
+            skipMembers();
+            skipMembers();
+
+            final ImmutableSet.Builder<String> annotations = ImmutableSet.builder();
+            for (int attributes = u2(); attributes > 0; attributes--) {
+                final String name = utf8At(u2());
+                final int length = buffer.getInt();
+                if (RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+                    for (int count = u2(); count > 0; count--) {
+                        annotations.add(readAnnotation());
+                    }
+                } else {
+                    skip(length);
+                }
+            }
+            return new ClassFileHeader(className, accessFlags, annotations.build());
+        }
+
+        private void readConstantPool() {
+            final int count = u2();
+            offsets = new int[count];
+            for (int i = 1; i < count; i++) {
+                offsets[i] = buffer.position();
+                final int tag = u1();
+                switch (tag) {
+                    case 1: // Utf8
+                        skip(u2());
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        skip(2);
+                        break;
+                    case 15: // MethodHandle
+                        skip(3);
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        skip(4);
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        skip(8);
+                        // Takes up two entries
+                        i++;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+                }
+            }
+        }
+
+        private void skipMembers() {
+            for (int members = u2(); members > 0; members--) {
+                // access_flags, name_index, descriptor_index
+                skip(6);
+                for (int attributes = u2(); attributes > 0; attributes--) {
+                    skip(2);
+                    skip(buffer.getInt());
+                }
+            }
+        }
+
+        private String readAnnotation() {
+            final String descriptor = utf8At(u2());
+            skipElementValuePairs();
+            // Lcom/example/Annotation; -> com.example.Annotation
+            return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+        }
+
+        private void skipElementValuePairs() {
+            for (int pairs = u2(); pairs > 0; pairs--) {
+                skip(2);
+                skipElementValue();
+            }
+        }
+
+        private void skipElementValue() {
+            final char tag = (char) u1();
+            switch (tag) {
+                case 'e':
+                    skip(4);
+                    break;
+                case '@':
+                    skip(2);
+                    skipElementValuePairs();
+                    break;
+                case '[':
+                    for (int values = u2(); values > 0; values--) {
+                        skipElementValue();
+                    }
+                    break;
+                default:
+                    // A constant or a class
+                    skip(2);
+            }
+        }
+
+        private String classNameAt(int index) {
+            return utf8At(buffer.getShort(offsets[index] + 1) & 0xFFFF).replace('/', '.');
+        }
+
+        private String utf8At(int index) {
+            final int offset = offsets[index];
+            if (buffer.get(offset) != 1) {
+                throw new IllegalArgumentException("Constant pool entry " + index + " is not a Utf8 entry");
+            }
+            final int length = buffer.getShort(offset + 1) & 0xFFFF;
+            return new String(buffer.array(), offset + 3, length, StandardCharsets.UTF_8);
+        }
+
+        private int u1() {
+            return buffer.get() & 0xFF;
+        }
+
+        private int u2() {
+            return buffer.getShort() & 0xFFFF;
+        }
+
+        private void skip(int length) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+}
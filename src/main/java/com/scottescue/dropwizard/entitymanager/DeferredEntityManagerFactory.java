@@ -0,0 +1,243 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Query;
+import javax.persistence.SynchronizationType;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.metamodel.Metamodel;
+import javax.ws.rs.ServiceUnavailableException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * An {@link EntityManagerFactory} that is built on a background thread, so the application can start
+ * serving requests that do not use the database while the persistence unit initializes.
+ * <p>Until the factory is built, each call waits up to the configured limit for it, then fails with a
+ * {@link ServiceUnavailableException}, which Jersey maps to a 503 response.  If the factory fails to
+ * build, each call fails with a {@link PersistenceException} caused by the build failure.</p>
+ * <p>The factory is managed by the application's lifecycle: stopping it waits up to a shutdown timeout for
+ * the build to complete, then closes the factory and its data source.  If the build doesn't complete in
+ * time, it is abandoned, and the factory is closed as soon as it is built.</p>
+ */
+class DeferredEntityManagerFactory implements EntityManagerFactory, Managed {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeferredEntityManagerFactory.class);
+
+    static final Duration SHUTDOWN_TIMEOUT = Duration.seconds(30);
+
+    private final String name;
+    private final CompletableFuture<EntityManagerFactoryManager> future;
+    private final long maxWaitMillis;
+    private final long shutdownTimeoutMillis;
+    private final Object lock = new Object();
+    private EntityManagerFactoryManager built;
+    private boolean stopped;
+
+    /**
+     * Starts building the factory on a new daemon thread.
+     *
+     * @param name    the name of the EntityManager bundle
+     * @param maxWait how long calls wait for the factory to be built before failing
+     * @param builder builds the factory
+     */
+    DeferredEntityManagerFactory(String name, Duration maxWait, Supplier<EntityManagerFactoryManager> builder) {
+        this(name, maxWait, SHUTDOWN_TIMEOUT, builder);
+    }
+
+    /**
+     * Starts building the factory on a new daemon thread.
+     *
+     * @param name            the name of the EntityManager bundle
+     * @param maxWait         how long calls wait for the factory to be built before failing
+     * @param shutdownTimeout how long stopping the factory waits for it to be built
+     * @param builder         builds the factory
+     */
+    DeferredEntityManagerFactory(String name, Duration maxWait, Duration shutdownTimeout,
+                                 Supplier<EntityManagerFactoryManager> builder) {
+        this.name = name;
+        this.maxWaitMillis = maxWait.toMilliseconds();
+        this.shutdownTimeoutMillis = shutdownTimeout.toMilliseconds();
+        this.future = CompletableFuture.supplyAsync(() -> {
+            final EntityManagerFactoryManager managedFactory;
+            try {
+                managedFactory = build(builder);
+            } catch (RuntimeException | Error e) {
+                // Otherwise the failure would only be seen once calls or the health check report it
+                LOGGER.error("Unable to build the {} EntityManagerFactory", name, e);
+                throw e;
+            }
+            synchronized (lock) {
+                if (stopped) {
+                    // The application stopped without waiting for the build
+                    stopQuietly(managedFactory);
+                    throw new PersistenceException("The application stopped while the factory was built");
+                }
+                built = managedFactory;
+            }
+            return managedFactory;
+        }, runnable -> {
+            final Thread thread = new Thread(runnable, "entity-manager-initializer-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * @return true until the factory is built or fails to build
+     */
+    boolean isInitializing() {
+        return !future.isDone();
+    }
+
+    @Override
+    public void start() throws Exception {
+        // The factory is already being built
+    }
+
+    @Override
+    public void stop() throws Exception {
+        EntityManagerFactoryManager managedFactory;
+        try {
+            managedFactory = future.get(shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // Nothing was built
+            return;
+        } catch (TimeoutException e) {
+            synchronized (lock) {
+                stopped = true;
+                managedFactory = built;
+            }
+            future.cancel(false);
+            if (managedFactory == null) {
+                LOGGER.warn("The {} EntityManagerFactory was not built within {} ms, it will be closed once built",
+                        name, shutdownTimeoutMillis);
+                return;
+            }
+        }
+        managedFactory.stop();
+    }
+
+    @Override
+    public EntityManager createEntityManager() {
+        return delegate().createEntityManager();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public EntityManager createEntityManager(Map map) {
+        return delegate().createEntityManager(map);
+    }
+
+    @Override
+    public EntityManager createEntityManager(SynchronizationType synchronizationType) {
+        return delegate().createEntityManager(synchronizationType);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public EntityManager createEntityManager(SynchronizationType synchronizationType, Map map) {
+        return delegate().createEntityManager(synchronizationType, map);
+    }
+
+    @Override
+    public CriteriaBuilder getCriteriaBuilder() {
+        return delegate().getCriteriaBuilder();
+    }
+
+    @Override
+    public Metamodel getMetamodel() {
+        return delegate().getMetamodel();
+    }
+
+    @Override
+    public boolean isOpen() {
+        if (isInitializing()) {
+            // A factory that is being built is not closed yet
+            return true;
+        }
+        // A factory that failed to build was never opened
+        return !future.isCompletedExceptionally() && delegate().isOpen();
+    }
+
+    @Override
+    public void close() {
+        delegate().close();
+    }
+
+    @Override
+    public Map<String, Object> getProperties() {
+        return delegate().getProperties();
+    }
+
+    @Override
+    public Cache getCache() {
+        return delegate().getCache();
+    }
+
+    @Override
+    public PersistenceUnitUtil getPersistenceUnitUtil() {
+        return delegate().getPersistenceUnitUtil();
+    }
+
+    @Override
+    public void addNamedQuery(String name, Query query) {
+        delegate().addNamedQuery(name, query);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> cls) {
+        if (cls.isInstance(this)) {
+            return cls.cast(this);
+        }
+        return delegate().unwrap(cls);
+    }
+
+    @Override
+    public <T> void addNamedEntityGraph(String graphName, EntityGraph<T> entityGraph) {
+        delegate().addNamedEntityGraph(graphName, entityGraph);
+    }
+
+    private static EntityManagerFactoryManager build(Supplier<EntityManagerFactoryManager> builder) {
+        final EntityManagerFactoryManager managedFactory = builder.get();
+        try {
+            managedFactory.start();
+        } catch (Exception e) {
+            throw new PersistenceException("Unable to start the data source", e);
+        }
+        return managedFactory;
+    }
+
+    private void stopQuietly(EntityManagerFactoryManager managedFactory) {
+        try {
+            managedFactory.stop();
+        } catch (Exception e) {
+            LOGGER.warn("Unable to close the {} EntityManagerFactory", name, e);
+        }
+    }
+
+    private EntityManagerFactory delegate() {
+        try {
+            return future.get(maxWaitMillis, TimeUnit.MILLISECONDS).getFactory();
+        } catch (TimeoutException e) {
+            throw new ServiceUnavailableException("The EntityManagerFactory is still initializing");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Interrupted while waiting for the EntityManagerFactory");
+        } catch (ExecutionException e) {
+            throw new PersistenceException("The EntityManagerFactory failed to initialize", e.getCause());
+        }
+    }
+}
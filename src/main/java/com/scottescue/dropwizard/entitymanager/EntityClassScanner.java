@@ -0,0 +1,217 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.glassfish.jersey.server.internal.scanning.AnnotationAcceptingListener;
+import org.glassfish.jersey.server.internal.scanning.PackageNamesScanner;
+
+import javax.persistence.Entity;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Finds the public classes annotated with {@link Entity} in packages and their subpackages.
+ * <p>The entities of a class path root with an {@link EntityIndex} are read from its index; only the roots
+ * without an index are scanned.</p>
+ * <p>The class files of directories and jars are read and inspected in parallel on the common fork-join
+ * pool, without loading them.  A class file that doesn't contain the descriptor of {@link Entity} is
+ * rejected before it is parsed; only the matching classes are loaded.  Packages served by any other kind
+ * of class path entry are scanned by Jersey's scanner.</p>
+ */
+final class EntityClassScanner {
+    private static final byte[] ENTITY_DESCRIPTOR =
+            ("L" + Entity.class.getName().replace('.', '/') + ";").getBytes(StandardCharsets.UTF_8);
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final ClassLoader classLoader;
+    private final EntityIndex index;
+
+    EntityClassScanner(ClassLoader classLoader) {
+        this(classLoader, EntityIndex.load(classLoader));
+    }
+
+    EntityClassScanner(ClassLoader classLoader, EntityIndex index) {
+        this.classLoader = classLoader;
+        this.index = index;
+    }
+
+    /**
+     * @param packageNames the names of the packages to scan
+     * @return the entity classes, ordered by name
+     * @throws IllegalStateException if a class path entry can't be read
+     */
+    ImmutableList<Class<?>> scan(Iterable<String> packageNames) {
+        final List<Callable<InputStream>> classFiles = new ArrayList<>();
+        final SortedSet<String> classNames = new TreeSet<>();
+        final List<JarFile> jars = new ArrayList<>();
+        try {
+            for (String packageName : packageNames) {
+                classNames.addAll(index.classNamesIn(packageName));
+                if (!collect(packageName, classFiles, jars)) {
+                    classNames.addAll(scanWithJersey(packageName));
+                }
+            }
+            classNames.addAll(classFiles.parallelStream()
+                    .map(EntityClassScanner::entityClassName)
+                    .filter(name -> name != null)
+                    .collect(Collectors.toList()));
+        } catch (IOException | UncheckedIOException e) {
+            throw new IllegalStateException("Unable to scan " + packageNames + " for entities", e);
+        } finally {
+            jars.forEach(EntityClassScanner::closeQuietly);
+        }
+
+        final ImmutableList.Builder<Class<?>> builder = ImmutableList.builder();
+        for (String className : classNames) {
+            builder.add(load(className));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects the class files of the package from every class path entry without an index.
+     *
+     * @return false if the package is served by a class path entry that isn't a directory or a jar
+     */
+    private boolean collect(String packageName, List<Callable<InputStream>> classFiles, List<JarFile> jars)
+            throws IOException {
+        final String resourceName = packageName.replace('.', '/');
+        final Enumeration<URL> roots = classLoader.getResources(resourceName);
+        while (roots.hasMoreElements()) {
+            final URL root = roots.nextElement();
+            if (index.indexes(EntityIndex.rootOf(root, resourceName))) {
+                continue;
+            }
+            if ("file".equals(root.getProtocol())) {
+                collectDirectory(root, classFiles);
+            } else if ("jar".equals(root.getProtocol())) {
+                final JarURLConnection connection = (JarURLConnection) root.openConnection();
+                // Don't share the cached jar, it is closed once scanned
+                connection.setUseCaches(false);
+                final JarFile jar = connection.getJarFile();
+                jars.add(jar);
+                collectJar(jar, resourceName + "/", classFiles);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void collectDirectory(URL root, List<Callable<InputStream>> classFiles) throws IOException {
+        final Path directory;
+        try {
+            directory = Paths.get(root.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid class path directory " + root, e);
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(CLASS_SUFFIX))
+                    .forEach(file -> classFiles.add(() -> Files.newInputStream(file)));
+        }
+    }
+
+    private static void collectJar(JarFile jar, String prefix, List<Callable<InputStream>> classFiles) {
+        for (JarEntry entry : Collections.list(jar.entries())) {
+            if (!entry.isDirectory() && entry.getName().startsWith(prefix)
+                    && entry.getName().endsWith(CLASS_SUFFIX)) {
+                classFiles.add(() -> jar.getInputStream(entry));
+            }
+        }
+    }
+
+    private static String entityClassName(Callable<InputStream> classFile) {
+        final byte[] bytes;
+        try (InputStream in = classFile.call()) {
+            bytes = ByteStreams.toByteArray(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        if (!contains(bytes, ENTITY_DESCRIPTOR)) {
+            return null;
+        }
+        final ClassFileHeader header;
+        try {
+            header = ClassFileHeader.parse(bytes);
+        } catch (IllegalArgumentException e) {
+            // Not a class file we can inspect
+            return null;
+        }
+        return header.isPublic() && header.isAnnotatedWith(Entity.class) ? header.getClassName() : null;
+    }
+
+    static boolean contains(byte[] bytes, byte[] pattern) {
+        final byte first = pattern[0];
+        final int last = bytes.length - pattern.length;
+        outer:
+        for (int i = 0; i <= last; i++) {
+            if (bytes[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private Set<String> scanWithJersey(String packageName) {
+        @SuppressWarnings("unchecked")
+        final AnnotationAcceptingListener asl = new AnnotationAcceptingListener(classLoader, Entity.class);
+        final PackageNamesScanner scanner = new PackageNamesScanner(classLoader, new String[]{packageName}, true);
+
+        while (scanner.hasNext()) {
+            final String next = scanner.next();
+            if (asl.accept(next)) {
+                try (final InputStream in = scanner.open()) {
+                    asl.process(next, in);
+                } catch (IOException e) {
+                    throw new RuntimeException("AnnotationAcceptingListener failed to process scanned resource: " + next);
+                }
+            }
+        }
+
+        return asl.getAnnotatedClasses().stream().map(Class::getName).collect(Collectors.toSet());
+    }
+
+    private Class<?> load(String className) {
+        try {
+            return Class.forName(className, false, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Unable to load entity class " + className, e);
+        }
+    }
+
+    private static void closeQuietly(JarFile jar) {
+        try {
+            jar.close();
+        } catch (IOException e) {
+            // Nothing left to read from it
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The index of JPA entity classes written at compile time by the {@link EntityIndexProcessor}.
+ * <p>Every jar, or class directory, compiled with the processor holds an index resource listing the binary
+ * names of its classes annotated with {@link javax.persistence.Entity}, one per line.  The index of a
+ * class loader keeps the entities of each class path root apart: a root with an index resource is
+ * assumed to list all of its entities, while the entities of a root without one must be scanned for,
+ * even if they share a package with indexed entities of another root.</p>
+ */
+final class EntityIndex {
+    static final String LOCATION = "META-INF/dropwizard-entitymanager/entities";
+
+    /**
+     * The entity class names of each indexed root, keyed by the external form of the root's URL
+     */
+    private final ImmutableMap<String, ImmutableSortedSet<String>> roots;
+
+    private EntityIndex(Map<String, ImmutableSortedSet<String>> roots) {
+        this.roots = ImmutableMap.copyOf(roots);
+    }
+
+    /**
+     * Loads the index resources visible to the given class loader.
+     *
+     * @param classLoader the class loader to load the index resources from
+     * @return the index; empty if no index resource was found
+     * @throws IllegalStateException if an index resource can't be read
+     */
+    static EntityIndex load(ClassLoader classLoader) {
+        final Map<String, ImmutableSortedSet<String>> roots = new HashMap<>();
+        try {
+            final Enumeration<URL> resources = classLoader.getResources(LOCATION);
+            while (resources.hasMoreElements()) {
+                final URL resource = resources.nextElement();
+                final SortedSet<String> classNames = new TreeSet<>();
+                read(resource, classNames);
+                roots.put(rootOf(resource, LOCATION).toExternalForm(), ImmutableSortedSet.copyOf(classNames));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read the entity index '" + LOCATION + "'", e);
+        }
+        return new EntityIndex(roots);
+    }
+
+    /**
+     * Returns the class path root holding a resource, e.g. {@code file:/app/classes/} for
+     * {@code file:/app/classes/com/example}.
+     *
+     * @param resource the URL of the resource
+     * @param resourceName the name the resource was found by
+     * @return the URL of the root
+     * @throws MalformedURLException if the URL doesn't end with the name of the resource
+     */
+    static URL rootOf(URL resource, String resourceName) throws MalformedURLException {
+        final String url = resource.toExternalForm();
+        final String suffix = resourceName.endsWith("/") ? resourceName : resourceName.concat("/");
+        if (url.endsWith(suffix)) {
+            return new URL(url.substring(0, url.length() - suffix.length()));
+        } else if (url.endsWith(resourceName)) {
+            return new URL(url.substring(0, url.length() - resourceName.length()));
+        }
+        throw new MalformedURLException(url + " is not the resource " + resourceName);
+    }
+
+    /**
+     * @param root the URL of a class path root
+     * @return whether the root has an index
+     */
+    boolean indexes(URL root) {
+        return roots.containsKey(root.toExternalForm());
+    }
+
+    /**
+     * Returns the names of the indexed entity classes of every indexed root in the given package or any of
+     * its subpackages.
+     *
+     * @param packageName the name of the package
+     * @return the names of the entity classes, in order
+     */
+    ImmutableList<String> classNamesIn(String packageName) {
+        final SortedSet<String> classNames = new TreeSet<>();
+        for (ImmutableSortedSet<String> rootClassNames : roots.values()) {
+            classNames.addAll(classNamesIn(rootClassNames, packageName));
+        }
+        return ImmutableList.copyOf(classNames);
+    }
+
+    boolean isEmpty() {
+        return roots.isEmpty();
+    }
+
+    private static ImmutableList<String> classNamesIn(ImmutableSortedSet<String> classNames, String packageName) {
+        final String prefix = packageName.concat(".");
+        // The names are sorted, so the names in the package form a contiguous range
+        final ImmutableList.Builder<String> builder = ImmutableList.builder();
+        for (String className : classNames.tailSet(prefix)) {
+            if (!className.startsWith(prefix)) {
+                break;
+            }
+            builder.add(className);
+        }
+        return builder.build();
+    }
+
+    static void read(InputStream in, SortedSet<String> classNames) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                classNames.add(line);
+            }
+        }
+    }
+
+    private static void read(URL resource, SortedSet<String> classNames) throws IOException {
+        try (InputStream in = resource.openStream()) {
+            read(in, classNames);
+        }
+    }
+}
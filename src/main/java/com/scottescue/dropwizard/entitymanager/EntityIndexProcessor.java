@@ -0,0 +1,93 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * An annotation processor writing the {@link EntityIndex} of the classes annotated with
+ * {@link javax.persistence.Entity}, so {@link ScanningEntityManagerBundle} doesn't have to scan the
+ * classpath for them at startup.
+ * <p>The processor is discovered by the compiler when this library is on the compile classpath.  Entries
+ * of an existing index whose classes are still part of the compilation are kept, so incremental
+ * compilation doesn't drop the entities that weren't recompiled.</p>
+ */
+@SupportedAnnotationTypes("javax.persistence.Entity")
+public class EntityIndexProcessor extends AbstractProcessor {
+
+    private final SortedSet<String> classNames = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element instanceof TypeElement) {
+                    classNames.add(binaryName((TypeElement) element));
+                }
+            }
+        }
+        if (roundEnv.processingOver() && !classNames.isEmpty()) {
+            writeIndex();
+        }
+        return false;
+    }
+
+    private void writeIndex() {
+        final SortedSet<String> index = new TreeSet<>(classNames);
+        index.addAll(previouslyIndexedClassNames());
+        try {
+            final FileObject resource = processingEnv.getFiler()
+                    .createResource(StandardLocation.CLASS_OUTPUT, "", EntityIndex.LOCATION);
+            try (Writer writer = new OutputStreamWriter(resource.openOutputStream(), StandardCharsets.UTF_8)) {
+                for (String className : index) {
+                    writer.write(className);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write the entity index '" + EntityIndex.LOCATION + "': " + e);
+        }
+    }
+
+    private SortedSet<String> previouslyIndexedClassNames() {
+        final SortedSet<String> previous = new TreeSet<>();
+        try {
+            final FileObject resource = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", EntityIndex.LOCATION);
+            try (InputStream in = resource.openInputStream()) {
+                EntityIndex.read(in, previous);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // There is no previous index
+            return previous;
+        }
+        // Drop the classes that no longer exist
+        previous.removeIf(className ->
+                processingEnv.getElementUtils().getTypeElement(className.replace('$', '.')) == null);
+        return previous;
+    }
+
+    private String binaryName(TypeElement element) {
+        return processingEnv.getElementUtils().getBinaryName(element).toString();
+    }
+}
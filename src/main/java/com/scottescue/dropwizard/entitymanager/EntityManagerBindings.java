@@ -0,0 +1,150 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * An immutable snapshot of the EntityManagers, and the initializers of lazy EntityManagers, bound to an
+ * execution context, keyed by their {@link EntityManagerFactory}.
+ * <p/>
+ * Every modification returns a new instance, so a snapshot can be captured and handed to another
+ * thread without copying.  A unit of work rarely spans more than a few factories, so the bindings
+ * are kept in small arrays that are searched linearly rather than in a hash table.
+ */
+final class EntityManagerBindings {
+    private static final Object[] NONE = new Object[0];
+
+    static final EntityManagerBindings EMPTY = new EntityManagerBindings(NONE, NONE, NONE, NONE);
+
+    private final Object[] factories;
+    private final Object[] entityManagers;
+    private final Object[] initializerFactories;
+    private final Object[] initializers;
+
+    private EntityManagerBindings(Object[] factories, Object[] entityManagers,
+                                  Object[] initializerFactories, Object[] initializers) {
+        this.factories = factories;
+        this.entityManagers = entityManagers;
+        this.initializerFactories = initializerFactories;
+        this.initializers = initializers;
+    }
+
+    EntityManager entityManager(EntityManagerFactory factory) {
+        final int index = indexOf(factories, factory);
+        return index < 0 ? null : (EntityManager) entityManagers[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    Supplier<EntityManager> initializer(EntityManagerFactory factory) {
+        final int index = indexOf(initializerFactories, factory);
+        return index < 0 ? null : (Supplier<EntityManager>) initializers[index];
+    }
+
+    EntityManagerBindings withEntityManager(EntityManagerFactory factory, EntityManager entityManager) {
+        final int index = indexOf(factories, factory);
+        if (index < 0) {
+            return new EntityManagerBindings(append(factories, factory), append(entityManagers, entityManager),
+                    initializerFactories, initializers);
+        }
+        final Object[] replaced = entityManagers.clone();
+        replaced[index] = entityManager;
+        return new EntityManagerBindings(factories, replaced, initializerFactories, initializers);
+    }
+
+    EntityManagerBindings withoutEntityManager(EntityManagerFactory factory) {
+        final int index = indexOf(factories, factory);
+        if (index < 0) {
+            return this;
+        }
+        return new EntityManagerBindings(remove(factories, index), remove(entityManagers, index),
+                initializerFactories, initializers);
+    }
+
+    EntityManagerBindings withInitializer(EntityManagerFactory factory, Supplier<EntityManager> initializer) {
+        final int index = indexOf(initializerFactories, factory);
+        if (index < 0) {
+            return new EntityManagerBindings(factories, entityManagers,
+                    append(initializerFactories, factory), append(initializers, initializer));
+        }
+        final Object[] replaced = initializers.clone();
+        replaced[index] = initializer;
+        return new EntityManagerBindings(factories, entityManagers, initializerFactories, replaced);
+    }
+
+    EntityManagerBindings withoutInitializer(EntityManagerFactory factory) {
+        final int index = indexOf(initializerFactories, factory);
+        if (index < 0) {
+            return this;
+        }
+        return new EntityManagerBindings(factories, entityManagers,
+                remove(initializerFactories, index), remove(initializers, index));
+    }
+
+    /**
+     * @return the bound EntityManagers, keyed by their EntityManagerFactory.
+     */
+    Map<EntityManagerFactory, EntityManager> entityManagers() {
+        final Map<EntityManagerFactory, EntityManager> map = new LinkedHashMap<>();
+        for (int i = 0; i < factories.length; i++) {
+            map.put((EntityManagerFactory) factories[i], (EntityManager) entityManagers[i]);
+        }
+        return map;
+    }
+
+    /**
+     * @return the factories that have an EntityManager or an initializer bound.
+     */
+    Set<EntityManagerFactory> factories() {
+        final Set<EntityManagerFactory> set = new HashSet<>();
+        for (Object factory : factories) {
+            set.add((EntityManagerFactory) factory);
+        }
+        for (Object factory : initializerFactories) {
+            set.add((EntityManagerFactory) factory);
+        }
+        return set;
+    }
+
+    boolean hasEntityManagers() {
+        return factories.length > 0;
+    }
+
+    boolean hasInitializers() {
+        return initializerFactories.length > 0;
+    }
+
+    boolean isEmpty() {
+        return factories.length == 0 && initializerFactories.length == 0;
+    }
+
+    private static int indexOf(Object[] keys, Object key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == key || keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Object[] append(Object[] array, Object element) {
+        final Object[] appended = Arrays.copyOf(array, array.length + 1);
+        appended[array.length] = element;
+        return appended;
+    }
+
+    private static Object[] remove(Object[] array, int index) {
+        if (array.length == 1) {
+            return NONE;
+        }
+        final Object[] removed = new Object[array.length - 1];
+        System.arraycopy(array, 0, removed, 0, index);
+        System.arraycopy(array, index + 1, removed, index, array.length - index - 1);
+        return removed;
+    }
+}
@@ -14,10 +14,36 @@ import io.dropwizard.util.Duration;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
 /**
  * A bundle for easily creating a JPA persistence unit.  When creating an instance of the bundle you simply
  * need to provide a list of the JPA entities for the persistence unit and provide an implementation of
  * {@link DatabaseConfiguration#getDataSourceFactory(Configuration)}.
+ * <p>The entity classes are loaded before the persistence unit is built, so Hibernate can't enhance their
+ * bytecode at runtime: class transformers it registers are ignored, and a warning lists the entities they
+ * would have transformed.  To use bytecode enhancement, e.g. for lazy loading of basic attributes or dirty
+ * tracking, enhance the entities at build time with the {@code hibernate-enhance-maven-plugin} of the
+ * Hibernate version in use, which Hibernate then detects on its own:</p>
+ * <pre>
+ * &lt;plugin&gt;
+ *     &lt;groupId&gt;org.hibernate.orm.tooling&lt;/groupId&gt;
+ *     &lt;artifactId&gt;hibernate-enhance-maven-plugin&lt;/artifactId&gt;
+ *     &lt;version&gt;${hibernate.version}&lt;/version&gt;
+ *     &lt;executions&gt;
+ *         &lt;execution&gt;
+ *             &lt;goals&gt;
+ *                 &lt;goal&gt;enhance&lt;/goal&gt;
+ *             &lt;/goals&gt;
+ *             &lt;configuration&gt;
+ *                 &lt;enableDirtyTracking&gt;true&lt;/enableDirtyTracking&gt;
+ *                 &lt;enableLazyInitialization&gt;true&lt;/enableLazyInitialization&gt;
+ *             &lt;/configuration&gt;
+ *         &lt;/execution&gt;
+ *     &lt;/executions&gt;
+ * &lt;/plugin&gt;
+ * </pre>
  *
  * @param <T> the {@link Configuration} type expected by this bundle
  */
@@ -28,7 +54,15 @@ public abstract class EntityManagerBundle<T extends Configuration> implements Co
     private EntityManagerContext entityManagerContext;
     private EntityManager sharedEntityManager;
     private boolean serializeLazyLoadedEntitiesEnabled = true;
+    private boolean entityMetricsEnabled = false;
+    private boolean queryMetricsEnabled = false;
+    private boolean jdbcMetricsEnabled = false;
+    private StatisticsMode statisticsMode = StatisticsMode.FULL;
+    private int statisticsSampleInterval = 100;
+    private int repeatedStatementThreshold = 0;
     private boolean initialized = false;
+    private Duration backgroundInitializationWait;
+    private SecondLevelCacheFactory secondLevelCache;
 
     private final ImmutableList<Class<?>> entities;
     private final EntityManagerFactoryFactory entityManagerFactoryFactory;
@@ -51,13 +85,45 @@ public abstract class EntityManagerBundle<T extends Configuration> implements Co
 
     @Override
     public final void run(T configuration, Environment environment) throws Exception {
+        if (backgroundInitializationWait == null) {
+            register(configuration, environment, build(configuration, environment));
+        } else {
+            final PooledDataSourceFactory dbConfig = getDataSourceFactory(configuration);
+            this.secondLevelCache = getSecondLevelCacheFactory(configuration);
+            final DeferredEntityManagerFactory deferredFactory = new DeferredEntityManagerFactory(name(),
+                    backgroundInitializationWait,
+                    () -> entityManagerFactoryFactory.buildManaged(this, environment, dbConfig, entities, name()));
+            environment.lifecycle().manage(deferredFactory);
+            register(configuration, environment, deferredFactory);
+        }
+    }
+
+    /**
+     * Builds the EntityManagerFactory of this bundle.  Building the factories of several bundles concurrently
+     * is safe, which {@link ParallelEntityManagerBundles} relies on.
+     */
+    EntityManagerFactory build(T configuration, Environment environment) {
+        final PooledDataSourceFactory dbConfig = getDataSourceFactory(configuration);
+        this.secondLevelCache = getSecondLevelCacheFactory(configuration);
+        return entityManagerFactoryFactory.build(this, environment, dbConfig, entities, name());
+    }
+
+    /**
+     * Exposes the given EntityManagerFactory, built by {@link #build(Configuration, Environment)}, to the
+     * application: registers it with the {@link UnitOfWork} listener and registers its health check.
+     */
+    void register(T configuration, Environment environment, EntityManagerFactory entityManagerFactory) {
         final PooledDataSourceFactory dbConfig = getDataSourceFactory(configuration);
 
-        this.entityManagerFactory = entityManagerFactoryFactory.build(this, environment, dbConfig, entities, name());
+        this.entityManagerFactory = entityManagerFactory;
         this.entityManagerContext = new EntityManagerContext(entityManagerFactory);
         this.sharedEntityManager = sharedEntityManagerFactory.build(entityManagerContext);
 
-        registerUnitOfWorkListerIfAbsent(environment).registerEntityManagerFactory(name(), entityManagerFactory);
+        final UnitOfWorkApplicationListener listener = registerUnitOfWorkListerIfAbsent(environment);
+        listener.registerEntityManagerFactory(name(), entityManagerFactory);
+        if (repeatedStatementThreshold > 0) {
+            listener.registerRepeatedStatementThreshold(name(), repeatedStatementThreshold);
+        }
         environment.healthChecks().register(name(),
                 new EntityManagerFactoryHealthCheck(
                         environment.getHealthCheckExecutorService(),
@@ -132,6 +198,170 @@ public abstract class EntityManagerBundle<T extends Configuration> implements Co
 
     }
 
+    /**
+     * Returns how the statistics of the EntityManagerFactory are collected.  Statistics are fully collected
+     * by default.
+     *
+     * @return the statistics mode
+     */
+    public StatisticsMode getStatisticsMode() {
+        return statisticsMode;
+    }
+
+    /**
+     * Sets how the statistics of the EntityManagerFactory, which are reported as metrics under the name of
+     * the bundle, are collected.  Statistics can be turned off, collected in full, or sampled, in which case
+     * query execution times are only recorded for one in every
+     * {@link #setStatisticsSampleInterval(int) sample interval} units of work.
+     *
+     * <br/><br/><i><strong>Note: </strong>This method should be called before the application runs the bundle.</i>
+     *
+     * @param statisticsMode the statistics mode
+     */
+    public void setStatisticsMode(StatisticsMode statisticsMode) {
+        this.statisticsMode = requireNonNull(statisticsMode);
+    }
+
+    /**
+     * Returns one in how many units of work query execution times are recorded when statistics are
+     * sampled.  The default is 100.
+     *
+     * @return the sample interval
+     */
+    public int getStatisticsSampleInterval() {
+        return statisticsSampleInterval;
+    }
+
+    /**
+     * Sets one in how many units of work query execution times are recorded when statistics are sampled.
+     *
+     * <br/><br/><i><strong>Note: </strong>This method should be called before the application runs the bundle.</i>
+     *
+     * @param statisticsSampleInterval the sample interval, at least 1
+     * @see StatisticsMode#SAMPLED
+     */
+    public void setStatisticsSampleInterval(int statisticsSampleInterval) {
+        checkArgument(statisticsSampleInterval > 0, "The sample interval must be positive");
+        this.statisticsSampleInterval = statisticsSampleInterval;
+    }
+
+    /**
+     * Returns a boolean value indicating whether or not the loads, fetches, inserts, updates and deletes of
+     * each entity are metered.  The totals of all entities are always reported.  Metering each entity is
+     * disabled by default.
+     *
+     * @return the value indicating whether metering each entity is enabled or not
+     */
+    public boolean isEntityMetricsEnabled() {
+        return entityMetricsEnabled;
+    }
+
+    /**
+     * Enables or disables metering the loads, fetches, inserts, updates and deletes of each entity, as
+     * {@code <bundle name>.entities.<entity name>.<loads|fetches|inserts|updates|deletes>}.
+     *
+     * <br/><br/><i><strong>Note: </strong>This method should be called before the application runs the bundle.</i>
+     *
+     * @param entityMetricsEnabled the value indicating whether metering each entity is enabled or not
+     */
+    public void setEntityMetricsEnabled(boolean entityMetricsEnabled) {
+        this.entityMetricsEnabled = entityMetricsEnabled;
+    }
+
+    /**
+     * Returns a boolean value indicating whether or not the executions of each query are timed.  The totals
+     * of all queries are always reported.  Timing each query is disabled by default.
+     *
+     * @return the value indicating whether timing each query is enabled or not
+     */
+    public boolean isQueryMetricsEnabled() {
+        return queryMetricsEnabled;
+    }
+
+    /**
+     * Enables or disables timing the executions of each query, as {@code <bundle name>.queries.<key>}, the
+     * query named by each key being logged.
+     *
+     * <br/><br/><i><strong>Note: </strong>This method should be called before the application runs the bundle.</i>
+     *
+     * @param queryMetricsEnabled the value indicating whether timing each query is enabled or not
+     */
+    public void setQueryMetricsEnabled(boolean queryMetricsEnabled) {
+        this.queryMetricsEnabled = queryMetricsEnabled;
+    }
+
+    /**
+     * Returns a boolean value indicating whether or not the bundle's use of JDBC is instrumented.  JDBC
+     * instrumentation is disabled by default.
+     *
+     * @return the value indicating whether JDBC instrumentation is enabled or not
+     */
+    public boolean isJdbcMetricsEnabled() {
+        return jdbcMetricsEnabled;
+    }
+
+    /**
+     * Enables or disables instrumenting the connections the EntityManagerFactory gets from its data source.
+     * Statement preparations, executions and result set iterations are timed, and the rows fetched and the
+     * batch sizes sent are recorded, as {@code <bundle name>.jdbc.<prepare|execute|fetch|rows|batch-size>}
+     * and for each statement's SQL as {@code <bundle name>.jdbc.sql.<key>.<metric>}, the SQL named by each key
+     * being logged.  The instrumentation adds a small cost to every JDBC call.
+     *
+     * <br/><br/><i><strong>Note: </strong>This method should be called before the application runs the bundle.</i>
+     *
+     * @param jdbcMetricsEnabled the value indicating whether JDBC instrumentation is enabled or not
+     */
+    public void setJdbcMetricsEnabled(boolean jdbcMetricsEnabled) {
+        this.jdbcMetricsEnabled = jdbcMetricsEnabled;
+    }
+
+    /**
+     * Returns how many times a unit of work may execute statements of the same shape before they are reported
+     * as a likely N+1 select, or 0 if repeated statements are not detected, which is the default.
+     *
+     * @return the repeated statement threshold
+     */
+    public int getRepeatedStatementThreshold() {
+        return repeatedStatementThreshold;
+    }
+
+    /**
+     * Makes the bundle count the SQL statements executed by the unit of work of each {@link UnitOfWork}
+     * resource method, including those executed by lazy loading while the response is serialized.  The
+     * statements are grouped by shape, ignoring their literals, and a shape executed more times than the
+     * given threshold within a unit of work is logged with a sample of what executed it, and metered as
+     * {@code <resource class>.<method>.unit-of-work.<bundle name>.repeated-statements}.  The number of
+     * statements of each unit of work is reported as {@code ...<bundle name>.statements}.  Only the statements
+     * executed on the thread running the resource method, or resuming its asynchronous response, are counted:
+     * those of tasks sharing the unit of work on other threads through {@link UnitOfWorkAwareExecutors} are
+     * not.
+     *
+     * <br/><br/><i><strong>Note: </strong>This method should be called before the application runs the bundle.
+     * Enabling SQL comments in the data source configuration makes the samples name the entity or association
+     * being loaded rather than the table.</i>
+     *
+     * @param threshold how many times a statement shape may be executed by a unit of work, at least 1
+     */
+    public void enableRepeatedStatementDetection(int threshold) {
+        checkArgument(threshold > 0, "The repeated statement threshold must be positive");
+        this.repeatedStatementThreshold = threshold;
+    }
+
+    /**
+     * Makes the bundle build its {@link EntityManagerFactory} on a background thread instead of blocking the
+     * application's startup.  The application then starts serving requests right away; until the factory is
+     * built, its health check reports it as initializing, and units of work wait up to the given limit for
+     * it before failing with a 503 Service Unavailable response.  A limit of zero fails them immediately.
+     *
+     * <br/><br/><i><strong>Note: </strong>This method should be called before the application runs the bundle.
+     * It has no effect on bundles run by {@link ParallelEntityManagerBundles}.</i>
+     *
+     * @param maxWait how long a unit of work waits for the EntityManagerFactory to be built
+     */
+    public void enableBackgroundInitialization(Duration maxWait) {
+        this.backgroundInitializationWait = requireNonNull(maxWait);
+    }
+
     /**
      * Override to configure the name of the bundle
      * (It's used for the bundle health check and database pool metrics)
@@ -140,6 +370,19 @@ public abstract class EntityManagerBundle<T extends Configuration> implements Co
         return DEFAULT_NAME;
     }
 
+    /**
+     * Override to enable the in-process second-level cache of the persistence unit, e.g. by returning a
+     * {@link SecondLevelCacheFactory} read from the application's configuration.  Which entities are
+     * cached is determined by the persistence unit's shared cache mode; by default only the entities
+     * annotated with {@link javax.persistence.Cacheable} are.
+     *
+     * @param configuration the application's configuration
+     * @return the configuration of the second-level cache, or null to disable it
+     */
+    protected SecondLevelCacheFactory getSecondLevelCacheFactory(T configuration) {
+        return null;
+    }
+
     /**
      * Override to configure Jackson's {@link Hibernate5Module}.
      *
@@ -160,6 +403,10 @@ public abstract class EntityManagerBundle<T extends Configuration> implements Co
         return entities;
     }
 
+    SecondLevelCacheFactory getSecondLevelCache() {
+        return this.secondLevelCache;
+    }
+
     EntityManagerContext getEntityManagerContext() {
         return this.entityManagerContext;
     }
@@ -170,7 +417,7 @@ public abstract class EntityManagerBundle<T extends Configuration> implements Co
                 return (UnitOfWorkApplicationListener) singleton;
             }
         }
-        final UnitOfWorkApplicationListener listener = new UnitOfWorkApplicationListener();
+        final UnitOfWorkApplicationListener listener = new UnitOfWorkApplicationListener(environment.metrics());
         environment.jersey().register(listener);
         return listener;
     }
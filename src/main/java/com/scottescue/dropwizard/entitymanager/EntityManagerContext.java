@@ -5,10 +5,10 @@ import com.google.common.annotations.VisibleForTesting;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.PersistenceException;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Represents the notion of contextual {@link EntityManager} instances managed by
@@ -17,12 +17,19 @@ import java.util.function.Consumer;
  * binding/unbinding them here for exposure to the application through
  * {@link EntityManager} proxy calls.
  * <p/>
- * The underlying storage of the current EntityManagers here is a static
- * {@link ThreadLocal}-based map where the EntityManagers are keyed by the
- * the owning {@link EntityManagerFactory}.
+ * The current EntityManagers are kept in an immutable {@link EntityManagerBindings}
+ * snapshot, keyed by the owning {@link EntityManagerFactory}, which is held by a
+ * static {@link ThreadLocal}.  Since each snapshot is only ever replaced by its own
+ * execution context, and never modified, no synchronization is needed to access it,
+ * and a snapshot may be captured and restored without copying.
+ * <p/>
+ * An initializer may be bound in place of an EntityManager.  The initializer
+ * is invoked, and is expected to bind the EntityManager it creates, the first
+ * time the current EntityManager is requested.
  */
 class EntityManagerContext {
-    private static final ThreadLocal<Map<EntityManagerFactory,EntityManager>> CONTEXT_TL = new ThreadLocal<>();
+    // Cleared as soon as nothing is bound, so idle threads hold no bindings
+    private static final ThreadLocal<EntityManagerBindings> BINDINGS = new ThreadLocal<>();
 
     private final EntityManagerFactory factory;
 
@@ -36,7 +43,10 @@ class EntityManagerContext {
     }
 
     EntityManager currentEntityManager() throws PersistenceException {
-        final EntityManager current = existingEntityManager( this.factory );
+        EntityManager current = existingEntityManager( this.factory );
+        if ( current == null ) {
+            current = initializeEntityManager( this.factory );
+        }
         if ( current == null ) {
             throw new PersistenceException( "No EntityManager currently bound to execution context" );
         }
@@ -62,7 +72,49 @@ class EntityManagerContext {
      * @return any previously bound EntityManager (should be null in most cases).
      */
     static EntityManager bind(EntityManager entityManager) {
-        return entityManagerMap( true ).put( entityManager.getEntityManagerFactory(), entityManager );
+        return bind( entityManager.getEntityManagerFactory(), entityManager );
+    }
+
+    /**
+     * Binds the given EntityManager to the current context for the given EntityManagerFactory, which
+     * may be a wrapper of the factory that created the EntityManager.
+     *
+     * @param factory the factory to bind the EntityManager for.
+     * @param entityManager the EntityManager to be bound.
+     * @return any previously bound EntityManager (should be null in most cases).
+     */
+    static EntityManager bind(EntityManagerFactory factory, EntityManager entityManager) {
+        final EntityManagerBindings bindings = current();
+        update( bindings.withEntityManager( factory, entityManager ) );
+        return bindings.entityManager( factory );
+    }
+
+    /**
+     * Binds an initializer to the current context for the given EntityManagerFactory.  The
+     * initializer will be invoked the first time the current EntityManager is requested and
+     * no EntityManager is bound.
+     *
+     * @param factory the factory the initializer creates EntityManagers for.
+     * @param initializer creates, binds and returns the EntityManager for the current context.
+     */
+    static void bindInitializer(EntityManagerFactory factory, Supplier<EntityManager> initializer) {
+        update( current().withInitializer( factory, initializer ) );
+    }
+
+    /**
+     * Unbinds the initializer, if any, currently associated with the context for the
+     * given EntityManagerFactory.
+     *
+     * @param factory the factory for which to unbind the current initializer.
+     * @return true if an initializer was bound and had not yet been invoked.
+     */
+    static boolean unbindInitializer(EntityManagerFactory factory) {
+        final EntityManagerBindings bindings = current();
+        if ( bindings.initializer( factory ) == null ) {
+            return false;
+        }
+        update( bindings.withoutInitializer( factory ) );
+        return true;
     }
 
     /**
@@ -73,59 +125,129 @@ class EntityManagerContext {
      * @return the bound entity manager, if any; else null.
      */
     static EntityManager unbind(EntityManagerFactory factory) {
-        final Map<EntityManagerFactory,EntityManager> entityManagerMap = entityManagerMap(false);
-        EntityManager existing = null;
-        if ( entityManagerMap != null ) {
-            existing = entityManagerMap.remove( factory );
-            doCleanup();
+        final EntityManagerBindings bindings = current();
+        final EntityManager existing = bindings.entityManager( factory );
+        if ( existing != null ) {
+            update( bindings.withoutEntityManager( factory ) );
         }
         return existing;
     }
 
     /**
-     * Unbinds all EntityManagers, regardless of EntityManagerFactory, currently associated with the context.
+     * Unbinds the given EntityManager if it is the EntityManager currently associated with the
+     * context for its EntityManagerFactory.
+     *
+     * @param entityManager the EntityManager to be unbound.
+     * @return true if the EntityManager was bound and has been unbound.
+     */
+    static boolean unbind(EntityManager entityManager) {
+        return unbind( entityManager.getEntityManagerFactory(), entityManager );
+    }
+
+    /**
+     * Unbinds the given EntityManager if it is the EntityManager currently associated with the
+     * context for the given EntityManagerFactory.
+     *
+     * @param factory the factory the EntityManager was bound for.
+     * @param entityManager the EntityManager to be unbound.
+     * @return true if the EntityManager was bound and has been unbound.
+     */
+    static boolean unbind(EntityManagerFactory factory, EntityManager entityManager) {
+        final EntityManagerBindings bindings = current();
+        if ( bindings.entityManager( factory ) != entityManager ) {
+            return false;
+        }
+        update( bindings.withoutEntityManager( factory ) );
+        return true;
+    }
+
+    /**
+     * Unbinds all EntityManagers and initializers, regardless of EntityManagerFactory, currently associated
+     * with the context.  Initializers that were never invoked are discarded.
      *
      * @param function the function to apply to each EntityManager removed
      */
     static void unBindAll(Consumer<EntityManager> function) {
-        final Map<EntityManagerFactory,EntityManager> entityManagerMap = entityManagerMap(false);
-        if ( entityManagerMap != null ) {
-            Iterator<EntityManager> iterator = entityManagerMap.values().iterator();
-            while (iterator.hasNext()) {
-                EntityManager entityManager = iterator.next();
-                function.accept(entityManager);
-                iterator.remove();
+        final EntityManagerBindings bindings = current();
+        if ( bindings.isEmpty() ) {
+            return;
+        }
+        // Unbind before applying the function, so nothing stays bound if the function fails
+        BINDINGS.remove();
+        bindings.entityManagers().values().forEach( function );
+    }
+
+    /**
+     * Returns a snapshot of the EntityManagers and initializers currently associated with the context.
+     *
+     * @return the current bindings; empty if none are bound.
+     */
+    static EntityManagerBindings capture() {
+        return current();
+    }
+
+    /**
+     * Replaces the EntityManagers and initializers currently associated with the context with the
+     * given bindings, typically ones previously returned by {@link #capture()}.
+     *
+     * @param bindings the bindings to restore.
+     */
+    static void restore(EntityManagerBindings bindings) {
+        update( bindings );
+    }
+
+    /**
+     * Returns the factories that have an EntityManager or an initializer associated with the context.
+     *
+     * @return the factories in use by the context.
+     */
+    static Set<EntityManagerFactory> boundFactories() {
+        return current().factories();
+    }
+
+    /**
+     * Invokes every initializer associated with the context, so an EntityManager is bound
+     * for each factory in use.
+     */
+    static void initializeAll() {
+        final EntityManagerBindings bindings = current();
+        if ( bindings.hasInitializers() ) {
+            for ( EntityManagerFactory factory : bindings.factories() ) {
+                initializeEntityManager( factory );
             }
-            doCleanup();
         }
     }
 
     @VisibleForTesting
-    static synchronized Map<EntityManagerFactory,EntityManager> entityManagerMap(boolean createMap) {
-        Map<EntityManagerFactory,EntityManager> entityManagerMap = CONTEXT_TL.get();
-        if ( entityManagerMap == null && createMap ) {
-            entityManagerMap = new HashMap<>();
-            CONTEXT_TL.set( entityManagerMap );
-        }
-        return entityManagerMap;
+    static Map<EntityManagerFactory,EntityManager> entityManagerMap() {
+        final EntityManagerBindings bindings = current();
+        return bindings.hasEntityManagers() ? bindings.entityManagers() : null;
     }
 
-    private static EntityManager existingEntityManager(EntityManagerFactory factory) {
-        final Map entityManagerMap = entityManagerMap(false);
-        if ( entityManagerMap == null ) {
-            return null;
+    private static EntityManagerBindings current() {
+        final EntityManagerBindings bindings = BINDINGS.get();
+        return bindings == null ? EntityManagerBindings.EMPTY : bindings;
+    }
+
+    private static void update(EntityManagerBindings bindings) {
+        if ( bindings.isEmpty() ) {
+            BINDINGS.remove();
         }
         else {
-            return (EntityManager) entityManagerMap.get( factory );
+            BINDINGS.set( bindings );
         }
     }
 
-    private static synchronized void doCleanup() {
-        final Map<EntityManagerFactory,EntityManager> entityManagerMap = entityManagerMap( false );
-        if ( entityManagerMap != null ) {
-            if ( entityManagerMap.isEmpty() ) {
-                CONTEXT_TL.set( null );
-            }
+    private static EntityManager existingEntityManager(EntityManagerFactory factory) {
+        return current().entityManager( factory );
+    }
+
+    private static EntityManager initializeEntityManager(EntityManagerFactory factory) {
+        final Supplier<EntityManager> initializer = current().initializer( factory );
+        if ( initializer == null ) {
+            return null;
         }
+        unbindInitializer( factory );
+        return initializer.get();
     }
 }
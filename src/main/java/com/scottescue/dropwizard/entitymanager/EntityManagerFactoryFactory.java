@@ -1,15 +1,18 @@
 package com.scottescue.dropwizard.entitymanager;
 
-
+import com.codahale.metrics.MetricRegistry;
 import io.dropwizard.db.ManagedDataSource;
 import io.dropwizard.db.PooledDataSourceFactory;
 import io.dropwizard.setup.Environment;
 import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.jpa.HibernatePersistenceProvider;
+import org.hibernate.stat.internal.StatisticsInitiator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
@@ -40,19 +43,48 @@ class EntityManagerFactoryFactory {
                                 PooledDataSourceFactory dbConfig,
                                 ManagedDataSource dataSource,
                                 List<Class<?>> entities) {
+        final EntityManagerFactoryManager managedFactory =
+                buildManaged(bundle, environment.metrics(), dbConfig, dataSource, entities);
+        // The lifecycle environment is not thread-safe, and factories may be built concurrently
+        synchronized (environment.lifecycle()) {
+            environment.lifecycle().manage(managedFactory);
+        }
+        return managedFactory.getFactory();
+    }
+
+    /**
+     * Builds an EntityManagerFactory without registering it with the application's lifecycle.  The caller
+     * is responsible for starting and stopping the returned manager.
+     */
+    EntityManagerFactoryManager buildManaged(EntityManagerBundle<?> bundle,
+                                             Environment environment,
+                                             PooledDataSourceFactory dbConfig,
+                                             List<Class<?>> entities,
+                                             String name) {
+        final ManagedDataSource dataSource = dbConfig.build(environment.metrics(), name);
+        return buildManaged(bundle, environment.metrics(), dbConfig, dataSource, entities);
+    }
+
+    private EntityManagerFactoryManager buildManaged(EntityManagerBundle<?> bundle,
+                                                     MetricRegistry metrics,
+                                                     PooledDataSourceFactory dbConfig,
+                                                     ManagedDataSource dataSource,
+                                                     List<Class<?>> entities) {
+        final InstrumentedDataSource instrumentedDataSource = bundle.isJdbcMetricsEnabled() ?
+                new InstrumentedDataSource(dataSource, metrics, bundle.name()) : null;
         final EntityManagerFactory factory = buildSessionFactory(bundle,
+                metrics,
                 dbConfig,
-                dataSource,
+                instrumentedDataSource != null ? instrumentedDataSource : dataSource,
                 dbConfig.getProperties(),
                 entities);
-        final EntityManagerFactoryManager managedFactory = new EntityManagerFactoryManager(factory, dataSource);
-        environment.lifecycle().manage(managedFactory);
-        return factory;
+        return new EntityManagerFactoryManager(factory, dataSource, instrumentedDataSource);
     }
 
     private EntityManagerFactory buildSessionFactory(EntityManagerBundle<?> bundle,
+                                                     MetricRegistry metrics,
                                                      PooledDataSourceFactory dbConfig,
-                                                     ManagedDataSource dataSource,
+                                                     DataSource dataSource,
                                                      Map<String, String> properties,
                                                      List<Class<?>> entities) {
 
@@ -62,12 +94,30 @@ class EntityManagerFactoryFactory {
         persistenceUnitInfo.setProperty(AvailableSettings.USE_SQL_COMMENTS,
                 Boolean.toString(dbConfig.isAutoCommentsEnabled()));
         persistenceUnitInfo.setProperty(AvailableSettings.USE_GET_GENERATED_KEYS, "true");
-        persistenceUnitInfo.setProperty(AvailableSettings.GENERATE_STATISTICS, "true");
+        persistenceUnitInfo.setProperty(AvailableSettings.GENERATE_STATISTICS,
+                Boolean.toString(bundle.getStatisticsMode() != StatisticsMode.OFF));
         persistenceUnitInfo.setProperty(AvailableSettings.USE_REFLECTION_OPTIMIZER, "true");
         persistenceUnitInfo.setProperty(AvailableSettings.ORDER_UPDATES, "true");
         persistenceUnitInfo.setProperty(AvailableSettings.ORDER_INSERTS, "true");
         persistenceUnitInfo.setProperty(AvailableSettings.USE_NEW_ID_GENERATOR_MAPPINGS, "true");
         persistenceUnitInfo.setProperty("jadira.usertype.autoRegisterUserTypes", "true");
+        final SecondLevelCacheFactory secondLevelCache = bundle.getSecondLevelCache();
+        final Map<String, Object> integrationSettings = new HashMap<>();
+        if (secondLevelCache != null) {
+            persistenceUnitInfo.setProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE, "true");
+            persistenceUnitInfo.setProperty(AvailableSettings.CACHE_REGION_FACTORY,
+                    LocalCacheRegionFactory.class.getName());
+            integrationSettings.putAll(secondLevelCache.integrationSettings(bundle.name(), metrics));
+            if (secondLevelCache.isQueryCacheEnabled()) {
+                persistenceUnitInfo.setProperty(AvailableSettings.USE_QUERY_CACHE, "true");
+            }
+        }
+        integrationSettings.put(StatisticsInitiator.STATS_BUILDER, MeteredStatistics.factory(metrics, bundle.name(),
+                bundle.getStatisticsMode(), bundle.getStatisticsSampleInterval(),
+                bundle.isEntityMetricsEnabled(), bundle.isQueryMetricsEnabled()));
+        if (bundle.getRepeatedStatementThreshold() > 0) {
+            integrationSettings.put(AvailableSettings.STATEMENT_INSPECTOR, new StatementLog.Inspector(bundle.name()));
+        }
         for (Map.Entry<String, String> property : properties.entrySet()) {
             persistenceUnitInfo.setProperty(property.getKey(), property.getValue());
         }
@@ -77,7 +127,10 @@ class EntityManagerFactoryFactory {
 
         configure(persistenceUnitInfo);
 
-        return new HibernatePersistenceProvider().createContainerEntityManagerFactory(persistenceUnitInfo, null);
+        final EntityManagerFactory factory =
+                new HibernatePersistenceProvider().createContainerEntityManagerFactory(persistenceUnitInfo, integrationSettings);
+        persistenceUnitInfo.verifyEnhancement(entities);
+        return factory;
     }
 
     protected void configure(PersistenceUnitConfig configuration) {
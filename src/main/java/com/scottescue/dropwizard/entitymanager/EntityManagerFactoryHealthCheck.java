@@ -40,6 +40,10 @@ class EntityManagerFactoryHealthCheck extends HealthCheck {
 
     @Override
     protected HealthCheck.Result check() throws Exception {
+        if (entityManagerFactory instanceof DeferredEntityManagerFactory &&
+                ((DeferredEntityManagerFactory) entityManagerFactory).isInitializing()) {
+            return Result.unhealthy("initializing");
+        }
         return timeBoundHealthCheck.check(() -> {
             final EntityManager entityManager = entityManagerFactory.createEntityManager();
             try {
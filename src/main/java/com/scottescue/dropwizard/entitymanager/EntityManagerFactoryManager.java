@@ -9,10 +9,25 @@ import javax.persistence.EntityManagerFactory;
 class EntityManagerFactoryManager implements Managed {
     private EntityManagerFactory factory;
     private ManagedDataSource dataSource;
+    private InstrumentedDataSource instrumentedDataSource;
 
     EntityManagerFactoryManager(EntityManagerFactory factory, ManagedDataSource dataSource) {
+        this(factory, dataSource, null);
+    }
+
+    /**
+     * @param instrumentedDataSource the instrumentation of the data source, whose metrics are removed on
+     *                               stopping, or null if the data source isn't instrumented
+     */
+    EntityManagerFactoryManager(EntityManagerFactory factory, ManagedDataSource dataSource,
+                                InstrumentedDataSource instrumentedDataSource) {
         this.factory = factory;
         this.dataSource = dataSource;
+        this.instrumentedDataSource = instrumentedDataSource;
+    }
+
+    EntityManagerFactory getFactory() {
+        return factory;
     }
 
     @VisibleForTesting
@@ -28,6 +43,9 @@ class EntityManagerFactoryManager implements Managed {
     @Override
     public void stop() throws Exception {
         factory.close();
+        if (instrumentedDataSource != null) {
+            instrumentedDataSource.removeMetrics();
+        }
         dataSource.stop();
     }
 }
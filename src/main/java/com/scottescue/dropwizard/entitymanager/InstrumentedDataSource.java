@@ -0,0 +1,318 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A DataSource recording what the JDBC driver does for an EntityManager bundle, as metrics named
+ * {@code <bundle name>.jdbc.<metric>}:
+ * <ul>
+ * <li>{@code prepare} times the preparation of statements</li>
+ * <li>{@code execute} times the executions of statements, including batches</li>
+ * <li>{@code fetch} times the iteration of each result set, from its first row until it is exhausted or
+ * closed</li>
+ * <li>{@code rows} is the distribution of the number of rows fetched from each result set</li>
+ * <li>{@code batch-size} is the distribution of the number of statements sent by each batch</li>
+ * </ul>
+ * <p>Each metric is also recorded for the statement's SQL, shaped as by {@link StatementLog}, as
+ * {@code <bundle name>.jdbc.sql.<key>.<metric>}, where the key is a short hash of the shape; the shape named
+ * by each key is logged when its metrics are registered.  The metrics of at most 1,000 shapes are kept
+ * registered, those of the least recently prepared shapes being removed from the registry.  All metrics are
+ * removed by {@link #removeMetrics()}, when the EntityManagerFactory is closed.</p>
+ * <p>Connections, statements and result sets are wrapped in dynamic proxies, so the instrumentation is not
+ * free; it is meant to be switched on while investigating the database access of an application.</p>
+ */
+final class InstrumentedDataSource implements DataSource {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstrumentedDataSource.class);
+
+    // How many distinct shapes keep their metrics registered
+    private static final int MAX_SHAPES = 1_000;
+
+    /**
+     * The metrics of the statements of a shape.
+     */
+    private static final class ShapeMetrics {
+        private final MetricRegistry metrics;
+        private final String prefix;
+        private final Timer prepares;
+        private final Timer executions;
+        private final Timer fetches;
+        private final Histogram rows;
+        private final Histogram batchSizes;
+
+        private ShapeMetrics(MetricRegistry metrics, String prefix) {
+            this.metrics = metrics;
+            this.prefix = prefix;
+            this.prepares = metrics.timer(MetricRegistry.name(prefix, "prepare"));
+            this.executions = metrics.timer(MetricRegistry.name(prefix, "execute"));
+            this.fetches = metrics.timer(MetricRegistry.name(prefix, "fetch"));
+            this.rows = metrics.histogram(MetricRegistry.name(prefix, "rows"));
+            this.batchSizes = metrics.histogram(MetricRegistry.name(prefix, "batch-size"));
+        }
+
+        private void remove() {
+            for (String metric : new String[] {"prepare", "execute", "fetch", "rows", "batch-size"}) {
+                metrics.remove(MetricRegistry.name(prefix, metric));
+            }
+        }
+    }
+
+    private final DataSource dataSource;
+    private final MetricRegistry metrics;
+    private final String name;
+    private final Timer prepares;
+    private final Timer executions;
+    private final Timer fetches;
+    private final Histogram rows;
+    private final Histogram batchSizes;
+    private final LoadingCache<String, ShapeMetrics> shapeMetrics;
+
+    /**
+     * @param dataSource the data source to instrument
+     * @param metrics the registry of the metrics
+     * @param name the name of the bundle
+     */
+    InstrumentedDataSource(DataSource dataSource, MetricRegistry metrics, String name) {
+        this.dataSource = dataSource;
+        this.metrics = metrics;
+        this.name = name;
+        this.prepares = metrics.timer(MetricRegistry.name(name, "jdbc", "prepare"));
+        this.executions = metrics.timer(MetricRegistry.name(name, "jdbc", "execute"));
+        this.fetches = metrics.timer(MetricRegistry.name(name, "jdbc", "fetch"));
+        this.rows = metrics.histogram(MetricRegistry.name(name, "jdbc", "rows"));
+        this.batchSizes = metrics.histogram(MetricRegistry.name(name, "jdbc", "batch-size"));
+        this.shapeMetrics = CacheBuilder.newBuilder()
+                .maximumSize(MAX_SHAPES)
+                .<String, ShapeMetrics>removalListener(removal -> removal.getValue().remove())
+                .build(CacheLoader.from(shape -> {
+                    final String prefix = MetricRegistry.name(name, "jdbc", "sql", StatementLog.key(shape));
+                    LOGGER.info("Recording the JDBC metrics of {} as {}", shape, prefix);
+                    return new ShapeMetrics(metrics, prefix);
+                }));
+    }
+
+    /**
+     * Removes the metrics of the data source from the registry.
+     */
+    void removeMetrics() {
+        shapeMetrics.invalidateAll();
+        final String prefix = MetricRegistry.name(name, "jdbc") + '.';
+        metrics.removeMatching((metricName, metric) -> metricName.startsWith(prefix));
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return instrument(dataSource.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return instrument(dataSource.getConnection(username, password));
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return dataSource.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+    }
+
+    private Connection instrument(Connection connection) {
+        return proxy(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "prepareStatement":
+                case "prepareCall": {
+                    final ShapeMetrics shape = resolve((String) args[0]);
+                    final long start = System.nanoTime();
+                    try {
+                        return proxy(method.getReturnType(),
+                                new StatementHandler((Statement) invoke(connection, method, args), shape));
+                    } finally {
+                        final long nanos = System.nanoTime() - start;
+                        prepares.update(nanos, TimeUnit.NANOSECONDS);
+                        shape.prepares.update(nanos, TimeUnit.NANOSECONDS);
+                    }
+                }
+                case "createStatement":
+                    return proxy(Statement.class,
+                            new StatementHandler((Statement) invoke(connection, method, args), null));
+                default:
+                    return invoke(connection, method, args);
+            }
+        });
+    }
+
+    private ShapeMetrics resolve(String sql) {
+        return shapeMetrics.getUnchecked(StatementLog.shape(sql));
+    }
+
+    private class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        // Resolved when the statement is prepared, or for a plain statement when its first batch is added
+        private ShapeMetrics shape;
+        private int batchSize;
+
+        StatementHandler(Statement statement, ShapeMetrics shape) {
+            this.statement = statement;
+            this.shape = shape;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String methodName = method.getName();
+            switch (methodName) {
+                case "addBatch":
+                    if (args != null && shape == null) {
+                        shape = resolve((String) args[0]);
+                    }
+                    batchSize++;
+                    return InstrumentedDataSource.invoke(statement, method, args);
+                case "clearBatch":
+                    batchSize = 0;
+                    return InstrumentedDataSource.invoke(statement, method, args);
+                case "executeBatch":
+                case "executeLargeBatch":
+                    batchSizes.update(batchSize);
+                    if (shape != null) {
+                        shape.batchSizes.update(batchSize);
+                    }
+                    batchSize = 0;
+                    return execute(shape, method, args);
+                case "getResultSet":
+                    return instrument((ResultSet) InstrumentedDataSource.invoke(statement, method, args), shape);
+                default:
+                    if (!methodName.startsWith("execute")) {
+                        return InstrumentedDataSource.invoke(statement, method, args);
+                    }
+                    // A plain statement is given its SQL when it is executed
+                    final ShapeMetrics executedShape = args != null && args[0] instanceof String ?
+                            resolve((String) args[0]) : shape;
+                    final Object result = execute(executedShape, method, args);
+                    return result instanceof ResultSet ? instrument((ResultSet) result, executedShape) : result;
+            }
+        }
+
+        private Object execute(ShapeMetrics shape, Method method, Object[] args) throws Throwable {
+            final long start = System.nanoTime();
+            try {
+                return InstrumentedDataSource.invoke(statement, method, args);
+            } finally {
+                final long nanos = System.nanoTime() - start;
+                executions.update(nanos, TimeUnit.NANOSECONDS);
+                if (shape != null) {
+                    shape.executions.update(nanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+    }
+
+    private ResultSet instrument(ResultSet resultSet, ShapeMetrics shape) {
+        if (resultSet == null) {
+            return null;
+        }
+        return proxy(ResultSet.class, new InvocationHandler() {
+            private long fetchTime;
+            private int fetchedRows;
+            private boolean recorded;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "next": {
+                        final long start = System.nanoTime();
+                        final boolean hasNext = (Boolean) InstrumentedDataSource.invoke(resultSet, method, args);
+                        fetchTime += System.nanoTime() - start;
+                        if (hasNext) {
+                            fetchedRows++;
+                        } else {
+                            record();
+                        }
+                        return hasNext;
+                    }
+                    case "close":
+                        record();
+                        return InstrumentedDataSource.invoke(resultSet, method, args);
+                    default:
+                        return InstrumentedDataSource.invoke(resultSet, method, args);
+                }
+            }
+
+            private void record() {
+                if (!recorded) {
+                    recorded = true;
+                    fetches.update(fetchTime, TimeUnit.NANOSECONDS);
+                    rows.update(fetchedRows);
+                    if (shape != null) {
+                        shape.fetches.update(fetchTime, TimeUnit.NANOSECONDS);
+                        shape.rows.update(fetchedRows);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a proxy of the given JDBC type, equal only to itself, as Hibernate keeps statements and result
+     * sets in hash maps
+     */
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(InstrumentedDataSource.class.getClassLoader(),
+                new Class<?>[] {type}, (proxy, method, args) -> method.getName().equals("equals") && args.length == 1 ?
+                        proxy == args[0] : handler.invoke(proxy, method, args)));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
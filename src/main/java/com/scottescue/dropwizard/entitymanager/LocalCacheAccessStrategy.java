@@ -0,0 +1,273 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.internal.DefaultCacheKeysFactory;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.NaturalIdRegionAccessStrategy;
+import org.hibernate.cache.spi.access.RegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Accesses a {@link LocalCacheRegion} with the concurrency semantics of an {@link AccessType}:
+ * <ul>
+ *     <li>{@link AccessType#READ_ONLY}: items are cached once inserted or loaded, and can't be updated</li>
+ *     <li>{@link AccessType#NONSTRICT_READ_WRITE}: updated items are evicted, without locking them</li>
+ *     <li>{@link AccessType#READ_WRITE}: updated items are locked until the transactions updating them
+ *     complete, then cached again; items loaded by sessions that started before the update completed aren't
+ *     cached</li>
+ * </ul>
+ * {@link AccessType#TRANSACTIONAL} access isn't supported, as the cache doesn't take part in transactions.
+ */
+abstract class LocalCacheAccessStrategy implements RegionAccessStrategy {
+    private final LocalCacheRegion region;
+    private final AccessType accessType;
+
+    LocalCacheAccessStrategy(LocalCacheRegion region, AccessType accessType) {
+        if (accessType == AccessType.TRANSACTIONAL) {
+            throw new CacheException("The in-process second-level cache does not support " +
+                    accessType.getExternalName() + " access to region " + region.getName());
+        }
+        this.region = region;
+        this.accessType = accessType;
+    }
+
+    @Override
+    public Object get(SessionImplementor session, Object key, long txTimestamp) throws CacheException {
+        return region.get(key);
+    }
+
+    @Override
+    public boolean putFromLoad(SessionImplementor session, Object key, Object value, long txTimestamp,
+                               Object version) throws CacheException {
+        return putFromLoad(key, value, txTimestamp);
+    }
+
+    @Override
+    public boolean putFromLoad(SessionImplementor session, Object key, Object value, long txTimestamp,
+                               Object version, boolean minimalPutOverride) throws CacheException {
+        // Items are never overwritten by loads, so minimal puts are always in effect
+        return putFromLoad(key, value, txTimestamp);
+    }
+
+    @Override
+    public SoftLock lockItem(SessionImplementor session, Object key, Object version) throws CacheException {
+        if (accessType == AccessType.READ_WRITE) {
+            return region.lock(key);
+        }
+        return null;
+    }
+
+    @Override
+    public SoftLock lockRegion() throws CacheException {
+        if (accessType == AccessType.READ_WRITE) {
+            region.lockAll();
+        } else {
+            region.evictAll();
+        }
+        return null;
+    }
+
+    @Override
+    public void unlockItem(SessionImplementor session, Object key, SoftLock lock) throws CacheException {
+        if (accessType == AccessType.READ_WRITE) {
+            region.unlock(key, null);
+        } else {
+            region.evict(key);
+        }
+    }
+
+    @Override
+    public void unlockRegion(SoftLock lock) throws CacheException {
+        if (accessType == AccessType.READ_WRITE) {
+            region.unlockAll();
+        } else {
+            region.evictAll();
+        }
+    }
+
+    @Override
+    public void remove(SessionImplementor session, Object key) throws CacheException {
+        // A locked item stays locked until the transaction removing it completes
+        region.evictUnlocked(key);
+    }
+
+    @Override
+    public void removeAll() throws CacheException {
+        region.evictAll();
+    }
+
+    @Override
+    public void evict(Object key) throws CacheException {
+        region.evict(key);
+    }
+
+    @Override
+    public void evictAll() throws CacheException {
+        region.evictAll();
+    }
+
+    private boolean putFromLoad(Object key, Object value, long txTimestamp) {
+        if (accessType == AccessType.READ_WRITE) {
+            return region.putFromLoad(key, value, txTimestamp);
+        }
+        return region.putIfAbsent(key, value);
+    }
+
+    boolean insert() {
+        // Inserted items are cached once the transaction completes
+        return false;
+    }
+
+    boolean afterInsert(Object key, Object value) {
+        return accessType != AccessType.NONSTRICT_READ_WRITE && region.putIfAbsent(key, value);
+    }
+
+    boolean update(Object key) {
+        if (accessType == AccessType.READ_ONLY) {
+            throw new UnsupportedOperationException("Can't update the read-only item " + key +
+                    " of region " + region.getName());
+        }
+        if (accessType == AccessType.NONSTRICT_READ_WRITE) {
+            region.evict(key);
+        }
+        return false;
+    }
+
+    boolean afterUpdate(Object key, Object value) {
+        if (accessType == AccessType.READ_ONLY) {
+            throw new UnsupportedOperationException("Can't update the read-only item " + key +
+                    " of region " + region.getName());
+        }
+        if (accessType == AccessType.NONSTRICT_READ_WRITE) {
+            region.evict(key);
+            return false;
+        }
+        return region.unlock(key, value);
+    }
+
+    static final class Entity extends LocalCacheAccessStrategy implements EntityRegionAccessStrategy {
+        private final LocalCacheRegion.Entity region;
+
+        Entity(LocalCacheRegion.Entity region, AccessType accessType) {
+            super(region, accessType);
+            this.region = region;
+        }
+
+        @Override
+        public Object generateCacheKey(Object id, EntityPersister persister, SessionFactoryImplementor factory,
+                                       String tenantIdentifier) {
+            return DefaultCacheKeysFactory.createEntityKey(id, persister, factory, tenantIdentifier);
+        }
+
+        @Override
+        public Object getCacheKeyId(Object cacheKey) {
+            return DefaultCacheKeysFactory.getEntityId(cacheKey);
+        }
+
+        @Override
+        public LocalCacheRegion.Entity getRegion() {
+            return region;
+        }
+
+        @Override
+        public boolean insert(SessionImplementor session, Object key, Object value, Object version)
+                throws CacheException {
+            return insert();
+        }
+
+        @Override
+        public boolean afterInsert(SessionImplementor session, Object key, Object value, Object version)
+                throws CacheException {
+            return afterInsert(key, value);
+        }
+
+        @Override
+        public boolean update(SessionImplementor session, Object key, Object value, Object currentVersion,
+                              Object previousVersion) throws CacheException {
+            return update(key);
+        }
+
+        @Override
+        public boolean afterUpdate(SessionImplementor session, Object key, Object value, Object currentVersion,
+                                   Object previousVersion, SoftLock lock) throws CacheException {
+            return afterUpdate(key, value);
+        }
+    }
+
+    static final class Collection extends LocalCacheAccessStrategy implements CollectionRegionAccessStrategy {
+        private final LocalCacheRegion.Collection region;
+
+        Collection(LocalCacheRegion.Collection region, AccessType accessType) {
+            super(region, accessType);
+            this.region = region;
+        }
+
+        @Override
+        public Object generateCacheKey(Object id, CollectionPersister persister, SessionFactoryImplementor factory,
+                                       String tenantIdentifier) {
+            return DefaultCacheKeysFactory.createCollectionKey(id, persister, factory, tenantIdentifier);
+        }
+
+        @Override
+        public Object getCacheKeyId(Object cacheKey) {
+            return DefaultCacheKeysFactory.getCollectionId(cacheKey);
+        }
+
+        @Override
+        public LocalCacheRegion.Collection getRegion() {
+            return region;
+        }
+    }
+
+    static final class NaturalId extends LocalCacheAccessStrategy implements NaturalIdRegionAccessStrategy {
+        private final LocalCacheRegion.NaturalId region;
+
+        NaturalId(LocalCacheRegion.NaturalId region, AccessType accessType) {
+            super(region, accessType);
+            this.region = region;
+        }
+
+        @Override
+        public Object generateCacheKey(Object[] naturalIdValues, EntityPersister persister,
+                                       SessionImplementor session) {
+            return DefaultCacheKeysFactory.createNaturalIdKey(naturalIdValues, persister, session);
+        }
+
+        @Override
+        public Object[] getNaturalIdValues(Object cacheKey) {
+            return DefaultCacheKeysFactory.getNaturalIdValues(cacheKey);
+        }
+
+        @Override
+        public LocalCacheRegion.NaturalId getRegion() {
+            return region;
+        }
+
+        @Override
+        public boolean insert(SessionImplementor session, Object key, Object value) throws CacheException {
+            return insert();
+        }
+
+        @Override
+        public boolean afterInsert(SessionImplementor session, Object key, Object value) throws CacheException {
+            return afterInsert(key, value);
+        }
+
+        @Override
+        public boolean update(SessionImplementor session, Object key, Object value) throws CacheException {
+            return update(key);
+        }
+
+        @Override
+        public boolean afterUpdate(SessionImplementor session, Object key, Object value, SoftLock lock)
+                throws CacheException {
+            return afterUpdate(key, value);
+        }
+    }
+}
@@ -0,0 +1,553 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.Region;
+import org.hibernate.cache.spi.TimestampsRegion;
+import org.hibernate.cache.spi.TransactionalDataRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.NaturalIdRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.internal.util.SerializationHelper;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A cache region of the {@link LocalCacheRegionFactory}, metering its hits, misses, puts and evictions.
+ * <p>The soft locks of items being updated are kept apart from the bounded cache, so they are never evicted
+ * by its size or expiry bounds, nor by the eviction of the whole region.  Once released by every holder, a
+ * lock is kept as a marker of when it was released, so values loaded by sessions that started before then are
+ * not cached, as by Hibernate's own read-write access; markers are dropped once they time out.</p>
+ */
+abstract class LocalCacheRegion implements Region {
+    // How long, in the units of nextTimestamp(), a soft lock on an item is held at most
+    private static final int TIMEOUT = 60_000 * LocalCacheRegionFactory.TIMESTAMPS_PER_MILLISECOND;
+    // How many locks are released between two purges of the markers that timed out
+    private static final int PURGE_INTERVAL = 1024;
+    private static final String[] METRICS = {
+            "hits", "misses", "puts", "evictions", "size", "off-heap.capacity", "off-heap.used"
+    };
+
+    private final LocalCacheRegionFactory factory;
+    private final String name;
+    private final Cache<Object, Object> cache;
+    private final ConcurrentMap<Object, Lock> locks = new ConcurrentHashMap<>();
+    private final AtomicReference<Lock> regionLock = new AtomicReference<>();
+    private final AtomicInteger releases = new AtomicInteger();
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter puts;
+    private final Meter evictions;
+    private final OffHeapStore offHeap;
+
+    LocalCacheRegion(LocalCacheRegionFactory factory, String name, CacheBuilder<Object, Object> cacheBuilder) {
+        this(factory, name, cacheBuilder, null);
+    }
+
+    /**
+     * @param offHeap the store for the values of the region, or null to keep them on the heap
+     */
+    LocalCacheRegion(LocalCacheRegionFactory factory, String name, CacheBuilder<Object, Object> cacheBuilder,
+                     OffHeapStore offHeap) {
+        this.factory = factory;
+        this.name = name;
+        this.offHeap = offHeap;
+        final MetricRegistry metrics = factory.getMetrics();
+        this.hits = metrics.meter(factory.metricName(name, "hits"));
+        this.misses = metrics.meter(factory.metricName(name, "misses"));
+        this.puts = metrics.meter(factory.metricName(name, "puts"));
+        this.evictions = metrics.meter(factory.metricName(name, "evictions"));
+        this.cache = cacheBuilder.removalListener(this::onRemoval).build();
+        metrics.register(factory.metricName(name, "size"), (Gauge<Long>) cache::size);
+        if (offHeap != null) {
+            metrics.register(factory.metricName(name, "off-heap.capacity"), (Gauge<Integer>) offHeap::getCapacity);
+            metrics.register(factory.metricName(name, "off-heap.used"), (Gauge<Long>) offHeap::getUsed);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void destroy() throws CacheException {
+        cache.invalidateAll();
+        locks.clear();
+        regionLock.set(null);
+        // Only the metrics of this region are removed, not those of regions named after it, e.g. the regions
+        // of the collections of an entity
+        final MetricRegistry metrics = factory.getMetrics();
+        for (String metric : METRICS) {
+            metrics.remove(factory.metricName(name, metric));
+        }
+    }
+
+    @Override
+    public boolean contains(Object key) {
+        if (isLocked(key)) {
+            return false;
+        }
+        return isReadable(cache.getIfPresent(key));
+    }
+
+    @Override
+    public long getSizeInMemory() {
+        // Unknown
+        return -1;
+    }
+
+    @Override
+    public long getElementCountInMemory() {
+        return cache.size();
+    }
+
+    @Override
+    public long getElementCountOnDisk() {
+        return 0;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Map toMap() {
+        final Map<Object, Object> map = new HashMap<>();
+        cache.asMap().forEach((key, value) -> {
+            final Object decoded = isLocked(key) ? null : decode(key, value);
+            if (decoded != null) {
+                map.put(key, decoded);
+            }
+        });
+        return map;
+    }
+
+    @Override
+    public long nextTimestamp() {
+        return factory.nextTimestamp();
+    }
+
+    @Override
+    public int getTimeout() {
+        return TIMEOUT;
+    }
+
+    /**
+     * @return the cached value of the key, or null if it isn't cached or is locked
+     */
+    Object get(Object key) {
+        final Object value = isLocked(key) ? null : decode(key, cache.getIfPresent(key));
+        if (value == null) {
+            misses.mark();
+            return null;
+        }
+        hits.mark();
+        return value;
+    }
+
+    void put(Object key, Object value) {
+        final Object encoded = encode(value);
+        if (encoded == null) {
+            cache.invalidate(key);
+            return;
+        }
+        cache.put(key, encoded);
+        puts.mark();
+    }
+
+    /**
+     * Caches the value unless the key is already cached or locked.
+     *
+     * @return true if the value was cached
+     */
+    boolean putIfAbsent(Object key, Object value) {
+        return !isLocked(key) && cacheIfAbsent(key, value);
+    }
+
+    /**
+     * Caches a value loaded by a session that started at the given timestamp, unless the key is already cached,
+     * or is locked, or was unlocked after the session started: the value may then be the state before an update
+     * that committed since.  The same goes for locks on the whole region.
+     *
+     * @return true if the value was cached
+     */
+    boolean putFromLoad(Object key, Object value, long txTimestamp) {
+        final Lock lockedRegion = regionLock.get();
+        if (lockedRegion != null && !lockedRegion.isWritable(txTimestamp)) {
+            return false;
+        }
+        final boolean[] cached = new boolean[1];
+        // The value is cached while the lock entry of the key is held, so it can't be locked meanwhile
+        locks.compute(key, (k, lock) -> {
+            final Lock current = lock != null && lock.isObsolete(nextTimestamp()) ? null : lock;
+            cached[0] = (current == null || current.isWritable(txTimestamp)) && cacheIfAbsent(key, value);
+            return current;
+        });
+        if (cached[0] && regionLock.get() != lockedRegion) {
+            // The region was locked or unlocked while caching the value
+            cache.invalidate(key);
+            return false;
+        }
+        return cached[0];
+    }
+
+    private boolean cacheIfAbsent(Object key, Object value) {
+        if (offHeap != null && isReadable(cache.getIfPresent(key))) {
+            // Don't write values that won't be cached
+            return false;
+        }
+        // A value cached while the key is being locked is replaced or evicted when the lock is released
+        if (offHeap == null) {
+            if (cache.asMap().putIfAbsent(key, value) == null) {
+                puts.mark();
+                return true;
+            }
+            return false;
+        }
+        final boolean[] stored = new boolean[1];
+        entries().compute(key, (k, previous) -> {
+            stored[0] = false;
+            if (isReadable(previous)) {
+                return previous;
+            }
+            // The value is only written off-heap once it is known to replace nothing readable
+            final Object encoded = encode(value);
+            stored[0] = encoded != null;
+            return stored[0] ? encoded : previous;
+        });
+        if (stored[0]) {
+            puts.mark();
+        }
+        return stored[0];
+    }
+
+    Lock lock(Object key) {
+        final long now = nextTimestamp();
+        final Lock lock = locks.compute(key, (k, held) -> held != null ? held.acquire(now) : Lock.acquired(now));
+        cache.invalidate(key);
+        return lock;
+    }
+
+    /**
+     * Releases a lock on the key, replacing the cached value with the given one once the lock is released by
+     * every holder.  If the key isn't locked, e.g. because its lock timed out, its value is evicted, since it
+     * may have been cached from the state before the update.  Either way, the key is then marked as released
+     * at the current timestamp.
+     *
+     * @return true if the value was cached
+     */
+    boolean unlock(Object key, Object value) {
+        final boolean[] cached = new boolean[1];
+        locks.compute(key, (k, lock) -> {
+            final long now = nextTimestamp();
+            if (lock == null || lock.isReleased()) {
+                cache.invalidate(key);
+                return Lock.released(now);
+            }
+            final Lock released = lock.release(now);
+            if (released.isReleased()) {
+                // The value is cached before the lock is released, so a concurrent load can't replace it
+                cached[0] = replace(key, value);
+            }
+            return released;
+        });
+        if (releases.incrementAndGet() % PURGE_INTERVAL == 0) {
+            purgeObsoleteLocks();
+        }
+        return cached[0];
+    }
+
+    /**
+     * Locks the whole region, evicting all of its values, so no value loaded before the lock is released can be
+     * cached.
+     */
+    void lockAll() {
+        final long now = nextTimestamp();
+        regionLock.updateAndGet(held -> held != null ? held.acquire(now) : Lock.acquired(now));
+        evictAll();
+    }
+
+    /**
+     * Releases a lock on the whole region, evicting all of its values.
+     */
+    void unlockAll() {
+        final long now = nextTimestamp();
+        regionLock.updateAndGet(held -> held != null && !held.isReleased() ? held.release(now) : Lock.released(now));
+        evictAll();
+    }
+
+    /**
+     * Evicts the value of the key, unless the key is locked.
+     */
+    void evictUnlocked(Object key) {
+        if (!isLocked(key)) {
+            cache.invalidate(key);
+        }
+    }
+
+    public void evict(Object key) {
+        cache.invalidate(key);
+    }
+
+    public void evictAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Caches the value of a key in place of the current one, or evicts the current one if there is no value.
+     *
+     * @return true if the value was cached
+     */
+    private boolean replace(Object key, Object value) {
+        final Object encoded = value != null ? encode(value) : null;
+        if (encoded == null) {
+            cache.invalidate(key);
+            return false;
+        }
+        cache.put(key, encoded);
+        puts.mark();
+        return true;
+    }
+
+    /**
+     * @return whether the key is locked by a lock that hasn't timed out
+     */
+    private boolean isLocked(Object key) {
+        final Lock lock = locks.get(key);
+        if (lock == null) {
+            return false;
+        }
+        final long now = nextTimestamp();
+        if (lock.isObsolete(now)) {
+            locks.remove(key, lock);
+            return false;
+        }
+        return lock.isHeld(now);
+    }
+
+    private void purgeObsoleteLocks() {
+        final long now = nextTimestamp();
+        locks.forEach((key, lock) -> {
+            if (lock.isObsolete(now)) {
+                locks.remove(key, lock);
+            }
+        });
+    }
+
+    /**
+     * @return whether the given cached form holds a value, i.e. it is present and wasn't overwritten off-heap
+     */
+    private boolean isReadable(Object cached) {
+        if (cached instanceof OffHeapStore.Address) {
+            return offHeap.isReadable((OffHeapStore.Address) cached);
+        }
+        return cached != null;
+    }
+
+    /**
+     * @return the value to cache in place of the given one: the address of its serialized form if the region
+     *         is stored off-heap, or null if it can't be stored
+     */
+    private Object encode(Object value) {
+        if (offHeap == null) {
+            return value;
+        }
+        if (!(value instanceof Serializable)) {
+            return null;
+        }
+        return offHeap.write(SerializationHelper.serialize((Serializable) value));
+    }
+
+    /**
+     * @return the value cached in the given form, or null if it was overwritten off-heap
+     */
+    private Object decode(Object key, Object cached) {
+        if (cached instanceof OffHeapStore.Address) {
+            final byte[] bytes = offHeap.read((OffHeapStore.Address) cached);
+            if (bytes == null) {
+                if (entries().remove(key, cached)) {
+                    evictions.mark();
+                }
+                return null;
+            }
+            return SerializationHelper.deserialize(bytes);
+        }
+        return cached;
+    }
+
+    private ConcurrentMap<Object, Object> entries() {
+        return cache.asMap();
+    }
+
+    private void onRemoval(RemovalNotification<Object, Object> notification) {
+        if (notification.wasEvicted()) {
+            evictions.mark();
+        }
+    }
+
+    /**
+     * Estimates the size in bytes of a cached value: the length of its serialized form.
+     *
+     * @return the estimated size, or 1 if the value can't be serialized
+     */
+    static int weigh(Object key, Object value) {
+        if (value instanceof OffHeapStore.Address) {
+            return ((OffHeapStore.Address) value).getLength();
+        }
+        if (value instanceof Serializable) {
+            return SerializationHelper.serialize((Serializable) value).length;
+        }
+        return 1;
+    }
+
+    /**
+     * Marks an item updated by transactions that haven't completed yet, so it isn't read from or put in the
+     * cache until they complete, or until the lock times out.  Once released by every holder, it marks when the
+     * item was last updated, so it isn't put in the cache by loads that started before then.
+     */
+    static final class Lock implements SoftLock {
+        private final int holders;
+        private final long timestamp;
+
+        /**
+         * @param holders   the number of holders of the lock, or 0 once it is released
+         * @param timestamp the timestamp after which the lock is ignored, or at which it was released
+         */
+        private Lock(int holders, long timestamp) {
+            this.holders = holders;
+            this.timestamp = timestamp;
+        }
+
+        static Lock acquired(long now) {
+            return new Lock(1, now + TIMEOUT);
+        }
+
+        static Lock released(long now) {
+            return new Lock(0, now);
+        }
+
+        Lock acquire(long now) {
+            return isHeld(now) ? new Lock(holders + 1, timestamp) : acquired(now);
+        }
+
+        Lock release(long now) {
+            return holders > 1 ? new Lock(holders - 1, timestamp) : released(now);
+        }
+
+        boolean isReleased() {
+            return holders == 0;
+        }
+
+        boolean isHeld(long now) {
+            return !isReleased() && now <= timestamp;
+        }
+
+        /**
+         * @return whether a value loaded by a session that started at the given timestamp may be cached
+         */
+        boolean isWritable(long txTimestamp) {
+            // A timed out lock is treated as released once it timed out
+            return txTimestamp > timestamp;
+        }
+
+        /**
+         * @return whether the lock can be dropped, as the sessions it keeps from caching values have timed out
+         */
+        boolean isObsolete(long now) {
+            return now > timestamp + TIMEOUT;
+        }
+    }
+
+    /**
+     * A region caching data of entities, collections or natural ids.
+     */
+    abstract static class Transactional extends LocalCacheRegion implements TransactionalDataRegion {
+        private final CacheDataDescription metadata;
+
+        Transactional(LocalCacheRegionFactory factory, String name, CacheDataDescription metadata,
+                      OffHeapStore offHeap) {
+            super(factory, name, factory.getConfiguration().cacheBuilder(name), offHeap);
+            this.metadata = metadata;
+        }
+
+        @Override
+        public boolean isTransactionAware() {
+            return false;
+        }
+
+        @Override
+        public CacheDataDescription getCacheDataDescription() {
+            return metadata;
+        }
+    }
+
+    static final class Entity extends Transactional implements EntityRegion {
+        Entity(LocalCacheRegionFactory factory, String name, CacheDataDescription metadata) {
+            super(factory, name, metadata, factory.getConfiguration().offHeapStore(name));
+        }
+
+        @Override
+        public EntityRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+            return new LocalCacheAccessStrategy.Entity(this, accessType);
+        }
+    }
+
+    static final class Collection extends Transactional implements CollectionRegion {
+        Collection(LocalCacheRegionFactory factory, String name, CacheDataDescription metadata) {
+            super(factory, name, metadata, factory.getConfiguration().offHeapStore(name));
+        }
+
+        @Override
+        public CollectionRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+            return new LocalCacheAccessStrategy.Collection(this, accessType);
+        }
+    }
+
+    static final class NaturalId extends Transactional implements NaturalIdRegion {
+        NaturalId(LocalCacheRegionFactory factory, String name, CacheDataDescription metadata) {
+            // Natural id entries are small, and only map natural ids to ids
+            super(factory, name, metadata, null);
+        }
+
+        @Override
+        public NaturalIdRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+            return new LocalCacheAccessStrategy.NaturalId(this, accessType);
+        }
+    }
+
+    /**
+     * A region caching query results or the update timestamps of tables.
+     */
+    static final class General extends LocalCacheRegion implements QueryResultsRegion, TimestampsRegion {
+        General(LocalCacheRegionFactory factory, String name, CacheBuilder<Object, Object> cacheBuilder) {
+            super(factory, name, cacheBuilder);
+        }
+
+        @Override
+        public Object get(SessionImplementor session, Object key) throws CacheException {
+            return get(key);
+        }
+
+        @Override
+        public void put(SessionImplementor session, Object key, Object value) throws CacheException {
+            put(key, value);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cache.spi.TimestampsRegion;
+import org.hibernate.cache.spi.access.AccessType;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Hibernate {@link RegionFactory} keeping every cache region in a bounded, in-process Guava cache.
+ * <p>Hibernate instantiates this factory by its class name, so it is configured through the integration
+ * settings of the persistence unit; see {@link SecondLevelCacheFactory}.  It isn't meant to be used on its
+ * own.</p>
+ */
+public class LocalCacheRegionFactory implements RegionFactory {
+    private static final long serialVersionUID = 1L;
+
+    static final String CONFIGURATION = "dropwizard.entitymanager.cache.configuration";
+    static final String METRICS = "dropwizard.entitymanager.cache.metrics";
+    static final String NAME = "dropwizard.entitymanager.cache.name";
+    // The resolution of the timestamps of the regions
+    static final int TIMESTAMPS_PER_MILLISECOND = 4096;
+
+    private final transient SecondLevelCacheFactory configuration;
+    private final transient MetricRegistry metrics;
+    private final String name;
+    private final AtomicLong lastTimestamp = new AtomicLong();
+
+    public LocalCacheRegionFactory(Properties properties) {
+        this.configuration = (SecondLevelCacheFactory) properties.get(CONFIGURATION);
+        this.metrics = (MetricRegistry) properties.get(METRICS);
+        this.name = (String) properties.get(NAME);
+        if (configuration == null || metrics == null || name == null) {
+            throw new CacheException(getClass().getSimpleName() + " is enabled by configuring an " +
+                    "EntityManagerBundle's " + SecondLevelCacheFactory.class.getSimpleName());
+        }
+    }
+
+    @Override
+    public void start(SessionFactoryOptions settings, Properties properties) throws CacheException {
+        // Each region is created when Hibernate builds it
+    }
+
+    @Override
+    public void stop() {
+        // Hibernate destroys each region when the factory is closed
+    }
+
+    @Override
+    public boolean isMinimalPutsEnabledByDefault() {
+        return false;
+    }
+
+    @Override
+    public AccessType getDefaultAccessType() {
+        return AccessType.READ_WRITE;
+    }
+
+    @Override
+    public long nextTimestamp() {
+        // Cached query results are only valid if taken after the last update of their tables, so
+        // timestamps taken within the same millisecond must still be distinct and increasing
+        final long now = System.currentTimeMillis() * TIMESTAMPS_PER_MILLISECOND;
+        return lastTimestamp.updateAndGet(last -> Math.max(last + 1, now));
+    }
+
+    @Override
+    public EntityRegion buildEntityRegion(String regionName, Properties properties,
+                                          CacheDataDescription metadata) throws CacheException {
+        return new LocalCacheRegion.Entity(this, regionName, metadata);
+    }
+
+    @Override
+    public NaturalIdRegion buildNaturalIdRegion(String regionName, Properties properties,
+                                                CacheDataDescription metadata) throws CacheException {
+        return new LocalCacheRegion.NaturalId(this, regionName, metadata);
+    }
+
+    @Override
+    public CollectionRegion buildCollectionRegion(String regionName, Properties properties,
+                                                  CacheDataDescription metadata) throws CacheException {
+        return new LocalCacheRegion.Collection(this, regionName, metadata);
+    }
+
+    @Override
+    public QueryResultsRegion buildQueryResultsRegion(String regionName, Properties properties)
+            throws CacheException {
+        return new LocalCacheRegion.General(this, regionName, configuration.cacheBuilder(regionName));
+    }
+
+    @Override
+    public TimestampsRegion buildTimestampsRegion(String regionName, Properties properties)
+            throws CacheException {
+        // Evicting the update timestamps of a table would let the query cache return stale results
+        return new LocalCacheRegion.General(this, regionName, CacheBuilder.newBuilder());
+    }
+
+    SecondLevelCacheFactory getConfiguration() {
+        return configuration;
+    }
+
+    String metricName(String regionName, String metric) {
+        return MetricRegistry.name(name, "second-level-cache", regionName, metric);
+    }
+
+    MetricRegistry getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,793 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.service.spi.Stoppable;
+import org.hibernate.stat.internal.ConcurrentStatisticsImpl;
+import org.hibernate.stat.spi.StatisticsFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of an EntityManagerFactory, exported to the application's {@link MetricRegistry} under the
+ * name of the bundle.
+ * <p>While statistics are enabled, gauges report the totals of the EntityManagerFactory:</p>
+ * <ul>
+ * <li>{@code <bundle name>.sessions.<opened|closed>}</li>
+ * <li>{@code <bundle name>.transactions.<count|successful>}</li>
+ * <li>{@code <bundle name>.entities.<loads|fetches|inserts|updates|deletes>}</li>
+ * <li>{@code <bundle name>.queries.<executions|max-time>}</li>
+ * <li>{@code <bundle name>.<second-level-cache|query-cache|natural-id-cache>.hit-ratio}</li>
+ * <li>{@code <bundle name>.flushes}</li>
+ * </ul>
+ * <p>The query cache hits, misses and puts of each query are metered as
+ * {@code <bundle name>.query-cache.<query key>.<hits|misses|puts>}.  When switched on, the loads, fetches,
+ * inserts, updates and deletes of each entity are metered as
+ * {@code <bundle name>.entities.<entity name>.<loads|fetches|inserts|updates|deletes>}, and the executions
+ * of each query are timed as {@code <bundle name>.queries.<query key>}.  Queries are named by a
+ * {@link StatementLog#key(String) key} of their {@link StatementLog#shape(String) shape}, so queries differing
+ * only by their literals share their metrics; the shape of each key is logged when its metrics are first
+ * recorded.  Only the first 1,000 shapes are given metrics, so the registry doesn't grow without bound, and
+ * the metrics of the most recent queries are kept resolved, so events don't look them up in the registry.</p>
+ * <p>In {@link StatisticsMode#FULL} mode, the statistics are Hibernate's own, including their breakdown by
+ * entity, collection, query and region.  In {@link StatisticsMode#SAMPLED} mode, the totals are kept in
+ * striped counters instead, which are summed when read, so threads counting events don't contend with each
+ * other; the statistics then don't keep a breakdown by entity, collection, query or region, the breakdowns
+ * being the metrics above, and query execution times are only recorded for one in every
+ * {@code sampleInterval} sessions.  Whether a session is sampled is kept by the thread that opened it until
+ * that thread opens another session, so queries run on other threads, e.g. by
+ * {@link UnitOfWorkAwareExecutors executors} propagating the unit of work or after an asynchronous resource
+ * method resumes, are sampled as the last session opened on their own thread was.</p>
+ * <p>The metrics are removed when the EntityManagerFactory is closed.</p>
+ */
+class MeteredStatistics extends ConcurrentStatisticsImpl implements Stoppable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MeteredStatistics.class);
+
+    private enum Counter {
+        SESSIONS_OPENED, SESSIONS_CLOSED, FLUSHES, CONNECTS, STATEMENTS_PREPARED, STATEMENTS_CLOSED,
+        TRANSACTIONS, SUCCESSFUL_TRANSACTIONS, OPTIMISTIC_FAILURES,
+        ENTITY_LOADS, ENTITY_FETCHES, ENTITY_INSERTS, ENTITY_UPDATES, ENTITY_DELETES,
+        COLLECTION_LOADS, COLLECTION_FETCHES, COLLECTION_UPDATES, COLLECTION_RECREATES, COLLECTION_REMOVES,
+        SECOND_LEVEL_CACHE_HITS, SECOND_LEVEL_CACHE_MISSES, SECOND_LEVEL_CACHE_PUTS,
+        NATURAL_ID_CACHE_HITS, NATURAL_ID_CACHE_MISSES, NATURAL_ID_CACHE_PUTS, NATURAL_ID_QUERY_EXECUTIONS,
+        QUERY_CACHE_HITS, QUERY_CACHE_MISSES, QUERY_CACHE_PUTS, QUERY_EXECUTIONS,
+        UPDATE_TIMESTAMPS_CACHE_HITS, UPDATE_TIMESTAMPS_CACHE_MISSES, UPDATE_TIMESTAMPS_CACHE_PUTS
+    }
+
+    // How many distinct shapes are given metrics, and how many distinct queries keep their metrics resolved
+    private static final int MAX_QUERIES = 1_000;
+
+    // Recording the queries beyond the shapes given metrics, without registering them
+    private static final QueryCacheMeters UNREGISTERED_METERS = new QueryCacheMeters(new Meter(), new Meter(),
+            new Meter());
+    private static final Timer UNREGISTERED_TIMER = new Timer();
+
+    /**
+     * The query cache meters of a query.
+     */
+    private static final class QueryCacheMeters {
+        private final Meter hits;
+        private final Meter misses;
+        private final Meter puts;
+
+        private QueryCacheMeters(Meter hits, Meter misses, Meter puts) {
+            this.hits = hits;
+            this.misses = misses;
+            this.puts = puts;
+        }
+    }
+
+    private final MetricRegistry metrics;
+    private final String name;
+    private final boolean striped;
+    private final int sampleInterval;
+    private final boolean entityMetrics;
+    private final boolean queryMetrics;
+    private final Map<String, Gauge<?>> gauges;
+    private final LoadingCache<String, QueryCacheMeters> queryCacheMeters;
+    private final LoadingCache<String, Timer> queryTimers;
+    private final Set<String> queryKeys = ConcurrentHashMap.newKeySet();
+    private final LongAdder[] counters = new LongAdder[Counter.values().length];
+    private final LongAccumulator queryExecutionMaxTime = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator naturalIdQueryExecutionMaxTime = new LongAccumulator(Math::max, 0);
+    // Hibernate doesn't tell which session an event belongs to, so sampling is decided per thread
+    private final ThreadLocal<Boolean> sampled = ThreadLocal.withInitial(() -> false);
+    private volatile String queryExecutionMaxTimeQueryString;
+    private volatile String naturalIdQueryExecutionMaxTimeRegion;
+    private boolean gaugesRegistered;
+
+    MeteredStatistics(SessionFactoryImplementor sessionFactory, MetricRegistry metrics, String name,
+                      StatisticsMode mode, int sampleInterval, boolean entityMetrics, boolean queryMetrics) {
+        super(sessionFactory);
+        this.metrics = metrics;
+        this.name = name;
+        this.striped = mode == StatisticsMode.SAMPLED;
+        this.sampleInterval = sampleInterval;
+        this.entityMetrics = entityMetrics;
+        this.queryMetrics = queryMetrics;
+        for (Counter counter : Counter.values()) {
+            counters[counter.ordinal()] = new LongAdder();
+        }
+        this.gauges = ImmutableMap.<String, Gauge<?>>builder()
+                .put(name("sessions", "opened"), (Gauge<Long>) this::getSessionOpenCount)
+                .put(name("sessions", "closed"), (Gauge<Long>) this::getSessionCloseCount)
+                .put(name("transactions", "count"), (Gauge<Long>) this::getTransactionCount)
+                .put(name("transactions", "successful"), (Gauge<Long>) this::getSuccessfulTransactionCount)
+                .put(name("entities", "loads"), (Gauge<Long>) this::getEntityLoadCount)
+                .put(name("entities", "fetches"), (Gauge<Long>) this::getEntityFetchCount)
+                .put(name("entities", "inserts"), (Gauge<Long>) this::getEntityInsertCount)
+                .put(name("entities", "updates"), (Gauge<Long>) this::getEntityUpdateCount)
+                .put(name("entities", "deletes"), (Gauge<Long>) this::getEntityDeleteCount)
+                .put(name("queries", "executions"), (Gauge<Long>) this::getQueryExecutionCount)
+                .put(name("queries", "max-time"), (Gauge<Long>) this::getQueryExecutionMaxTime)
+                .put(name("second-level-cache", "hit-ratio"),
+                        hitRatio(this::getSecondLevelCacheHitCount, this::getSecondLevelCacheMissCount))
+                .put(name("query-cache", "hit-ratio"),
+                        hitRatio(this::getQueryCacheHitCount, this::getQueryCacheMissCount))
+                .put(name("natural-id-cache", "hit-ratio"),
+                        hitRatio(this::getNaturalIdCacheHitCount, this::getNaturalIdCacheMissCount))
+                .put(name("flushes"), (Gauge<Long>) this::getFlushCount)
+                .build();
+        this.queryCacheMeters = CacheBuilder.newBuilder()
+                .maximumSize(MAX_QUERIES)
+                .build(CacheLoader.from(hql -> {
+                    final String key = queryKey(hql);
+                    return key == null ? UNREGISTERED_METERS :
+                            new QueryCacheMeters(metrics.meter(name("query-cache", key, "hits")),
+                                    metrics.meter(name("query-cache", key, "misses")),
+                                    metrics.meter(name("query-cache", key, "puts")));
+                }));
+        this.queryTimers = CacheBuilder.newBuilder()
+                .maximumSize(MAX_QUERIES)
+                .build(CacheLoader.from(hql -> {
+                    final String key = queryKey(hql);
+                    return key == null ? UNREGISTERED_TIMER : metrics.timer(name("queries", key));
+                }));
+    }
+
+    /**
+     * @param metrics the registry of the metrics
+     * @param name the name of the bundle
+     * @param mode how the statistics are collected
+     * @param sampleInterval one in how many sessions query execution times are recorded in sampled mode
+     * @param entityMetrics whether the operations of each entity are metered
+     * @param queryMetrics whether the executions of each query are timed
+     * @return a factory building the statistics of an EntityManagerFactory of the named bundle
+     */
+    static StatisticsFactory factory(MetricRegistry metrics, String name, StatisticsMode mode, int sampleInterval,
+                                     boolean entityMetrics, boolean queryMetrics) {
+        return sessionFactory -> new MeteredStatistics(sessionFactory, metrics, name, mode, sampleInterval,
+                entityMetrics, queryMetrics);
+    }
+
+    @Override
+    public synchronized void setStatisticsEnabled(boolean enabled) {
+        super.setStatisticsEnabled(enabled);
+        if (enabled && !gaugesRegistered) {
+            gauges.forEach(metrics::register);
+            gaugesRegistered = true;
+        } else if (!enabled && gaugesRegistered) {
+            gauges.keySet().forEach(metrics::remove);
+            gaugesRegistered = false;
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        gauges.keySet().forEach(metrics::remove);
+        gaugesRegistered = false;
+        queryCacheMeters.invalidateAll();
+        queryTimers.invalidateAll();
+        queryKeys.clear();
+        final String entities = name("entities") + '.';
+        final String queries = name("queries") + '.';
+        final String queryCache = name("query-cache") + '.';
+        metrics.removeMatching((metricName, metric) -> metricName.startsWith(entities) ||
+                metricName.startsWith(queries) || metricName.startsWith(queryCache));
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        // The super constructor clears the statistics before the counters are created
+        if (counters == null) {
+            return;
+        }
+        for (LongAdder counter : counters) {
+            counter.reset();
+        }
+        queryExecutionMaxTime.reset();
+        naturalIdQueryExecutionMaxTime.reset();
+        queryExecutionMaxTimeQueryString = null;
+        naturalIdQueryExecutionMaxTimeRegion = null;
+    }
+
+    // Events
+
+    @Override
+    public void openSession() {
+        if (striped) {
+            increment(Counter.SESSIONS_OPENED);
+            sampled.set(ThreadLocalRandom.current().nextInt(sampleInterval) == 0);
+        } else {
+            super.openSession();
+        }
+    }
+
+    @Override
+    public void closeSession() {
+        if (striped) {
+            increment(Counter.SESSIONS_CLOSED);
+        } else {
+            super.closeSession();
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (striped) {
+            increment(Counter.FLUSHES);
+        } else {
+            super.flush();
+        }
+    }
+
+    @Override
+    public void connect() {
+        if (striped) {
+            increment(Counter.CONNECTS);
+        } else {
+            super.connect();
+        }
+    }
+
+    @Override
+    public void prepareStatement() {
+        if (striped) {
+            increment(Counter.STATEMENTS_PREPARED);
+        } else {
+            super.prepareStatement();
+        }
+    }
+
+    @Override
+    public void closeStatement() {
+        if (striped) {
+            increment(Counter.STATEMENTS_CLOSED);
+        } else {
+            super.closeStatement();
+        }
+    }
+
+    @Override
+    public void endTransaction(boolean success) {
+        if (!striped) {
+            super.endTransaction(success);
+            return;
+        }
+        increment(Counter.TRANSACTIONS);
+        if (success) {
+            increment(Counter.SUCCESSFUL_TRANSACTIONS);
+        }
+    }
+
+    @Override
+    public void optimisticFailure(String entityName) {
+        if (striped) {
+            increment(Counter.OPTIMISTIC_FAILURES);
+        } else {
+            super.optimisticFailure(entityName);
+        }
+    }
+
+    @Override
+    public void loadEntity(String entityName) {
+        if (striped) {
+            increment(Counter.ENTITY_LOADS);
+        } else {
+            super.loadEntity(entityName);
+        }
+        markEntity(entityName, "loads");
+    }
+
+    @Override
+    public void fetchEntity(String entityName) {
+        if (striped) {
+            increment(Counter.ENTITY_FETCHES);
+        } else {
+            super.fetchEntity(entityName);
+        }
+        markEntity(entityName, "fetches");
+    }
+
+    @Override
+    public void insertEntity(String entityName) {
+        if (striped) {
+            increment(Counter.ENTITY_INSERTS);
+        } else {
+            super.insertEntity(entityName);
+        }
+        markEntity(entityName, "inserts");
+    }
+
+    @Override
+    public void updateEntity(String entityName) {
+        if (striped) {
+            increment(Counter.ENTITY_UPDATES);
+        } else {
+            super.updateEntity(entityName);
+        }
+        markEntity(entityName, "updates");
+    }
+
+    @Override
+    public void deleteEntity(String entityName) {
+        if (striped) {
+            increment(Counter.ENTITY_DELETES);
+        } else {
+            super.deleteEntity(entityName);
+        }
+        markEntity(entityName, "deletes");
+    }
+
+    @Override
+    public void loadCollection(String role) {
+        if (striped) {
+            increment(Counter.COLLECTION_LOADS);
+        } else {
+            super.loadCollection(role);
+        }
+    }
+
+    @Override
+    public void fetchCollection(String role) {
+        if (striped) {
+            increment(Counter.COLLECTION_FETCHES);
+        } else {
+            super.fetchCollection(role);
+        }
+    }
+
+    @Override
+    public void updateCollection(String role) {
+        if (striped) {
+            increment(Counter.COLLECTION_UPDATES);
+        } else {
+            super.updateCollection(role);
+        }
+    }
+
+    @Override
+    public void recreateCollection(String role) {
+        if (striped) {
+            increment(Counter.COLLECTION_RECREATES);
+        } else {
+            super.recreateCollection(role);
+        }
+    }
+
+    @Override
+    public void removeCollection(String role) {
+        if (striped) {
+            increment(Counter.COLLECTION_REMOVES);
+        } else {
+            super.removeCollection(role);
+        }
+    }
+
+    @Override
+    public void secondLevelCacheHit(String regionName) {
+        if (striped) {
+            increment(Counter.SECOND_LEVEL_CACHE_HITS);
+        } else {
+            super.secondLevelCacheHit(regionName);
+        }
+    }
+
+    @Override
+    public void secondLevelCacheMiss(String regionName) {
+        if (striped) {
+            increment(Counter.SECOND_LEVEL_CACHE_MISSES);
+        } else {
+            super.secondLevelCacheMiss(regionName);
+        }
+    }
+
+    @Override
+    public void secondLevelCachePut(String regionName) {
+        if (striped) {
+            increment(Counter.SECOND_LEVEL_CACHE_PUTS);
+        } else {
+            super.secondLevelCachePut(regionName);
+        }
+    }
+
+    @Override
+    public void naturalIdCacheHit(String regionName) {
+        if (striped) {
+            increment(Counter.NATURAL_ID_CACHE_HITS);
+        } else {
+            super.naturalIdCacheHit(regionName);
+        }
+    }
+
+    @Override
+    public void naturalIdCacheMiss(String regionName) {
+        if (striped) {
+            increment(Counter.NATURAL_ID_CACHE_MISSES);
+        } else {
+            super.naturalIdCacheMiss(regionName);
+        }
+    }
+
+    @Override
+    public void naturalIdCachePut(String regionName) {
+        if (striped) {
+            increment(Counter.NATURAL_ID_CACHE_PUTS);
+        } else {
+            super.naturalIdCachePut(regionName);
+        }
+    }
+
+    @Override
+    public void naturalIdQueryExecuted(String regionName, long time) {
+        if (!striped) {
+            super.naturalIdQueryExecuted(regionName, time);
+            return;
+        }
+        increment(Counter.NATURAL_ID_QUERY_EXECUTIONS);
+        if (isTimed() && updateMax(naturalIdQueryExecutionMaxTime, time)) {
+            naturalIdQueryExecutionMaxTimeRegion = regionName;
+        }
+    }
+
+    @Override
+    public void queryExecuted(String hql, int rows, long time) {
+        if (!striped) {
+            super.queryExecuted(hql, rows, time);
+        } else {
+            increment(Counter.QUERY_EXECUTIONS);
+            if (!isTimed()) {
+                return;
+            }
+            if (updateMax(queryExecutionMaxTime, time)) {
+                queryExecutionMaxTimeQueryString = hql;
+            }
+        }
+        if (queryMetrics && hql != null) {
+            queryTimers.getUnchecked(hql).update(time, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void queryCacheHit(String hql, String regionName) {
+        if (striped) {
+            increment(Counter.QUERY_CACHE_HITS);
+        } else {
+            super.queryCacheHit(hql, regionName);
+        }
+        if (hql != null) {
+            queryCacheMeters.getUnchecked(hql).hits.mark();
+        }
+    }
+
+    @Override
+    public void queryCacheMiss(String hql, String regionName) {
+        if (striped) {
+            increment(Counter.QUERY_CACHE_MISSES);
+        } else {
+            super.queryCacheMiss(hql, regionName);
+        }
+        if (hql != null) {
+            queryCacheMeters.getUnchecked(hql).misses.mark();
+        }
+    }
+
+    @Override
+    public void queryCachePut(String hql, String regionName) {
+        if (striped) {
+            increment(Counter.QUERY_CACHE_PUTS);
+        } else {
+            super.queryCachePut(hql, regionName);
+        }
+        if (hql != null) {
+            queryCacheMeters.getUnchecked(hql).puts.mark();
+        }
+    }
+
+    @Override
+    public void updateTimestampsCacheHit() {
+        if (striped) {
+            increment(Counter.UPDATE_TIMESTAMPS_CACHE_HITS);
+        } else {
+            super.updateTimestampsCacheHit();
+        }
+    }
+
+    @Override
+    public void updateTimestampsCacheMiss() {
+        if (striped) {
+            increment(Counter.UPDATE_TIMESTAMPS_CACHE_MISSES);
+        } else {
+            super.updateTimestampsCacheMiss();
+        }
+    }
+
+    @Override
+    public void updateTimestampsCachePut() {
+        if (striped) {
+            increment(Counter.UPDATE_TIMESTAMPS_CACHE_PUTS);
+        } else {
+            super.updateTimestampsCachePut();
+        }
+    }
+
+    // Totals
+
+    @Override
+    public long getSessionOpenCount() {
+        return striped ? count(Counter.SESSIONS_OPENED) : super.getSessionOpenCount();
+    }
+
+    @Override
+    public long getSessionCloseCount() {
+        return striped ? count(Counter.SESSIONS_CLOSED) : super.getSessionCloseCount();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return striped ? count(Counter.FLUSHES) : super.getFlushCount();
+    }
+
+    @Override
+    public long getConnectCount() {
+        return striped ? count(Counter.CONNECTS) : super.getConnectCount();
+    }
+
+    @Override
+    public long getPrepareStatementCount() {
+        return striped ? count(Counter.STATEMENTS_PREPARED) : super.getPrepareStatementCount();
+    }
+
+    @Override
+    public long getCloseStatementCount() {
+        return striped ? count(Counter.STATEMENTS_CLOSED) : super.getCloseStatementCount();
+    }
+
+    @Override
+    public long getTransactionCount() {
+        return striped ? count(Counter.TRANSACTIONS) : super.getTransactionCount();
+    }
+
+    @Override
+    public long getSuccessfulTransactionCount() {
+        return striped ? count(Counter.SUCCESSFUL_TRANSACTIONS) : super.getSuccessfulTransactionCount();
+    }
+
+    @Override
+    public long getOptimisticFailureCount() {
+        return striped ? count(Counter.OPTIMISTIC_FAILURES) : super.getOptimisticFailureCount();
+    }
+
+    @Override
+    public long getEntityLoadCount() {
+        return striped ? count(Counter.ENTITY_LOADS) : super.getEntityLoadCount();
+    }
+
+    @Override
+    public long getEntityFetchCount() {
+        return striped ? count(Counter.ENTITY_FETCHES) : super.getEntityFetchCount();
+    }
+
+    @Override
+    public long getEntityInsertCount() {
+        return striped ? count(Counter.ENTITY_INSERTS) : super.getEntityInsertCount();
+    }
+
+    @Override
+    public long getEntityUpdateCount() {
+        return striped ? count(Counter.ENTITY_UPDATES) : super.getEntityUpdateCount();
+    }
+
+    @Override
+    public long getEntityDeleteCount() {
+        return striped ? count(Counter.ENTITY_DELETES) : super.getEntityDeleteCount();
+    }
+
+    @Override
+    public long getCollectionLoadCount() {
+        return striped ? count(Counter.COLLECTION_LOADS) : super.getCollectionLoadCount();
+    }
+
+    @Override
+    public long getCollectionFetchCount() {
+        return striped ? count(Counter.COLLECTION_FETCHES) : super.getCollectionFetchCount();
+    }
+
+    @Override
+    public long getCollectionUpdateCount() {
+        return striped ? count(Counter.COLLECTION_UPDATES) : super.getCollectionUpdateCount();
+    }
+
+    @Override
+    public long getCollectionRecreateCount() {
+        return striped ? count(Counter.COLLECTION_RECREATES) : super.getCollectionRecreateCount();
+    }
+
+    @Override
+    public long getCollectionRemoveCount() {
+        return striped ? count(Counter.COLLECTION_REMOVES) : super.getCollectionRemoveCount();
+    }
+
+    @Override
+    public long getSecondLevelCacheHitCount() {
+        return striped ? count(Counter.SECOND_LEVEL_CACHE_HITS) : super.getSecondLevelCacheHitCount();
+    }
+
+    @Override
+    public long getSecondLevelCacheMissCount() {
+        return striped ? count(Counter.SECOND_LEVEL_CACHE_MISSES) : super.getSecondLevelCacheMissCount();
+    }
+
+    @Override
+    public long getSecondLevelCachePutCount() {
+        return striped ? count(Counter.SECOND_LEVEL_CACHE_PUTS) : super.getSecondLevelCachePutCount();
+    }
+
+    @Override
+    public long getNaturalIdCacheHitCount() {
+        return striped ? count(Counter.NATURAL_ID_CACHE_HITS) : super.getNaturalIdCacheHitCount();
+    }
+
+    @Override
+    public long getNaturalIdCacheMissCount() {
+        return striped ? count(Counter.NATURAL_ID_CACHE_MISSES) : super.getNaturalIdCacheMissCount();
+    }
+
+    @Override
+    public long getNaturalIdCachePutCount() {
+        return striped ? count(Counter.NATURAL_ID_CACHE_PUTS) : super.getNaturalIdCachePutCount();
+    }
+
+    @Override
+    public long getNaturalIdQueryExecutionCount() {
+        return striped ? count(Counter.NATURAL_ID_QUERY_EXECUTIONS) : super.getNaturalIdQueryExecutionCount();
+    }
+
+    @Override
+    public long getNaturalIdQueryExecutionMaxTime() {
+        return striped ? naturalIdQueryExecutionMaxTime.get() : super.getNaturalIdQueryExecutionMaxTime();
+    }
+
+    @Override
+    public String getNaturalIdQueryExecutionMaxTimeRegion() {
+        return striped ? naturalIdQueryExecutionMaxTimeRegion : super.getNaturalIdQueryExecutionMaxTimeRegion();
+    }
+
+    @Override
+    public long getQueryCacheHitCount() {
+        return striped ? count(Counter.QUERY_CACHE_HITS) : super.getQueryCacheHitCount();
+    }
+
+    @Override
+    public long getQueryCacheMissCount() {
+        return striped ? count(Counter.QUERY_CACHE_MISSES) : super.getQueryCacheMissCount();
+    }
+
+    @Override
+    public long getQueryCachePutCount() {
+        return striped ? count(Counter.QUERY_CACHE_PUTS) : super.getQueryCachePutCount();
+    }
+
+    @Override
+    public long getQueryExecutionCount() {
+        return striped ? count(Counter.QUERY_EXECUTIONS) : super.getQueryExecutionCount();
+    }
+
+    @Override
+    public long getQueryExecutionMaxTime() {
+        return striped ? queryExecutionMaxTime.get() : super.getQueryExecutionMaxTime();
+    }
+
+    @Override
+    public String getQueryExecutionMaxTimeQueryString() {
+        return striped ? queryExecutionMaxTimeQueryString : super.getQueryExecutionMaxTimeQueryString();
+    }
+
+    @Override
+    public long getUpdateTimestampsCacheHitCount() {
+        return striped ? count(Counter.UPDATE_TIMESTAMPS_CACHE_HITS) : super.getUpdateTimestampsCacheHitCount();
+    }
+
+    @Override
+    public long getUpdateTimestampsCacheMissCount() {
+        return striped ? count(Counter.UPDATE_TIMESTAMPS_CACHE_MISSES) : super.getUpdateTimestampsCacheMissCount();
+    }
+
+    @Override
+    public long getUpdateTimestampsCachePutCount() {
+        return striped ? count(Counter.UPDATE_TIMESTAMPS_CACHE_PUTS) : super.getUpdateTimestampsCachePutCount();
+    }
+
+    private void increment(Counter counter) {
+        counters[counter.ordinal()].increment();
+    }
+
+    private long count(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    /**
+     * @return whether the execution times of the session last opened on the current thread are recorded in
+     *         sampled mode
+     */
+    private boolean isTimed() {
+        return sampled.get();
+    }
+
+    /**
+     * @return true if the given time is the new maximum
+     */
+    private static boolean updateMax(LongAccumulator max, long time) {
+        if (time <= max.get()) {
+            return false;
+        }
+        max.accumulate(time);
+        return max.get() == time;
+    }
+
+    private void markEntity(String entityName, String metric) {
+        if (entityMetrics) {
+            metrics.meter(name("entities", entityName, metric)).mark();
+        }
+    }
+
+    /**
+     * @return the key naming the metrics of the given query, or null if the query is of none of the shapes
+     * given metrics, which are all taken
+     */
+    private String queryKey(String hql) {
+        final String shape = StatementLog.shape(hql);
+        final String key = StatementLog.key(shape);
+        if (queryKeys.contains(key)) {
+            return key;
+        }
+        if (queryKeys.size() >= MAX_QUERIES) {
+            return null;
+        }
+        if (queryKeys.add(key)) {
+            LOGGER.info("Recording the metrics of {} as {}", shape, key);
+        }
+        return key;
+    }
+
+    private String name(String... names) {
+        return MetricRegistry.name(name, names);
+    }
+
+    private static RatioGauge hitRatio(Gauge<Long> hits, Gauge<Long> misses) {
+        return new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                final long hitCount = hits.getValue();
+                return Ratio.of(hitCount, hitCount + misses.getValue());
+            }
+        };
+    }
+}
@@ -0,0 +1,119 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A fixed-size store of byte arrays in a direct buffer, outside of the Java heap.
+ * <p>The store is a log: each array is appended after the previous one, wrapping around to the start of
+ * the buffer when it is full, so the newest arrays overwrite the oldest ones.  Each write returns an
+ * {@link Address} that stays readable until the array is overwritten; the store itself keeps no index.</p>
+ * <p>Writes are serialized, but reads don't block each other: an array is copied optimistically, and only
+ * copied again under a shared lock if a write happened meanwhile.</p>
+ */
+final class OffHeapStore {
+
+    /**
+     * Where an array was written.  Positions count every byte ever written, so they never repeat.
+     */
+    static final class Address {
+        private final long position;
+        private final int length;
+
+        private Address(long position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+
+        int getLength() {
+            return length;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final StampedLock lock = new StampedLock();
+    private volatile long writePosition;
+
+    OffHeapStore(int capacity) {
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param bytes the array to store
+     * @return where the array was written, or null if it is larger than the store
+     */
+    Address write(byte[] bytes) {
+        if (bytes.length > capacity) {
+            return null;
+        }
+        final long stamp = lock.writeLock();
+        try {
+            long position = writePosition;
+            final int offset = offset(position);
+            if (offset + bytes.length > capacity) {
+                // Skip the end of the buffer, so arrays are never split
+                position += capacity - offset;
+            }
+            final ByteBuffer target = buffer.duplicate();
+            target.position(offset(position));
+            target.put(bytes);
+            writePosition = position + bytes.length;
+            return new Address(position, bytes.length);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param address where an array was written
+     * @return a copy of the array, or null if it was overwritten
+     */
+    byte[] read(Address address) {
+        final long optimistic = lock.tryOptimisticRead();
+        if (optimistic != 0) {
+            final byte[] bytes = copy(address);
+            if (lock.validate(optimistic)) {
+                return bytes;
+            }
+        }
+        // A write may have overwritten the array while it was copied
+        final long stamp = lock.readLock();
+        try {
+            return copy(address);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    boolean isReadable(Address address) {
+        return address.position >= writePosition - capacity;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return how many bytes of the buffer hold arrays, readable or not
+     */
+    long getUsed() {
+        return Math.min(writePosition, capacity);
+    }
+
+    private byte[] copy(Address address) {
+        if (!isReadable(address)) {
+            return null;
+        }
+        final byte[] bytes = new byte[address.length];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(offset(address.position));
+        source.get(bytes);
+        return bytes;
+    }
+
+    private int offset(long position) {
+        return (int) (position % capacity);
+    }
+}
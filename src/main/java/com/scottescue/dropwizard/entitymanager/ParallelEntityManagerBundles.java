@@ -0,0 +1,114 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.Configuration;
+import io.dropwizard.ConfiguredBundle;
+import io.dropwizard.setup.Bootstrap;
+import io.dropwizard.setup.Environment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bundle that runs several {@link EntityManagerBundle}s, building their EntityManagerFactories concurrently.
+ * <p>Building an EntityManagerFactory, which includes building the Hibernate metadata, validating the schema
+ * and starting the connection pool, dominates the startup time of applications with several persistence
+ * units.  This bundle builds the factories on a bounded pool of threads, waits for all of them, then registers
+ * the bundles with the environment one after another, in the order given, before Jersey starts.</p>
+ * <p>If any factory fails to build, the bundle fails with an exception listing every failure.  The time taken
+ * to build each factory is logged.</p>
+ * <p>The wrapped bundles must be added to the application's {@link Bootstrap} through this bundle only:</p>
+ * <pre>{@code
+ * bootstrap.addBundle(new ParallelEntityManagerBundles<>(4, usersBundle, ordersBundle, reportsBundle));
+ * }</pre>
+ *
+ * @param <T> the {@link Configuration} type expected by this bundle
+ */
+public class ParallelEntityManagerBundles<T extends Configuration> implements ConfiguredBundle<T> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelEntityManagerBundles.class);
+
+    private final int parallelism;
+    private final ImmutableList<EntityManagerBundle<T>> bundles;
+
+    /**
+     * @param parallelism the maximum number of EntityManagerFactories built at the same time
+     * @param bundles     the bundles to run
+     */
+    @SafeVarargs
+    public ParallelEntityManagerBundles(int parallelism, EntityManagerBundle<T>... bundles) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.bundles = ImmutableList.copyOf(bundles);
+    }
+
+    @Override
+    public void initialize(Bootstrap<?> bootstrap) {
+        for (EntityManagerBundle<T> bundle : bundles) {
+            bundle.initialize(bootstrap);
+        }
+    }
+
+    @Override
+    public void run(T configuration, Environment environment) throws Exception {
+        if (bundles.isEmpty()) {
+            return;
+        }
+
+        final List<EntityManagerFactory> entityManagerFactories = buildAll(configuration, environment);
+        for (int i = 0; i < bundles.size(); i++) {
+            bundles.get(i).register(configuration, environment, entityManagerFactories.get(i));
+        }
+    }
+
+    private List<EntityManagerFactory> buildAll(T configuration, Environment environment) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, bundles.size()),
+                new ThreadFactoryBuilder().setNameFormat("entity-manager-bootstrap-%d").setDaemon(true).build());
+        try {
+            final List<Future<EntityManagerFactory>> futures = new ArrayList<>(bundles.size());
+            for (EntityManagerBundle<T> bundle : bundles) {
+                futures.add(executor.submit(() -> build(bundle, configuration, environment)));
+            }
+
+            final List<EntityManagerFactory> entityManagerFactories = new ArrayList<>(bundles.size());
+            IllegalStateException failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    entityManagerFactories.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new IllegalStateException("Unable to build the EntityManagerFactories");
+                    }
+                    failure.addSuppressed(new IllegalStateException(
+                            "Unable to build the EntityManagerFactory of bundle '" + bundles.get(i).name() + "'",
+                            e.getCause()));
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return entityManagerFactories;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private EntityManagerFactory build(EntityManagerBundle<T> bundle, T configuration, Environment environment) {
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final EntityManagerFactory entityManagerFactory = bundle.build(configuration, environment);
+        LOGGER.info("Built the EntityManagerFactory of bundle '{}' in {} ms",
+                bundle.name(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        return entityManagerFactory;
+    }
+}
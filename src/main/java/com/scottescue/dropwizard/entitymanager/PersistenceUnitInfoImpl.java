@@ -1,5 +1,6 @@
 package com.scottescue.dropwizard.entitymanager;
 
+import org.hibernate.engine.spi.ManagedEntity;
 import org.hibernate.jpa.HibernatePersistenceProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,15 +22,6 @@ class PersistenceUnitInfoImpl implements PersistenceUnitConfig, PersistenceUnitI
     private static final URL persistenceUnitRootUrl = PersistenceUnitInfoImpl.class.getClassLoader().getResource("");
     private static final PersistenceUnitTransactionType transactionType = PersistenceUnitTransactionType.RESOURCE_LOCAL;
 
-    @SuppressWarnings("deprecation")
-    private static final Set<String> UNSUPPORTED_ENHANCER_PROPERTIES = new HashSet<String>() {{
-        add( org.hibernate.jpa.AvailableSettings.ENHANCER_ENABLE_DIRTY_TRACKING );
-        add( org.hibernate.jpa.AvailableSettings.ENHANCER_ENABLE_LAZY_INITIALIZATION );
-        add( org.hibernate.jpa.AvailableSettings.ENHANCER_ENABLE_ASSOCIATION_MANAGEMENT );
-        // The USE_CLASS_ENHANCER property is deprecated, but we still need to check whether a value is passed for it
-        add( org.hibernate.jpa.AvailableSettings.USE_CLASS_ENHANCER );
-    }};
-
     private final String persistenceUnitName;
     private final DataSource nonJtaDataSource;
     private final Logger logger;
@@ -37,6 +29,7 @@ class PersistenceUnitInfoImpl implements PersistenceUnitConfig, PersistenceUnitI
     private final Set<URL> jarFileUrls = new HashSet<>();
     private final Set<String> managedClassNames = new HashSet<>();
     private final Properties properties = new Properties();
+    private boolean transformerRegistered;
     private boolean excludeUnlistedClasses = true;
     private SharedCacheMode sharedCacheMode = SharedCacheMode.UNSPECIFIED;
     private ValidationMode validationMode = ValidationMode.AUTO;
@@ -153,11 +146,6 @@ class PersistenceUnitInfoImpl implements PersistenceUnitConfig, PersistenceUnitI
 
     @Override
     public PersistenceUnitConfig setProperty(String property, String value) {
-        if (UNSUPPORTED_ENHANCER_PROPERTIES.contains(property) && Boolean.valueOf(value)) {
-            logger.warn("Dropwizard EntityManager does not support Hibernate's bytecode enhancer, " +
-                    "however the " + property + " property is set to true.  " +
-                    "Hibernate's bytecode enhancer will be ignored.");
-        }
         this.properties.setProperty(property, value);
         return this;
     }
@@ -172,10 +160,45 @@ class PersistenceUnitInfoImpl implements PersistenceUnitConfig, PersistenceUnitI
         return Thread.currentThread().getContextClassLoader();
     }
 
+    /**
+     * Records that a transformer, like Hibernate's bytecode enhancer, was registered.  The transformer is
+     * never applied, since the entity classes are already loaded; see {@link #verifyEnhancement(Iterable)}.
+     */
     @Override
     public void addTransformer(ClassTransformer transformer) {
-        logger.warn("Dropwizard EntityManager does not support JPA class transformation.  " +
-                "The " + transformer.getClass().getName() + " class transformer will be ignored.");
+        logger.debug("Ignoring the {} class transformer, entity classes are already loaded",
+                transformer.getClass().getName());
+        this.transformerRegistered = true;
+    }
+
+    /**
+     * Warns about the entity classes a registered transformer, like Hibernate's bytecode enhancer, could
+     * not transform.
+     * <p>Entity classes are handed to the bundle already loaded, so they can't be transformed when the
+     * persistence unit is built.  They have to be enhanced at build time instead, as described by
+     * {@link EntityManagerBundle}.</p>
+     *
+     * @param entityClasses the entity classes of the persistence unit
+     */
+    void verifyEnhancement(Iterable<Class<?>> entityClasses) {
+        if (!this.transformerRegistered) {
+            return;
+        }
+        final Set<String> enhanced = new TreeSet<>();
+        final Set<String> notEnhanced = new TreeSet<>();
+        for (Class<?> entityClass : entityClasses) {
+            if (ManagedEntity.class.isAssignableFrom(entityClass)) {
+                enhanced.add(entityClass.getName());
+            } else {
+                notEnhanced.add(entityClass.getName());
+            }
+        }
+        logger.debug("Enhanced entity classes: {}", enhanced);
+        if (!notEnhanced.isEmpty()) {
+            logger.warn("Hibernate's bytecode enhancer is enabled, but the entity classes {} were loaded before " +
+                    "they could be transformed at runtime, so they are not enhanced.  Enhance them at build " +
+                    "time with the hibernate-enhance-maven-plugin instead.", notEnhanced);
+        }
     }
 
     @Override
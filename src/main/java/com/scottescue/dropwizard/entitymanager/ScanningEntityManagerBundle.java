@@ -3,16 +3,15 @@ package com.scottescue.dropwizard.entitymanager;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import io.dropwizard.Configuration;
-import org.glassfish.jersey.server.internal.scanning.AnnotationAcceptingListener;
-import org.glassfish.jersey.server.internal.scanning.PackageNamesScanner;
 
-import javax.persistence.Entity;
-import java.io.IOException;
-import java.io.InputStream;
+import java.util.Arrays;
 
 /**
  * Extension of {@link EntityManagerBundle} that scans a given package for entities instead of requiring entities
  * to be explicitly listed.
+ * <p>Entities listed in the index written at compile time by the {@link EntityIndexProcessor} are loaded
+ * without scanning; only the jars and class directories without an index are scanned, in parallel, by the
+ * {@link EntityClassScanner}.  A package may be split between indexed and unindexed class path entries.</p>
  *
  * @param <T> the {@link Configuration} type expected by this bundle
  */
@@ -34,25 +33,12 @@ public abstract class ScanningEntityManagerBundle<T extends Configuration> exten
     }
 
     private static ImmutableList<Class<?>> findEntityClassesFromDirectory(String path, String... paths) {
-        @SuppressWarnings("unchecked")
-        final AnnotationAcceptingListener asl = new AnnotationAcceptingListener(Entity.class);
-        final PackageNamesScanner scanner = new PackageNamesScanner(merge(path, paths), true);
-
-        while (scanner.hasNext()) {
-            final String next = scanner.next();
-            if (asl.accept(next)) {
-                try (final InputStream in = scanner.open()) {
-                    asl.process(next, in);
-                } catch (IOException e) {
-                    throw new RuntimeException("AnnotationAcceptingListener failed to process scanned resource: " + next);
-                }
-            }
-        }
-
-        final ImmutableList.Builder<Class<?>> builder = ImmutableList.builder();
-        asl.getAnnotatedClasses().forEach(builder::add);
+        return new EntityClassScanner(classLoader()).scan(Arrays.asList(merge(path, paths)));
+    }
 
-        return builder.build();
+    private static ClassLoader classLoader() {
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        return contextClassLoader != null ? contextClassLoader : ScanningEntityManagerBundle.class.getClassLoader();
     }
 
     private static String[] merge(String arg, String... args) {
@@ -0,0 +1,237 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import io.dropwizard.util.SizeUnit;
+import io.dropwizard.validation.MaxSize;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The configuration of the in-process second-level cache of an {@link EntityManagerBundle}.  Enable it by
+ * overriding {@link EntityManagerBundle#getSecondLevelCacheFactory(io.dropwizard.Configuration)}.
+ * <p>Every cache region, e.g. the region of an entity annotated with {@link javax.persistence.Cacheable}, is
+ * a bounded in-memory cache.  The defaults apply to every region; the settings of a region can be
+ * overridden by its name:</p>
+ * <pre>
+ * secondLevelCache:
+ *   maximumSize: 10000
+ *   queryCacheEnabled: true
+ *   expireAfterWrite: 1 hour
+ *   regions:
+ *     com.example.core.Country:
+ *       maximumSize: 500
+ *       expireAfterWrite: 1 day
+ *     com.example.core.Order:
+ *       maximumSize: 1000000
+ *       offHeapSize: 1GB
+ *     com.example.core.Document:
+ *       maximumBytes: 64MB
+ * </pre>
+ * <p>Setting {@code maximumBytes} bounds a region by the estimated size of its entries rather than by their
+ * number, and takes precedence over {@code maximumSize}.  Entries kept on the heap are estimated by the
+ * length of their serialized form, so each of them is serialized once when it is cached; entries kept
+ * off-heap are estimated by the length of their buffer.</p>
+ * <p>Setting an {@code offHeapSize} keeps the entries of entity and collection regions in a direct buffer
+ * of that size, outside of the heap; only their keys stay on the heap.  When the buffer is full, the
+ * oldest entries are overwritten.</p>
+ * <p>The hits, misses, puts and evictions of each region are metered in the application's
+ * {@link MetricRegistry}, as {@code <bundle name>.second-level-cache.<region name>.<hits|misses|puts|evictions>}.
+ * Regions stored off-heap also report the {@code off-heap.capacity} and {@code off-heap.used} bytes of
+ * their buffer.</p>
+ * <p>Enabling the query cache caches the results of queries made cacheable, e.g. by
+ * {@link UnitOfWork#cacheableQueries()}, in the {@code org.hibernate.cache.internal.StandardQueryCache} region.
+ * Cached results are invalidated by table: they are discarded once any table they were read from is updated
+ * after they were cached.  The hits, misses and puts of each query are metered as
+ * {@code <bundle name>.query-cache.<query>.<hits|misses|puts>}.</p>
+ */
+public class SecondLevelCacheFactory {
+
+    /**
+     * Overrides the defaults of a single region.  Unset values fall back to the defaults.
+     */
+    public static class Region {
+        @Min(0)
+        private Long maximumSize;
+
+        private Size maximumBytes;
+
+        private Duration expireAfterWrite;
+
+        @MaxSize(value = Integer.MAX_VALUE, unit = SizeUnit.BYTES)
+        private Size offHeapSize;
+
+        @JsonProperty
+        public Long getMaximumSize() {
+            return maximumSize;
+        }
+
+        @JsonProperty
+        public void setMaximumSize(Long maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        @JsonProperty
+        public Size getMaximumBytes() {
+            return maximumBytes;
+        }
+
+        @JsonProperty
+        public void setMaximumBytes(Size maximumBytes) {
+            this.maximumBytes = maximumBytes;
+        }
+
+        @JsonProperty
+        public Duration getExpireAfterWrite() {
+            return expireAfterWrite;
+        }
+
+        @JsonProperty
+        public void setExpireAfterWrite(Duration expireAfterWrite) {
+            this.expireAfterWrite = expireAfterWrite;
+        }
+
+        @JsonProperty
+        public Size getOffHeapSize() {
+            return offHeapSize;
+        }
+
+        @JsonProperty
+        public void setOffHeapSize(Size offHeapSize) {
+            this.offHeapSize = offHeapSize;
+        }
+    }
+
+    @Min(0)
+    private long maximumSize = 10_000;
+
+    private Size maximumBytes;
+
+    private Duration expireAfterWrite;
+
+    @MaxSize(value = Integer.MAX_VALUE, unit = SizeUnit.BYTES)
+    private Size offHeapSize;
+
+    private boolean queryCacheEnabled = false;
+
+    @Valid
+    @NotNull
+    private Map<String, Region> regions = new HashMap<>();
+
+    @JsonProperty
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    @JsonProperty
+    public void setMaximumSize(long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    @JsonProperty
+    public Size getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    @JsonProperty
+    public void setMaximumBytes(Size maximumBytes) {
+        this.maximumBytes = maximumBytes;
+    }
+
+    @JsonProperty
+    public Duration getExpireAfterWrite() {
+        return expireAfterWrite;
+    }
+
+    @JsonProperty
+    public void setExpireAfterWrite(Duration expireAfterWrite) {
+        this.expireAfterWrite = expireAfterWrite;
+    }
+
+    @JsonProperty
+    public Size getOffHeapSize() {
+        return offHeapSize;
+    }
+
+    @JsonProperty
+    public void setOffHeapSize(Size offHeapSize) {
+        this.offHeapSize = offHeapSize;
+    }
+
+    @JsonProperty
+    public boolean isQueryCacheEnabled() {
+        return queryCacheEnabled;
+    }
+
+    @JsonProperty
+    public void setQueryCacheEnabled(boolean queryCacheEnabled) {
+        this.queryCacheEnabled = queryCacheEnabled;
+    }
+
+    @JsonProperty
+    public Map<String, Region> getRegions() {
+        return regions;
+    }
+
+    @JsonProperty
+    public void setRegions(Map<String, Region> regions) {
+        this.regions = regions;
+    }
+
+    /**
+     * @return the settings passing this configuration, and the registry for the metrics of its regions, to
+     *         the {@link LocalCacheRegionFactory} instantiated by Hibernate
+     */
+    Map<String, Object> integrationSettings(String name, MetricRegistry metrics) {
+        return ImmutableMap.of(
+                LocalCacheRegionFactory.CONFIGURATION, this,
+                LocalCacheRegionFactory.METRICS, metrics,
+                LocalCacheRegionFactory.NAME, name);
+    }
+
+    /**
+     * @return a builder for the cache of the given region, bounded according to this configuration
+     */
+    CacheBuilder<Object, Object> cacheBuilder(String regionName) {
+        final Region region = regions.get(regionName);
+        final long size = region != null && region.getMaximumSize() != null ? region.getMaximumSize() : maximumSize;
+        final Size bytes = region != null && region.getMaximumBytes() != null ?
+                region.getMaximumBytes() : maximumBytes;
+        final Duration expiry = region != null && region.getExpireAfterWrite() != null ?
+                region.getExpireAfterWrite() : expireAfterWrite;
+
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        if (bytes != null) {
+            builder = builder.maximumWeight(bytes.toBytes()).weigher(LocalCacheRegion::weigh);
+        } else {
+            builder.maximumSize(size);
+        }
+        if (expiry != null) {
+            builder.expireAfterWrite(expiry.toNanoseconds(), TimeUnit.NANOSECONDS);
+        }
+        return builder;
+    }
+
+    /**
+     * @return the off-heap store for the entries of the given region, or null if its entries are kept on
+     *         the heap
+     */
+    OffHeapStore offHeapStore(String regionName) {
+        final Region region = regions.get(regionName);
+        final Size size = region != null && region.getOffHeapSize() != null ? region.getOffHeapSize() : offHeapSize;
+        if (size == null || size.toBytes() == 0) {
+            return null;
+        }
+        return new OffHeapStore(Ints.checkedCast(size.toBytes()));
+    }
+}
@@ -0,0 +1,331 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+import javax.persistence.StoredProcedureQuery;
+import javax.persistence.TransactionRequiredException;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.metamodel.Metamodel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A shareable {@link EntityManager} that delegates all calls to the EntityManager bound to the
+ * current execution context, if any; else, a {@link javax.persistence.PersistenceException} will be thrown.
+ *
+ * <p>Each method of the EntityManager interface is implemented directly, so calls are dispatched
+ * without reflection.  Methods that require a transaction according to the JPA specification
+ * fail with a {@link TransactionRequiredException} when no transaction is active.</p>
+ * <p>Queries selecting entities are made cacheable when the unit of work asks for
+ * {@link UnitOfWork#cacheableQueries() cacheable queries}.</p>
+ */
+class SharedEntityManager implements EntityManager {
+
+    private final EntityManagerContext entityManagerContext;
+
+    SharedEntityManager(EntityManagerContext entityManagerContext) {
+        this.entityManagerContext = entityManagerContext;
+    }
+
+    @Override
+    public void persist(Object entity) {
+        transactionalEntityManager("persist").persist(entity);
+    }
+
+    @Override
+    public <T> T merge(T entity) {
+        return transactionalEntityManager("merge").merge(entity);
+    }
+
+    @Override
+    public void remove(Object entity) {
+        transactionalEntityManager("remove").remove(entity);
+    }
+
+    @Override
+    public <T> T find(Class<T> entityClass, Object primaryKey) {
+        return currentEntityManager().find(entityClass, primaryKey);
+    }
+
+    @Override
+    public <T> T find(Class<T> entityClass, Object primaryKey, Map<String, Object> properties) {
+        return currentEntityManager().find(entityClass, primaryKey, properties);
+    }
+
+    @Override
+    public <T> T find(Class<T> entityClass, Object primaryKey, LockModeType lockMode) {
+        return currentEntityManager().find(entityClass, primaryKey, lockMode);
+    }
+
+    @Override
+    public <T> T find(Class<T> entityClass, Object primaryKey, LockModeType lockMode, Map<String, Object> properties) {
+        return currentEntityManager().find(entityClass, primaryKey, lockMode, properties);
+    }
+
+    @Override
+    public <T> T getReference(Class<T> entityClass, Object primaryKey) {
+        return currentEntityManager().getReference(entityClass, primaryKey);
+    }
+
+    @Override
+    public void flush() {
+        transactionalEntityManager("flush").flush();
+    }
+
+    @Override
+    public void setFlushMode(FlushModeType flushMode) {
+        currentEntityManager().setFlushMode(flushMode);
+    }
+
+    @Override
+    public FlushModeType getFlushMode() {
+        return currentEntityManager().getFlushMode();
+    }
+
+    @Override
+    public void lock(Object entity, LockModeType lockMode) {
+        currentEntityManager().lock(entity, lockMode);
+    }
+
+    @Override
+    public void lock(Object entity, LockModeType lockMode, Map<String, Object> properties) {
+        currentEntityManager().lock(entity, lockMode, properties);
+    }
+
+    @Override
+    public void refresh(Object entity) {
+        transactionalEntityManager("refresh").refresh(entity);
+    }
+
+    @Override
+    public void refresh(Object entity, Map<String, Object> properties) {
+        transactionalEntityManager("refresh").refresh(entity, properties);
+    }
+
+    @Override
+    public void refresh(Object entity, LockModeType lockMode) {
+        transactionalEntityManager("refresh").refresh(entity, lockMode);
+    }
+
+    @Override
+    public void refresh(Object entity, LockModeType lockMode, Map<String, Object> properties) {
+        transactionalEntityManager("refresh").refresh(entity, lockMode, properties);
+    }
+
+    @Override
+    public void clear() {
+        currentEntityManager().clear();
+    }
+
+    @Override
+    public void detach(Object entity) {
+        currentEntityManager().detach(entity);
+    }
+
+    @Override
+    public boolean contains(Object entity) {
+        return currentEntityManager().contains(entity);
+    }
+
+    @Override
+    public LockModeType getLockMode(Object entity) {
+        return currentEntityManager().getLockMode(entity);
+    }
+
+    @Override
+    public void setProperty(String propertyName, Object value) {
+        currentEntityManager().setProperty(propertyName, value);
+    }
+
+    @Override
+    public Map<String, Object> getProperties() {
+        return currentEntityManager().getProperties();
+    }
+
+    @Override
+    public Query createQuery(String qlString) {
+        final EntityManager target = currentEntityManager();
+        return CacheableQueries.apply(target, target.createQuery(qlString));
+    }
+
+    @Override
+    public <T> TypedQuery<T> createQuery(CriteriaQuery<T> criteriaQuery) {
+        final EntityManager target = currentEntityManager();
+        return CacheableQueries.apply(target, target.createQuery(criteriaQuery));
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Query createQuery(CriteriaUpdate updateQuery) {
+        return currentEntityManager().createQuery(updateQuery);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Query createQuery(CriteriaDelete deleteQuery) {
+        return currentEntityManager().createQuery(deleteQuery);
+    }
+
+    @Override
+    public <T> TypedQuery<T> createQuery(String qlString, Class<T> resultClass) {
+        final EntityManager target = currentEntityManager();
+        return CacheableQueries.apply(target, target.createQuery(qlString, resultClass));
+    }
+
+    @Override
+    public Query createNamedQuery(String name) {
+        final EntityManager target = currentEntityManager();
+        return CacheableQueries.apply(target, target.createNamedQuery(name));
+    }
+
+    @Override
+    public <T> TypedQuery<T> createNamedQuery(String name, Class<T> resultClass) {
+        final EntityManager target = currentEntityManager();
+        return CacheableQueries.apply(target, target.createNamedQuery(name, resultClass));
+    }
+
+    @Override
+    public Query createNativeQuery(String sqlString) {
+        return currentEntityManager().createNativeQuery(sqlString);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Query createNativeQuery(String sqlString, Class resultClass) {
+        return currentEntityManager().createNativeQuery(sqlString, resultClass);
+    }
+
+    @Override
+    public Query createNativeQuery(String sqlString, String resultSetMapping) {
+        return currentEntityManager().createNativeQuery(sqlString, resultSetMapping);
+    }
+
+    @Override
+    public StoredProcedureQuery createNamedStoredProcedureQuery(String name) {
+        return currentEntityManager().createNamedStoredProcedureQuery(name);
+    }
+
+    @Override
+    public StoredProcedureQuery createStoredProcedureQuery(String procedureName) {
+        return currentEntityManager().createStoredProcedureQuery(procedureName);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public StoredProcedureQuery createStoredProcedureQuery(String procedureName, Class... resultClasses) {
+        return currentEntityManager().createStoredProcedureQuery(procedureName, resultClasses);
+    }
+
+    @Override
+    public StoredProcedureQuery createStoredProcedureQuery(String procedureName, String... resultSetMappings) {
+        return currentEntityManager().createStoredProcedureQuery(procedureName, resultSetMappings);
+    }
+
+    @Override
+    public void joinTransaction() {
+        transactionalEntityManager("joinTransaction").joinTransaction();
+    }
+
+    @Override
+    public boolean isJoinedToTransaction() {
+        return currentEntityManager().isJoinedToTransaction();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> cls) {
+        // JPA 2.0: handle unwrap method - could be a shared EntityManager match.
+        if (cls == null) {
+            @SuppressWarnings("unchecked")
+            T current = (T) currentEntityManager();
+            return current;
+        } else if (cls.isInstance(this)) {
+            return cls.cast(this);
+        }
+        return currentEntityManager().unwrap(cls);
+    }
+
+    @Override
+    public Object getDelegate() {
+        return currentEntityManager().getDelegate();
+    }
+
+    @Override
+    public void close() {
+        // Suppress, closing the shared EntityManager is not valid.
+    }
+
+    @Override
+    public boolean isOpen() {
+        // The shared EntityManager is always open.
+        return true;
+    }
+
+    @Override
+    public EntityTransaction getTransaction() {
+        throw new IllegalStateException(
+                "Not allowed to create transaction on shared EntityManager - use @UnitOfWork instead");
+    }
+
+    @Override
+    public EntityManagerFactory getEntityManagerFactory() {
+        return currentEntityManager().getEntityManagerFactory();
+    }
+
+    @Override
+    public CriteriaBuilder getCriteriaBuilder() {
+        return currentEntityManager().getCriteriaBuilder();
+    }
+
+    @Override
+    public Metamodel getMetamodel() {
+        return currentEntityManager().getMetamodel();
+    }
+
+    @Override
+    public <T> EntityGraph<T> createEntityGraph(Class<T> rootType) {
+        return currentEntityManager().createEntityGraph(rootType);
+    }
+
+    @Override
+    public EntityGraph<?> createEntityGraph(String graphName) {
+        return currentEntityManager().createEntityGraph(graphName);
+    }
+
+    @Override
+    public EntityGraph<?> getEntityGraph(String graphName) {
+        return currentEntityManager().getEntityGraph(graphName);
+    }
+
+    @Override
+    public <T> List<EntityGraph<? super T>> getEntityGraphs(Class<T> entityClass) {
+        return currentEntityManager().getEntityGraphs(entityClass);
+    }
+
+    private EntityManager currentEntityManager() {
+        // Retrieve the EntityManager bound to the current execution context;
+        // A PersistenceException is thrown if no EntityManager is bound
+        return entityManagerContext.currentEntityManager();
+    }
+
+    private EntityManager transactionalEntityManager(String methodName) {
+        final EntityManager target = currentEntityManager();
+
+        // We need a transactional target now, according to the JPA spec.
+        // Otherwise, the operation would get accepted but remain un-flushed...
+        final EntityTransaction transaction = target.getTransaction();
+        if (transaction == null || !transaction.isActive()) {
+            throw new TransactionRequiredException("No EntityManager with actual transaction available " +
+                    "for current thread - cannot reliably process '" + methodName + "' call");
+        }
+        return target;
+    }
+}
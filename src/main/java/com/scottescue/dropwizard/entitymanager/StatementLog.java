@@ -0,0 +1,180 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.google.common.hash.Hashing;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The SQL statements executed by a unit of work against an EntityManager bundle, grouped by their shape:
+ * the statement with its comments removed, its literals and IN lists replaced by a single placeholder, and
+ * its whitespace collapsed.  Statements fetching the same association of different entities, as lazy
+ * loading does, therefore share a shape.
+ * <p>The statements are recorded by the {@link Inspector} of the bundle's EntityManagerFactory into the log
+ * bound to the current thread.  Each shape keeps a sample of what executed it: the comment Hibernate puts
+ * in front of the statement when SQL comments are enabled, e.g. {@code load one-to-many Person.dogs}, or
+ * else the table the statement selects from.</p>
+ */
+final class StatementLog {
+    // Only threads running a unit of work have a map, so inspecting other threads' statements allocates nothing
+    private static final ThreadLocal<Map<String, StatementLog>> LOGS = new ThreadLocal<>();
+
+    private static final Pattern LEADING_COMMENT = Pattern.compile("^\\s*/\\*(.*?)\\*/", Pattern.DOTALL);
+    private static final Pattern COMMENT = Pattern.compile("/\\*.*?\\*/|--[^\\n]*", Pattern.DOTALL);
+    private static final Pattern LITERAL = Pattern.compile("'(?:[^']|'')*'|\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TABLE = Pattern.compile("\\b(?:from|into|update)\\s+([\\w.\"]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The statements of a shape.
+     */
+    static final class Shape {
+        private final String sample;
+        private int count;
+
+        private Shape(String sample) {
+            this.sample = sample;
+        }
+
+        /**
+         * @return how many times a statement of the shape was executed
+         */
+        int getCount() {
+            return count;
+        }
+
+        /**
+         * @return what executed the first statement of the shape, or null if unknown
+         */
+        String getSample() {
+            return sample;
+        }
+    }
+
+    private final String name;
+    private final Map<String, Shape> shapes = new LinkedHashMap<>();
+    private int count;
+    private StatementLog previous;
+
+    /**
+     * @param name the name of the EntityManager bundle the statements are executed against
+     */
+    StatementLog(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records the statements executed against the bundle on the current thread into this log, until
+     * it is unbound.
+     */
+    void bind() {
+        Map<String, StatementLog> logs = LOGS.get();
+        if (logs == null) {
+            logs = new HashMap<>();
+            LOGS.set(logs);
+        }
+        previous = logs.put(name, this);
+    }
+
+    /**
+     * Stops recording the statements executed on the current thread into this log.
+     */
+    void unbind() {
+        final Map<String, StatementLog> logs = LOGS.get();
+        if (logs != null && logs.get(name) == this) {
+            if (previous == null) {
+                logs.remove(name);
+            } else {
+                logs.put(name, previous);
+            }
+            if (logs.isEmpty()) {
+                LOGS.remove();
+            }
+        }
+        previous = null;
+    }
+
+    /**
+     * @return whether any log is bound to the current thread
+     */
+    static boolean isBound() {
+        return LOGS.get() != null;
+    }
+
+    void record(String sql) {
+        count++;
+        shapes.computeIfAbsent(shape(sql), shape -> new Shape(sample(sql))).count++;
+    }
+
+    /**
+     * @return how many statements were recorded
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the recorded statements by shape, in the order they were first executed
+     */
+    Map<String, Shape> getShapes() {
+        return shapes;
+    }
+
+    static String shape(String sql) {
+        String shape = COMMENT.matcher(sql).replaceAll(" ");
+        shape = LITERAL.matcher(shape).replaceAll("?");
+        shape = IN_LIST.matcher(shape).replaceAll("(?)");
+        return WHITESPACE.matcher(shape).replaceAll(" ").trim();
+    }
+
+    /**
+     * @return a short key of the given shape, stable across runs, naming the metrics of its statements, as
+     * metric reporters don't accept whole statements as names
+     */
+    static String key(String shape) {
+        return Hashing.murmur3_128().hashString(shape, StandardCharsets.UTF_8).toString().substring(0, 12);
+    }
+
+    static String sample(String sql) {
+        final Matcher comment = LEADING_COMMENT.matcher(sql);
+        if (comment.find() && !comment.group(1).trim().isEmpty()) {
+            return WHITESPACE.matcher(comment.group(1)).replaceAll(" ").trim();
+        }
+        final Matcher table = TABLE.matcher(sql);
+        return table.find() ? table.group(1) : null;
+    }
+
+    /**
+     * The statement inspector of an EntityManager bundle's EntityManagerFactory, recording each statement
+     * into the log of the current thread's unit of work, if any.  Statements are never altered.
+     */
+    static final class Inspector implements StatementInspector {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        /**
+         * @param name the name of the EntityManager bundle
+         */
+        Inspector(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String inspect(String sql) {
+            final Map<String, StatementLog> logs = LOGS.get();
+            final StatementLog log = logs == null ? null : logs.get(name);
+            if (log != null) {
+                log.record(sql);
+            }
+            return sql;
+        }
+    }
+}
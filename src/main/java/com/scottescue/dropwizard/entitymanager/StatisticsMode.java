@@ -0,0 +1,27 @@
+package com.scottescue.dropwizard.entitymanager;
+
+/**
+ * How the statistics of an {@link EntityManagerBundle}'s EntityManagerFactory are collected.
+ *
+ * @see EntityManagerBundle#setStatisticsMode(StatisticsMode)
+ */
+public enum StatisticsMode {
+    /**
+     * No statistics are collected, and no statistics metrics are reported.
+     */
+    OFF,
+
+    /**
+     * Every event is counted, in counters that don't contend under load, but query execution times are only
+     * recorded for a sample of the units of work, and Hibernate's breakdown of the statistics by entity,
+     * collection, query and region is not kept.
+     *
+     * @see EntityManagerBundle#setStatisticsSampleInterval(int)
+     */
+    SAMPLED,
+
+    /**
+     * Every event is counted, and every query execution time is recorded, by Hibernate's own statistics.
+     */
+    FULL
+}
@@ -1,10 +1,6 @@
 package com.scottescue.dropwizard.entitymanager;
 
 import com.google.common.annotations.VisibleForTesting;
-import javassist.ByteArrayClassPath;
-import javassist.ClassPool;
-import javassist.CtClass;
-import javassist.NotFoundException;
 import org.hibernate.engine.jdbc.StreamUtils;
 
 import java.io.ByteArrayOutputStream;
@@ -13,13 +9,13 @@ import java.io.InputStream;
 
 /**
  * ClassLoader implementation that allows classes to be temporarily loaded and then thrown away.
+ * <p>Class files are inspected with {@link ClassFileHeader}, so the cost of loading a class doesn't depend
+ * on how many classes were loaded before it.</p>
  */
 class TemporaryClassLoader extends ClassLoader {
     private static final String[] PROTECTED_PACKAGES =
             new String[] {"java", "javax", "jdk", "sun", "oracle", "ibm", "IBM"};
 
-    private ClassPool classPool = new ClassPool();
-
     TemporaryClassLoader(ClassLoader parent) {
         super(parent);
     }
@@ -44,19 +40,17 @@ class TemporaryClassLoader extends ClassLoader {
         }
 
         String resourceName = name.replace('.', '/') + ".class";
-        CtClass ctClass = null;
         try (InputStream resource = getResourceAsStream(resourceName)){
             if (resource == null) {
                 throw new ClassNotFoundException(name);
             }
 
             byte[] classBytes = readBytes(resource);
-            classPool.insertClassPath(new ByteArrayClassPath(name, classBytes));
-            ctClass = classPool.get(name);
+            ClassFileHeader header = ClassFileHeader.parse(classBytes);
 
             // Annotations and enums should be loaded by the parent classloader,
             // to avoid potential classloader issues with the JVM
-            if (ctClass.isAnnotation() || ctClass.isEnum()) {
+            if (header.isAnnotation() || header.isEnum()) {
                 return super.loadClass(name, resolve);
             }
 
@@ -65,13 +59,9 @@ class TemporaryClassLoader extends ClassLoader {
                 resolve(type);
             }
             return type;
-        } catch (IOException | NotFoundException | SecurityException e ) {
+        } catch (IOException | IllegalArgumentException | SecurityException e ) {
             // Defer to the parent
             return super.loadClass(name, resolve);
-        } finally {
-            if (ctClass != null) {
-                ctClass.detach();
-            }
         }
     }
 
@@ -49,6 +49,22 @@ public @interface UnitOfWork {
      */
     FlushMode flushMode() default FlushMode.AUTO;
 
+    /**
+     * If {@code true}, the Hibernate EntityManager will not be opened, and the transaction will not be started,
+     * until the shared EntityManager is first used within the unit of work.  Methods that never touch the
+     * database will then not borrow a connection from the pool.
+     */
+    boolean lazy() default false;
+
+    /**
+     * If {@code true}, the queries created through the shared EntityManager will be cacheable by default,
+     * so their results are read from and put in the query cache of the EntityManager bundle.  The query
+     * cache must be enabled in the bundle's {@link SecondLevelCacheFactory}.
+     *
+     * @see org.hibernate.jpa.QueryHints#HINT_CACHEABLE
+     */
+    boolean cacheableQueries() default false;
+
     /**
      * The name of an EntityManager bundle (EntityManagerFactory) that specifies
      * a datasource against which a transaction will be opened.
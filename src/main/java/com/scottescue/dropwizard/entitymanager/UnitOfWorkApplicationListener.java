@@ -1,5 +1,7 @@
 package com.scottescue.dropwizard.entitymanager;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
 import org.glassfish.jersey.server.internal.process.MappableException;
 import org.glassfish.jersey.server.model.Resource;
 import org.glassfish.jersey.server.model.ResourceMethod;
@@ -18,21 +20,51 @@ import java.util.Map;
 
 /**
  * An application event listener that listens for Jersey application initialization to
- * be finished, then creates a map of resource methods that have UnitOfWork annotations.
+ * be finished, then compiles each resource method that has a UnitOfWork annotation into
+ * a {@link UnitOfWorkPlan}.  A UnitOfWork naming an unregistered EntityManager bundle
+ * fails the application initialization.
  *
  * Finally, it returns a {@link RequestEventListener} that listens for method events,
  * The RequestEventListener ensures an EntityManager is made available to the execution
  * context at method start, and ensures the EntityManager is removed at method completion.
  * The RequestEventListener creates and manages a transaction if required by the UnitOfWork
- * annotation.
+ * annotation.  No RequestEventListener is returned if the application has no UnitOfWork
+ * annotated resource methods.
+ *
+ * For asynchronous resource methods the EntityManager is detached from the request thread
+ * when the method returns, then bound to the thread that resumes the response.  The
+ * transaction is committed when the response is resumed, and the EntityManager is closed
+ * once the response has been written.  In between, the EntityManager is not bound to any
+ * thread by the listener: a continuation that uses it on an application thread before
+ * resuming the response must be submitted, while the resource method is running, to an
+ * executor wrapped by {@link UnitOfWorkAwareExecutors} with
+ * {@link UnitOfWorkAwareExecutors.Propagation#SHARED} propagation.  The request thread must
+ * not use the EntityManager once the continuation is submitted.
+ *
+ * When constructed with a {@link MetricRegistry}, the units of work of each resource method
+ * are recorded by its {@link UnitOfWorkMetrics}, which also count the statements of each unit
+ * of work against a bundle that detects repeated statements.
  */
 @Provider
 class UnitOfWorkApplicationListener implements ApplicationEventListener {
 
-    final private Map<Method, UnitOfWork> methodMap = new HashMap<>();
     final private Map<String, EntityManagerFactory> entityManagerFactories = new HashMap<>();
+    final private Map<String, Integer> repeatedStatementThresholds = new HashMap<>();
+    final private MetricRegistry metrics;
+    private volatile Map<Method, UnitOfWorkPlan> plans = ImmutableMap.of();
 
     UnitOfWorkApplicationListener() {
+        this.metrics = null;
+    }
+
+    /**
+     * Construct an application event listener recording the units of work of each resource method in the
+     * given registry.
+     *
+     * @param metrics the registry of the {@link UnitOfWorkMetrics}
+     */
+    UnitOfWorkApplicationListener(MetricRegistry metrics) {
+        this.metrics = metrics;
     }
 
     /**
@@ -46,6 +78,7 @@ class UnitOfWorkApplicationListener implements ApplicationEventListener {
      * @param entityManagerFactory a {@link EntityManagerFactory}
      */
     UnitOfWorkApplicationListener(String name, EntityManagerFactory entityManagerFactory) {
+        this();
         registerEntityManagerFactory(name, entityManagerFactory);
     }
 
@@ -59,33 +92,69 @@ class UnitOfWorkApplicationListener implements ApplicationEventListener {
         entityManagerFactories.put(name, entityManagerFactory);
     }
 
+    /**
+     * Counts the statements of each unit of work against the named EntityManager bundle, reporting the
+     * statement shapes executed more times than the given threshold.  The bundle's EntityManagerFactory must
+     * record its statements with a {@link StatementLog.Inspector}.
+     *
+     * @param name a name of an EntityManager bundle
+     * @param threshold how many times a statement shape may be executed by a unit of work
+     */
+    public void registerRepeatedStatementThreshold(String name, int threshold) {
+        repeatedStatementThresholds.put(name, threshold);
+    }
+
     private static class UnitOfWorkEventListener implements RequestEventListener {
-        private final Map<Method, UnitOfWork> methodMap;
-        private final UnitOfWorkAspect unitOfWorkAspect;
+        private final Map<Method, UnitOfWorkPlan> plans;
+        // The events of an asynchronous request are delivered on different threads
+        private volatile UnitOfWorkAspect unitOfWorkAspect;
+        private volatile boolean async;
 
-        public UnitOfWorkEventListener(Map<Method, UnitOfWork> methodMap,
-                                       Map<String, EntityManagerFactory> entityManagerFactories) {
-            this.methodMap = methodMap;
-            this.unitOfWorkAspect = new UnitOfWorkAspect(entityManagerFactories);
+        public UnitOfWorkEventListener(Map<Method, UnitOfWorkPlan> plans) {
+            this.plans = plans;
         }
 
         @Override
         public void onEvent(RequestEvent event) {
             final RequestEvent.Type eventType = event.getType();
             if (eventType == RequestEvent.Type.RESOURCE_METHOD_START) {
-                UnitOfWork unitOfWork = methodMap.get(event.getUriInfo()
-                        .getMatchedResourceMethod().getInvocable().getDefinitionMethod());
-                unitOfWorkAspect.beforeStart(unitOfWork);
+                final ResourceMethod method = event.getUriInfo().getMatchedResourceMethod();
+                UnitOfWorkPlan plan = plans.get(method.getInvocable().getDefinitionMethod());
+                if (plan != null) {
+                    async = method.isSuspendDeclared() || method.isManagedAsyncDeclared();
+                    unitOfWorkAspect = new UnitOfWorkAspect();
+                    unitOfWorkAspect.beforeStart(plan);
+                }
+            } else if (eventType == RequestEvent.Type.RESOURCE_METHOD_FINISHED) {
+                if (async) {
+                    // The response is completed by whichever thread resumes it, so the
+                    // EntityManager must not stay bound to the thread that invoked the method
+                    unitOfWorkAspect.detach();
+                }
             } else if (eventType == RequestEvent.Type.RESP_FILTERS_START) {
-                try {
-                    unitOfWorkAspect.afterEnd();
-                } catch (Exception e) {
-                    throw new MappableException(e);
+                if (unitOfWorkAspect != null) {
+                    if (async) {
+                        unitOfWorkAspect.attach();
+                    }
+                    try {
+                        unitOfWorkAspect.afterEnd();
+                    } catch (Exception e) {
+                        throw new MappableException(e);
+                    }
                 }
             } else if (eventType == RequestEvent.Type.ON_EXCEPTION) {
-                unitOfWorkAspect.onError();
+                if (unitOfWorkAspect != null) {
+                    unitOfWorkAspect.onError();
+                }
             } else if (eventType == RequestEvent.Type.FINISHED) {
-                EntityManagerContext.unBindAll(EntityManager::close);
+                if (unitOfWorkAspect != null) {
+                    unitOfWorkAspect.onFinish();
+                }
+                // An asynchronous response may finish on an application thread, whose
+                // EntityManagers are not ours to close
+                if (!async) {
+                    EntityManagerContext.unBindAll(EntityManager::close);
+                }
             }
         }
     }
@@ -93,22 +162,31 @@ class UnitOfWorkApplicationListener implements ApplicationEventListener {
     @Override
     public void onEvent(ApplicationEvent event) {
         if (event.getType() == ApplicationEvent.Type.INITIALIZATION_APP_FINISHED) {
+            final Map<Method, UnitOfWorkPlan> compiledPlans = new HashMap<>();
             for (Resource resource : event.getResourceModel().getResources()) {
-                resource.getAllMethods().forEach(this::registerUnitOfWorkAnnotations);
+                for (ResourceMethod method : resource.getAllMethods()) {
+                    compileUnitOfWorkAnnotation(method, compiledPlans);
+                }
 
                 for (Resource childResource : resource.getChildResources()) {
-                    childResource.getAllMethods().forEach(this::registerUnitOfWorkAnnotations);
+                    for (ResourceMethod method : childResource.getAllMethods()) {
+                        compileUnitOfWorkAnnotation(method, compiledPlans);
+                    }
                 }
             }
+            this.plans = ImmutableMap.copyOf(compiledPlans);
         }
     }
 
     @Override
     public RequestEventListener onRequest(RequestEvent event) {
-        return new UnitOfWorkEventListener(methodMap, entityManagerFactories);
+        if (plans.isEmpty()) {
+            return null;
+        }
+        return new UnitOfWorkEventListener(plans);
     }
 
-    private void registerUnitOfWorkAnnotations(ResourceMethod method) {
+    private void compileUnitOfWorkAnnotation(ResourceMethod method, Map<Method, UnitOfWorkPlan> compiledPlans) {
         UnitOfWork annotation = method.getInvocable().getDefinitionMethod().getAnnotation(UnitOfWork.class);
 
         if (annotation == null) {
@@ -116,7 +194,14 @@ class UnitOfWorkApplicationListener implements ApplicationEventListener {
         }
 
         if (annotation != null) {
-            this.methodMap.put(method.getInvocable().getDefinitionMethod(), annotation);
+            final Method definitionMethod = method.getInvocable().getDefinitionMethod();
+            UnitOfWorkPlan plan = UnitOfWorkPlan.compile(annotation, entityManagerFactories);
+            if (metrics != null) {
+                final String name = UnitOfWorkPlan.resolveName(annotation.value(), entityManagerFactories);
+                plan = plan.withMetrics(UnitOfWorkMetrics.register(metrics, definitionMethod, name,
+                        repeatedStatementThresholds.getOrDefault(name, 0)));
+            }
+            compiledPlans.put(definitionMethod, plan);
         }
 
     }
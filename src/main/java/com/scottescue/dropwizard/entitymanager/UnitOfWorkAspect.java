@@ -1,58 +1,56 @@
 package com.scottescue.dropwizard.entitymanager;
 
+import com.codahale.metrics.Timer;
 import org.hibernate.jpa.HibernateEntityManager;
 
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
-import java.util.Map;
+import javax.persistence.RollbackException;
 
 /**
  * An aspect providing operations around a method with the {@link UnitOfWork} annotation.
  * It makes an EntityManager available and optionally creates a transaction.
+ * <p>If the unit of work is lazy, the EntityManager is opened and the transaction is started
+ * on the first use of the shared EntityManager instead of before the method is invoked.</p>
+ * <p>The aspect keeps hold of the EntityManager it opens, so the unit of work may be detached
+ * from the thread that started it and completed on another thread, as is the case for
+ * asynchronous resource methods.  Its state is volatile, since the thread completing the unit of
+ * work may race the thread detaching it.</p>
+ * <p>If the plan has {@link UnitOfWorkMetrics}, the lifetime of the EntityManager, the transaction and
+ * its commit are timed, and rollbacks are metered.  If the metrics count statements, the statements executed
+ * while the EntityManager is open, including by lazy loading during serialization, are logged and reported
+ * when the unit of work finishes.</p>
  * <p>An aspect should be created for every invocation of the method.</p>
  */
 class UnitOfWorkAspect {
 
-    final private Map<String, EntityManagerFactory> entityManagerFactories;
-
-    UnitOfWorkAspect(Map<String, EntityManagerFactory> entityManagerFactories) {
-        this.entityManagerFactories = entityManagerFactories;
-    }
-
     // Context variables
-    private UnitOfWork unitOfWork;
-    private EntityManager entityManager;
-
-    public void beforeStart(UnitOfWork unitOfWork) {
-        if (unitOfWork == null) {
+    private volatile UnitOfWorkPlan plan;
+    private volatile EntityManager entityManager;
+    private volatile boolean rolledBack;
+    private volatile Timer.Context entityManagerTimer;
+    private volatile Timer.Context transactionTimer;
+    private volatile StatementLog statementLog;
+    // Kept once the unit of work is finished, so a thread detaching it afterwards still unbinds them
+    private volatile EntityManager openedEntityManager;
+    private volatile StatementLog openedStatementLog;
+
+    public void beforeStart(UnitOfWorkPlan plan) {
+        if (plan == null) {
             return;
         }
-        this.unitOfWork = unitOfWork;
+        this.plan = plan;
 
-        EntityManagerFactory entityManagerFactory = entityManagerFactories.get(unitOfWork.value());
-        if (entityManagerFactory == null) {
-            // If the user didn't specify the name of a entityManager factory,
-            // and we have only one registered, we can assume that it's the right one.
-            if (unitOfWork.value().equals(EntityManagerBundle.DEFAULT_NAME) && entityManagerFactories.size() == 1) {
-                entityManagerFactory = entityManagerFactories.values().iterator().next();
-            } else {
-                throw new IllegalArgumentException("Unregistered EntityManager bundle: '" + unitOfWork.value() + "'");
-            }
-        }
-        entityManager = entityManagerFactory.createEntityManager();
-        try {
-            configureSession();
-            EntityManagerContext.bind(entityManager);
-            beginTransaction();
-        } catch (Throwable th) {
-            entityManager = null;
-            throw th;
+        if (plan.isLazy()) {
+            EntityManagerContext.bindInitializer(plan.getEntityManagerFactory(), this::openEntityManager);
+        } else {
+            openEntityManager();
         }
     }
 
     public void afterEnd() {
-        if (entityManager == null) {
+        discardInitializer();
+        if (entityManager == null || rolledBack) {
             return;
         }
 
@@ -67,6 +65,7 @@ class UnitOfWorkAspect {
     }
 
     public void onError() {
+        discardInitializer();
         if (entityManager == null) {
             return;
         }
@@ -74,38 +73,172 @@ class UnitOfWorkAspect {
         try {
             rollbackTransaction();
         } finally {
+            rolledBack = true;
+        }
+    }
+
+    /**
+     * Closes the EntityManager, if one was opened, and unbinds it from the current thread.
+     */
+    public void onFinish() {
+        discardInitializer();
+        if (entityManager == null) {
+            return;
+        }
+
+        try {
+            CacheableQueries.disable(entityManager);
+            entityManager.close();
+        } finally {
+            EntityManagerContext.unbind(plan.getEntityManagerFactory(), entityManager);
+            entityManager = null;
+            entityManagerTimer = stop(entityManagerTimer);
+            reportStatements();
+        }
+    }
+
+    /**
+     * Binds the EntityManager, if one was opened, to the current thread.
+     */
+    public void attach() {
+        if (entityManager != null) {
+            EntityManagerContext.bind(plan.getEntityManagerFactory(), entityManager);
+            if (statementLog != null) {
+                statementLog.bind();
+            }
+        }
+    }
+
+    /**
+     * Unbinds the EntityManager from the current thread, leaving it open and its transaction
+     * active, so the unit of work can be completed on another thread.
+     */
+    public void detach() {
+        discardInitializer();
+        // The unit of work may already have been completed by the thread resuming it
+        final EntityManager opened = openedEntityManager;
+        if (opened != null) {
+            EntityManagerContext.unbind(plan.getEntityManagerFactory(), opened);
+            final StatementLog log = openedStatementLog;
+            if (log != null) {
+                log.unbind();
+            }
+        }
+    }
+
+    private EntityManager openEntityManager() {
+        entityManager = plan.getEntityManagerFactory().createEntityManager();
+        openedEntityManager = entityManager;
+        if (plan.getMetrics() != null) {
+            entityManagerTimer = plan.getMetrics().getEntityManager().time();
+            statementLog = plan.getMetrics().newStatementLog();
+            openedStatementLog = statementLog;
+            if (statementLog != null) {
+                statementLog.bind();
+            }
+        }
+        try {
+            configureSession();
+            EntityManagerContext.bind(plan.getEntityManagerFactory(), entityManager);
+            beginTransaction();
+        } catch (Throwable th) {
             entityManager = null;
+            entityManagerTimer = null;
+            transactionTimer = null;
+            if (statementLog != null) {
+                statementLog.unbind();
+                statementLog = null;
+            }
+            throw th;
+        }
+        return entityManager;
+    }
+
+    private void discardInitializer() {
+        // A lazy EntityManager must not be opened once the unit of work has ended
+        if (plan != null && plan.isLazy()) {
+            EntityManagerContext.unbindInitializer(plan.getEntityManagerFactory());
         }
     }
 
     private void configureSession() {
         HibernateEntityManager em = (HibernateEntityManager) this.entityManager;
-        em.getSession().setDefaultReadOnly(this.unitOfWork.readOnly());
-        em.getSession().setCacheMode(this.unitOfWork.cacheMode());
-        em.getSession().setFlushMode(this.unitOfWork.flushMode());
+        em.getSession().setDefaultReadOnly(this.plan.isReadOnly());
+        em.getSession().setCacheMode(this.plan.getCacheMode());
+        em.getSession().setFlushMode(this.plan.getFlushMode());
+        if (this.plan.isCacheableQueries()) {
+            CacheableQueries.enable(em);
+        }
     }
 
     private void beginTransaction() {
-        if (this.unitOfWork.transactional()) {
+        if (this.plan.isTransactional()) {
             this.entityManager.getTransaction().begin();
+            if (plan.getMetrics() != null) {
+                transactionTimer = plan.getMetrics().getTransaction().time();
+            }
         }
     }
 
     private void rollbackTransaction() {
-        if (this.unitOfWork.transactional()) {
+        if (this.plan.isTransactional()) {
             final EntityTransaction txn = this.entityManager.getTransaction();
             if (txn != null && txn.isActive()) {
-                txn.rollback();
+                try {
+                    txn.rollback();
+                } finally {
+                    markRollback();
+                }
             }
         }
     }
 
     private void commitTransaction() {
-        if (this.unitOfWork.transactional()) {
+        if (this.plan.isTransactional()) {
             final EntityTransaction txn = this.entityManager.getTransaction();
             if (txn != null && txn.isActive()) {
-                txn.commit();
+                final Timer.Context commitTimer = plan.getMetrics() != null ?
+                        plan.getMetrics().getCommit().time() : null;
+                try {
+                    txn.commit();
+                } catch (RollbackException e) {
+                    // An active transaction is rolled back by afterEnd
+                    if (!txn.isActive()) {
+                        markRollback();
+                    }
+                    throw e;
+                } finally {
+                    stop(commitTimer);
+                    transactionTimer = stop(transactionTimer);
+                }
             }
         }
     }
+
+    private void reportStatements() {
+        if (statementLog != null) {
+            statementLog.unbind();
+            plan.getMetrics().report(statementLog);
+            statementLog = null;
+        }
+    }
+
+    private void markRollback() {
+        transactionTimer = stop(transactionTimer);
+        if (plan.getMetrics() != null) {
+            plan.getMetrics().getRollbacks().mark();
+        }
+    }
+
+    /**
+     * Stops the given timer, if it was started.
+     *
+     * @return null, so the stopped timer can be cleared
+     */
+    private static Timer.Context stop(Timer.Context timer) {
+        if (timer != null) {
+            timer.stop();
+        }
+        return null;
+    }
 }
@@ -0,0 +1,407 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Ordering;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Collection;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Factory and utility methods for running tasks on other threads with access to the EntityManagers
+ * of the current unit of work.
+ * <p>The EntityManagers bound to the submitting thread are captured when a task is submitted, and the
+ * task is run according to a {@link Propagation}:</p>
+ * <ul>
+ *     <li>{@link Propagation#SHARED} binds the captured EntityManagers to the thread running the task.
+ *     Since an EntityManager is not thread-safe, each task holds the EntityManagers it shares for its whole
+ *     run, so tasks sharing an EntityManager are run one at a time: fanning work out over them doesn't run
+ *     it in parallel.  Access is not reentrant either: a task can't submit another task sharing its
+ *     EntityManagers, as it would wait forever for a task waiting for it.  The submitting thread should wait
+ *     for its tasks to complete before using the shared EntityManager again.</li>
+ *     <li>{@link Propagation#NEW} opens a new EntityManager, with its own transaction, for each
+ *     EntityManagerFactory in use by the submitting thread.  The transaction is committed if the task
+ *     completes normally and rolled back if the task throws an exception.  The EntityManager is closed
+ *     once the task completes.  Tasks that should run in parallel, like independent reads, need this
+ *     propagation.  The new units of work don't inherit the settings of the submitting one: they have the
+ *     {@link UnitOfWorkSettings} given when wrapping the executor or submitting the task, or else the
+ *     {@link UnitOfWorkSettings#defaults() defaults}, which are neither read-only nor lazy.  Tasks forked from a
+ *     read-only unit of work should be given settings {@link UnitOfWorkSettings#withReadOnly(boolean) with
+ *     read-only} set too.</li>
+ * </ul>
+ * <p>Whatever the propagation, the EntityManagers bound to the thread running the task are restored
+ * once the task completes.</p>
+ */
+public final class UnitOfWorkAwareExecutors {
+
+    /**
+     * Determines how the EntityManagers of the submitting thread are made available to a task.
+     */
+    public enum Propagation {
+        /**
+         * The task uses the EntityManagers bound to the submitting thread, one task at a time.
+         */
+        SHARED,
+
+        /**
+         * The task uses new EntityManagers, each with its own transaction, in parallel with other tasks.
+         */
+        NEW
+    }
+
+    private static final LoadingCache<EntityManager, ReentrantLock> ENTITY_MANAGER_LOCKS = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(CacheLoader.from(entityManager -> new ReentrantLock()));
+
+    private UnitOfWorkAwareExecutors() {
+    }
+
+    /**
+     * Returns an {@link Executor} that propagates the current unit of work to the tasks it executes.
+     *
+     * @param executor the executor that runs the tasks
+     * @param propagation how EntityManagers are made available to the tasks
+     * @return the unit of work aware executor
+     */
+    public static Executor wrap(Executor executor, Propagation propagation) {
+        return wrap(executor, propagation, UnitOfWorkSettings.defaults());
+    }
+
+    /**
+     * Returns an {@link Executor} that propagates the current unit of work to the tasks it executes.
+     *
+     * @param executor the executor that runs the tasks
+     * @param propagation how EntityManagers are made available to the tasks
+     * @param settings the settings of the units of work opened for {@link Propagation#NEW} tasks
+     * @return the unit of work aware executor
+     */
+    public static Executor wrap(Executor executor, Propagation propagation, UnitOfWorkSettings settings) {
+        requireNonNull(settings);
+        return command -> executor.execute(propagate(command, propagation, settings));
+    }
+
+    /**
+     * Returns an {@link ExecutorService} that propagates the current unit of work to the tasks it executes.
+     * Shutting down the returned executor service shuts down the given executor service.
+     *
+     * @param executorService the executor service that runs the tasks
+     * @param propagation how EntityManagers are made available to the tasks
+     * @return the unit of work aware executor service
+     */
+    public static ExecutorService wrap(ExecutorService executorService, Propagation propagation) {
+        return wrap(executorService, propagation, UnitOfWorkSettings.defaults());
+    }
+
+    /**
+     * Returns an {@link ExecutorService} that propagates the current unit of work to the tasks it executes.
+     * Shutting down the returned executor service shuts down the given executor service.
+     *
+     * @param executorService the executor service that runs the tasks
+     * @param propagation how EntityManagers are made available to the tasks
+     * @param settings the settings of the units of work opened for {@link Propagation#NEW} tasks
+     * @return the unit of work aware executor service
+     */
+    public static ExecutorService wrap(ExecutorService executorService, Propagation propagation,
+                                       UnitOfWorkSettings settings) {
+        return new UnitOfWorkAwareExecutorService(executorService, propagation, requireNonNull(settings));
+    }
+
+    /**
+     * Returns a new {@link CompletableFuture} that is asynchronously completed by a task running in the given
+     * executor, with the value obtained by calling the given supplier within the current unit of work.
+     *
+     * @param supplier a function returning the value to be used to complete the returned CompletableFuture
+     * @param executor the executor to use for asynchronous execution
+     * @param propagation how EntityManagers are made available to the supplier
+     * @param <U> the function's return type
+     * @return the new CompletableFuture
+     */
+    public static <U> CompletableFuture<U> supplyAsync(Supplier<U> supplier,
+                                                       Executor executor,
+                                                       Propagation propagation) {
+        return supplyAsync(supplier, executor, propagation, UnitOfWorkSettings.defaults());
+    }
+
+    /**
+     * Returns a new {@link CompletableFuture} that is asynchronously completed by a task running in the given
+     * executor, with the value obtained by calling the given supplier within the current unit of work.
+     *
+     * @param supplier a function returning the value to be used to complete the returned CompletableFuture
+     * @param executor the executor to use for asynchronous execution
+     * @param propagation how EntityManagers are made available to the supplier
+     * @param settings the settings of the units of work opened if the propagation is {@link Propagation#NEW}
+     * @param <U> the function's return type
+     * @return the new CompletableFuture
+     */
+    public static <U> CompletableFuture<U> supplyAsync(Supplier<U> supplier,
+                                                       Executor executor,
+                                                       Propagation propagation,
+                                                       UnitOfWorkSettings settings) {
+        final PropagatingTask task = capture(propagation, requireNonNull(settings));
+        return CompletableFuture.supplyAsync(() -> task.call(supplier), executor);
+    }
+
+    /**
+     * Returns a new {@link CompletableFuture} that is asynchronously completed by a task running in the given
+     * executor after it runs the given action within the current unit of work.
+     *
+     * @param runnable the action to run before completing the returned CompletableFuture
+     * @param executor the executor to use for asynchronous execution
+     * @param propagation how EntityManagers are made available to the action
+     * @return the new CompletableFuture
+     */
+    public static CompletableFuture<Void> runAsync(Runnable runnable, Executor executor, Propagation propagation) {
+        return runAsync(runnable, executor, propagation, UnitOfWorkSettings.defaults());
+    }
+
+    /**
+     * Returns a new {@link CompletableFuture} that is asynchronously completed by a task running in the given
+     * executor after it runs the given action within the current unit of work.
+     *
+     * @param runnable the action to run before completing the returned CompletableFuture
+     * @param executor the executor to use for asynchronous execution
+     * @param propagation how EntityManagers are made available to the action
+     * @param settings the settings of the units of work opened if the propagation is {@link Propagation#NEW}
+     * @return the new CompletableFuture
+     */
+    public static CompletableFuture<Void> runAsync(Runnable runnable, Executor executor, Propagation propagation,
+                                                   UnitOfWorkSettings settings) {
+        final Runnable task = propagate(runnable, propagation, requireNonNull(settings));
+        return CompletableFuture.runAsync(task, executor);
+    }
+
+    private static Runnable propagate(Runnable runnable, Propagation propagation, UnitOfWorkSettings settings) {
+        final PropagatingTask task = capture(propagation, settings);
+        return () -> task.call(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    private static <T> Callable<T> propagate(Callable<T> callable, Propagation propagation,
+                                             UnitOfWorkSettings settings) {
+        final PropagatingTask task = capture(propagation, settings);
+        return () -> {
+            try {
+                return task.call(() -> {
+                    try {
+                        return callable.call();
+                    } catch (RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new CheckedTaskException(e);
+                    }
+                });
+            } catch (CheckedTaskException e) {
+                throw e.getException();
+            }
+        };
+    }
+
+    private static PropagatingTask capture(Propagation propagation, UnitOfWorkSettings settings) {
+        if (propagation == Propagation.SHARED) {
+            // A lazy unit of work is opened now, so the task and the submitting thread share one EntityManager
+            EntityManagerContext.initializeAll();
+            final Map<EntityManagerFactory, EntityManager> entityManagers = EntityManagerContext.capture()
+                    .entityManagers();
+            for (EntityManager entityManager : entityManagers.values()) {
+                if (ENTITY_MANAGER_LOCKS.getUnchecked(entityManager).isHeldByCurrentThread()) {
+                    throw new IllegalStateException("A task sharing an EntityManager can't submit another task " +
+                            "sharing it, use Propagation.NEW instead");
+                }
+            }
+            return new SharedTask(entityManagers);
+        }
+        return new NewTask(EntityManagerContext.boundFactories(), settings);
+    }
+
+    private interface PropagatingTask {
+        <U> U call(Supplier<U> supplier);
+    }
+
+    private static class SharedTask implements PropagatingTask {
+        private final Map<EntityManagerFactory, EntityManager> entityManagers;
+
+        SharedTask(Map<EntityManagerFactory, EntityManager> entityManagers) {
+            this.entityManagers = entityManagers;
+        }
+
+        @Override
+        public <U> U call(Supplier<U> supplier) {
+            final EntityManagerBindings previous = EntityManagerContext.capture();
+            final List<ReentrantLock> locks = new ArrayList<>();
+            // The EntityManagers are locked in a consistent order, so tasks sharing several can't deadlock
+            for (EntityManager entityManager : Ordering.arbitrary().sortedCopy(entityManagers.values())) {
+                final ReentrantLock lock = ENTITY_MANAGER_LOCKS.getUnchecked(entityManager);
+                lock.lock();
+                locks.add(lock);
+            }
+            try {
+                entityManagers.forEach(EntityManagerContext::bind);
+                return supplier.get();
+            } finally {
+                EntityManagerContext.restore(previous);
+                for (int i = locks.size() - 1; i >= 0; i--) {
+                    locks.get(i).unlock();
+                }
+            }
+        }
+    }
+
+    private static class NewTask implements PropagatingTask {
+        private final Set<EntityManagerFactory> factories;
+        private final UnitOfWorkSettings settings;
+
+        NewTask(Set<EntityManagerFactory> factories, UnitOfWorkSettings settings) {
+            this.factories = factories;
+            this.settings = settings;
+        }
+
+        @Override
+        public <U> U call(Supplier<U> supplier) {
+            final EntityManagerBindings previous = EntityManagerContext.capture();
+            final List<UnitOfWorkAspect> aspects = new ArrayList<>(factories.size());
+            try {
+                for (EntityManagerFactory factory : factories) {
+                    final UnitOfWorkAspect aspect = new UnitOfWorkAspect();
+                    aspects.add(aspect);
+                    aspect.beforeStart(UnitOfWorkPlan.compile(factory, settings));
+                }
+                final U result = supplier.get();
+                aspects.forEach(UnitOfWorkAspect::afterEnd);
+                return result;
+            } catch (RuntimeException | Error e) {
+                aspects.forEach(UnitOfWorkAspect::onError);
+                throw e;
+            } finally {
+                try {
+                    aspects.forEach(UnitOfWorkAspect::onFinish);
+                } finally {
+                    EntityManagerContext.restore(previous);
+                }
+            }
+        }
+    }
+
+    /**
+     * Carries a checked exception thrown by a task out of its unit of work, so the unit of work is rolled back.
+     */
+    private static class CheckedTaskException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        CheckedTaskException(Exception cause) {
+            super(cause);
+        }
+
+        Exception getException() {
+            return (Exception) getCause();
+        }
+    }
+
+    /**
+     * A task submitted to a {@link UnitOfWorkAwareExecutorService}, which already propagates the unit of work.
+     */
+    private static class PropagatingFutureTask<T> extends FutureTask<T> {
+        PropagatingFutureTask(Callable<T> callable) {
+            super(callable);
+        }
+    }
+
+    /**
+     * Propagates the unit of work to the tasks it is given, before they are wrapped in futures, so a task that
+     * throws rolls back its unit of work even though its future catches the exception.
+     */
+    private static class UnitOfWorkAwareExecutorService extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Propagation propagation;
+        private final UnitOfWorkSettings settings;
+
+        UnitOfWorkAwareExecutorService(ExecutorService delegate, Propagation propagation,
+                                       UnitOfWorkSettings settings) {
+            this.delegate = delegate;
+            this.propagation = propagation;
+            this.settings = settings;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(command instanceof PropagatingFutureTask ? command :
+                    propagate(command, propagation, settings));
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            return new PropagatingFutureTask<>(propagate(callable, propagation, settings));
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+            return newTaskFor(Executors.callable(runnable, value));
+        }
+
+        // The futures invokeAny() wraps tasks in can't be told apart, so the tasks are propagated beforehand
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks)
+                throws InterruptedException, ExecutionException {
+            return delegate.invokeAny(propagateAll(tasks));
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            return delegate.invokeAny(propagateAll(tasks), timeout, unit);
+        }
+
+        private <T> List<Callable<T>> propagateAll(Collection<? extends Callable<T>> tasks) {
+            return tasks.stream().map(task -> propagate(task, propagation, settings)).collect(toList());
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
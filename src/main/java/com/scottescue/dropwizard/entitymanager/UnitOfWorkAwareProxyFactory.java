@@ -3,11 +3,18 @@ package com.scottescue.dropwizard.entitymanager;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import javassist.util.proxy.MethodHandler;
 import javassist.util.proxy.Proxy;
 import javassist.util.proxy.ProxyFactory;
 
 import javax.persistence.EntityManagerFactory;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A factory for creating proxies for components that use @UnitOfWork annotations
@@ -15,10 +22,22 @@ import java.lang.reflect.InvocationTargetException;
  * <p>A created proxy will be aware of the {@link UnitOfWork} annotation
  * on the original class methods.  The proxy will ensure an EntityManager is made
  * available to the current thread of execution.</p>
+ * <p>A proxy class is generated once per proxied class, and only overrides the methods
+ * annotated with {@link UnitOfWork}; other methods are invoked directly.  The annotation
+ * of each method is compiled once per factory.</p>
  */
 public class UnitOfWorkAwareProxyFactory {
 
+    private static final ClassValue<ProxyType> PROXY_TYPES = new ClassValue<ProxyType>() {
+        @Override
+        protected ProxyType computeValue(Class<?> type) {
+            return new ProxyType(type);
+        }
+    };
+
     private final ImmutableMap<String, EntityManagerFactory> entityManagerFactories;
+    private final ConcurrentMap<Method, UnitOfWorkPlan> plans = new ConcurrentHashMap<>();
+    private final MethodHandler handler = this::invoke;
 
     public UnitOfWorkAwareProxyFactory(String name, EntityManagerFactory entityManagerFactory) {
         entityManagerFactories = ImmutableMap.of(name, entityManagerFactory);
@@ -67,29 +86,10 @@ public class UnitOfWorkAwareProxyFactory {
      */
     @SuppressWarnings("unchecked")
     public <T> T create(Class<T> clazz, Class<?>[] constructorParamTypes, Object[] constructorArguments) {
-        final ProxyFactory factory = new ProxyFactory();
-        factory.setSuperclass(clazz);
-
         try {
-            final Proxy proxy = (Proxy) (constructorParamTypes.length == 0 ?
-                    factory.createClass().newInstance() :
-                    factory.create(constructorParamTypes, constructorArguments));
-            proxy.setHandler((self, overridden, proceed, args) -> {
-                final UnitOfWork unitOfWork = overridden.getAnnotation(UnitOfWork.class);
-                final UnitOfWorkAspect unitOfWorkAspect = new UnitOfWorkAspect(entityManagerFactories);
-                try {
-                    unitOfWorkAspect.beforeStart(unitOfWork);
-                    Object result = proceed.invoke(self, args);
-                    unitOfWorkAspect.afterEnd();
-                    return result;
-                } catch (InvocationTargetException e) {
-                    unitOfWorkAspect.onError();
-                    throw e.getCause();
-                } catch (Exception e) {
-                    unitOfWorkAspect.onError();
-                    throw e;
-                }
-            });
+            final Proxy proxy = (Proxy) PROXY_TYPES.get(clazz).constructor(constructorParamTypes)
+                    .newInstance(constructorArguments);
+            proxy.setHandler(handler);
             return (T) proxy;
         } catch (NoSuchMethodException | InstantiationException | IllegalAccessException |
                 InvocationTargetException e) {
@@ -101,4 +101,54 @@ public class UnitOfWorkAwareProxyFactory {
     ImmutableMap<String, EntityManagerFactory> getEntityManagerFactories() {
         return entityManagerFactories;
     }
+
+    private Object invoke(Object self, Method overridden, Method proceed, Object[] args) throws Throwable {
+        final UnitOfWorkAspect unitOfWorkAspect = new UnitOfWorkAspect();
+        try {
+            unitOfWorkAspect.beforeStart(planFor(overridden));
+            Object result = proceed.invoke(self, args);
+            unitOfWorkAspect.afterEnd();
+            return result;
+        } catch (InvocationTargetException e) {
+            unitOfWorkAspect.onError();
+            throw e.getCause();
+        } catch (Exception e) {
+            unitOfWorkAspect.onError();
+            throw e;
+        }
+    }
+
+    private UnitOfWorkPlan planFor(Method method) {
+        // Only methods annotated with @UnitOfWork are overridden by the proxy classes
+        UnitOfWorkPlan plan = plans.get(method);
+        if (plan == null) {
+            plan = plans.computeIfAbsent(method,
+                    m -> UnitOfWorkPlan.compile(m.getAnnotation(UnitOfWork.class), entityManagerFactories));
+        }
+        return plan;
+    }
+
+    /**
+     * The proxy class generated for a proxied class, with its constructors resolved by parameter types.
+     */
+    private static class ProxyType {
+        private final Class<?> proxyClass;
+        private final ConcurrentMap<List<Class<?>>, Constructor<?>> constructors = new ConcurrentHashMap<>();
+
+        ProxyType(Class<?> type) {
+            final ProxyFactory factory = new ProxyFactory();
+            factory.setSuperclass(type);
+            factory.setFilter(method -> method.isAnnotationPresent(UnitOfWork.class));
+            this.proxyClass = factory.createClass();
+        }
+
+        Constructor<?> constructor(Class<?>[] parameterTypes) throws NoSuchMethodException {
+            Constructor<?> constructor = constructors.get(Arrays.asList(parameterTypes));
+            if (constructor == null) {
+                constructor = proxyClass.getConstructor(parameterTypes);
+                constructors.putIfAbsent(Arrays.asList(parameterTypes.clone()), constructor);
+            }
+            return constructor;
+        }
+    }
 }
@@ -0,0 +1,121 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * The metrics of the units of work of a resource method, registered as
+ * {@code <resource class>.<method>.unit-of-work.<bundle name>.<metric>}:
+ * <ul>
+ * <li>{@code entity-manager} times how long the EntityManager is open, including the lazy loading done while
+ * the response is serialized; it is how long a connection may be held</li>
+ * <li>{@code transaction} times the transaction, from its beginning until it is committed or rolled back</li>
+ * <li>{@code commit} times the commit of the transaction</li>
+ * <li>{@code rollbacks} meters the transactions that are rolled back</li>
+ * </ul>
+ * <p>When the bundle detects repeated statements, the SQL statements of each unit of work are counted as well:</p>
+ * <ul>
+ * <li>{@code statements} is the distribution of the number of statements executed by a unit of work</li>
+ * <li>{@code repeated-statements} meters the statement shapes executed more times than the threshold within a
+ * unit of work, each of which is also logged as a likely N+1 select</li>
+ * </ul>
+ */
+final class UnitOfWorkMetrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnitOfWorkMetrics.class);
+
+    private final String resourceMethod;
+    private final String name;
+    private final Timer entityManager;
+    private final Timer transaction;
+    private final Timer commit;
+    private final Meter rollbacks;
+    private final int repeatedStatementThreshold;
+    private final Histogram statements;
+    private final Meter repeatedStatements;
+
+    private UnitOfWorkMetrics(String resourceMethod, String name, Timer entityManager, Timer transaction, Timer commit,
+                              Meter rollbacks, int repeatedStatementThreshold, Histogram statements,
+                              Meter repeatedStatements) {
+        this.resourceMethod = resourceMethod;
+        this.name = name;
+        this.entityManager = entityManager;
+        this.transaction = transaction;
+        this.commit = commit;
+        this.rollbacks = rollbacks;
+        this.repeatedStatementThreshold = repeatedStatementThreshold;
+        this.statements = statements;
+        this.repeatedStatements = repeatedStatements;
+    }
+
+    /**
+     * Registers the metrics of a resource method's units of work.
+     *
+     * @param metrics the registry of the metrics
+     * @param method the resource method
+     * @param name the name of the EntityManager bundle the units of work run against
+     * @param repeatedStatementThreshold how many times a statement shape may be executed by a unit of work
+     *                                   before it is reported, or 0 to not count statements
+     * @return the metrics
+     */
+    static UnitOfWorkMetrics register(MetricRegistry metrics, Method method, String name,
+                                      int repeatedStatementThreshold) {
+        final String prefix = MetricRegistry.name(method.getDeclaringClass(), method.getName(), "unit-of-work", name);
+        final boolean countStatements = repeatedStatementThreshold > 0;
+        return new UnitOfWorkMetrics(method.getDeclaringClass().getName() + '.' + method.getName(), name,
+                metrics.timer(MetricRegistry.name(prefix, "entity-manager")),
+                metrics.timer(MetricRegistry.name(prefix, "transaction")),
+                metrics.timer(MetricRegistry.name(prefix, "commit")),
+                metrics.meter(MetricRegistry.name(prefix, "rollbacks")),
+                repeatedStatementThreshold,
+                countStatements ? metrics.histogram(MetricRegistry.name(prefix, "statements")) : null,
+                countStatements ? metrics.meter(MetricRegistry.name(prefix, "repeated-statements")) : null);
+    }
+
+    /**
+     * @return a new log of the statements of a unit of work, or null if statements are not counted
+     */
+    StatementLog newStatementLog() {
+        return repeatedStatementThreshold > 0 ? new StatementLog(name) : null;
+    }
+
+    /**
+     * Records the statements executed by a unit of work, reporting each shape executed more times than the
+     * threshold.
+     *
+     * @param log the statements of the unit of work
+     */
+    void report(StatementLog log) {
+        statements.update(log.getCount());
+        for (Map.Entry<String, StatementLog.Shape> entry : log.getShapes().entrySet()) {
+            final StatementLog.Shape shape = entry.getValue();
+            if (shape.getCount() > repeatedStatementThreshold) {
+                repeatedStatements.mark();
+                LOGGER.warn("Possible N+1 select in {}: executed {} times in one unit of work ({}): {}",
+                        resourceMethod, shape.getCount(), shape.getSample(), entry.getKey());
+            }
+        }
+    }
+
+    Timer getEntityManager() {
+        return entityManager;
+    }
+
+    Timer getTransaction() {
+        return transaction;
+    }
+
+    Timer getCommit() {
+        return commit;
+    }
+
+    Meter getRollbacks() {
+        return rollbacks;
+    }
+}
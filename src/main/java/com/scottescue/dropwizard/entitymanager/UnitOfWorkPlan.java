@@ -0,0 +1,153 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Map;
+
+/**
+ * An immutable, precompiled form of a {@link UnitOfWork} annotation or of {@link UnitOfWorkSettings}.
+ * The {@link EntityManagerFactory} named by the annotation is resolved once, and the EntityManager settings
+ * are read from the annotation once, so a plan can be executed by a {@link UnitOfWorkAspect} any number
+ * of times without further lookups.
+ */
+final class UnitOfWorkPlan {
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final boolean readOnly;
+    private final boolean transactional;
+    private final CacheMode cacheMode;
+    private final FlushMode flushMode;
+    private final boolean lazy;
+    private final boolean cacheableQueries;
+    private final UnitOfWorkMetrics metrics;
+
+    private UnitOfWorkPlan(EntityManagerFactory entityManagerFactory, boolean readOnly, boolean transactional,
+                           CacheMode cacheMode, FlushMode flushMode, boolean lazy, boolean cacheableQueries,
+                           UnitOfWorkMetrics metrics) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.readOnly = readOnly;
+        this.transactional = transactional;
+        this.cacheMode = cacheMode;
+        this.flushMode = flushMode;
+        this.lazy = lazy;
+        this.cacheableQueries = cacheableQueries;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Compiles the given annotation into a plan, resolving the EntityManagerFactory it names.
+     *
+     * @param unitOfWork the annotation to compile
+     * @param entityManagerFactories the registered EntityManagerFactories, keyed by bundle name
+     * @return the compiled plan
+     * @throws IllegalArgumentException if the annotation names an unregistered EntityManager bundle
+     */
+    static UnitOfWorkPlan compile(UnitOfWork unitOfWork, Map<String, EntityManagerFactory> entityManagerFactories) {
+        return new UnitOfWorkPlan(resolve(unitOfWork.value(), entityManagerFactories),
+                unitOfWork.readOnly(),
+                unitOfWork.transactional(),
+                unitOfWork.cacheMode(),
+                unitOfWork.flushMode(),
+                unitOfWork.lazy(),
+                unitOfWork.cacheableQueries(),
+                null);
+    }
+
+    /**
+     * Compiles the given settings into a plan for the given factory.
+     *
+     * @param entityManagerFactory the factory the plan opens EntityManagers from
+     * @param settings the settings to compile
+     * @return the compiled plan
+     */
+    static UnitOfWorkPlan compile(EntityManagerFactory entityManagerFactory, UnitOfWorkSettings settings) {
+        return new UnitOfWorkPlan(entityManagerFactory,
+                settings.isReadOnly(),
+                settings.isTransactional(),
+                settings.getCacheMode(),
+                settings.getFlushMode(),
+                settings.isLazy(),
+                settings.isCacheableQueries(),
+                null);
+    }
+
+    /**
+     * Returns a copy of this plan whose executions are recorded by the given metrics.
+     *
+     * @param metrics the metrics of the units of work
+     * @return the plan with the given metrics
+     */
+    UnitOfWorkPlan withMetrics(UnitOfWorkMetrics metrics) {
+        return new UnitOfWorkPlan(entityManagerFactory, readOnly, transactional, cacheMode, flushMode, lazy,
+                cacheableQueries, metrics);
+    }
+
+    /**
+     * Resolves the EntityManagerFactory registered under the given bundle name.
+     *
+     * @param name the name of the EntityManager bundle
+     * @param entityManagerFactories the registered EntityManagerFactories, keyed by bundle name
+     * @return the EntityManagerFactory
+     * @throws IllegalArgumentException if the name is not a registered EntityManager bundle
+     */
+    static EntityManagerFactory resolve(String name, Map<String, EntityManagerFactory> entityManagerFactories) {
+        return entityManagerFactories.get(resolveName(name, entityManagerFactories));
+    }
+
+    /**
+     * Resolves the name under which the EntityManagerFactory of the given bundle name is registered.
+     *
+     * @param name the name of the EntityManager bundle
+     * @param entityManagerFactories the registered EntityManagerFactories, keyed by bundle name
+     * @return the name of the registered EntityManagerFactory
+     * @throws IllegalArgumentException if the name is not a registered EntityManager bundle
+     */
+    static String resolveName(String name, Map<String, EntityManagerFactory> entityManagerFactories) {
+        if (entityManagerFactories.containsKey(name)) {
+            return name;
+        }
+        // If the user didn't specify the name of a entityManager factory,
+        // and we have only one registered, we can assume that it's the right one.
+        if (name.equals(EntityManagerBundle.DEFAULT_NAME) && entityManagerFactories.size() == 1) {
+            return entityManagerFactories.keySet().iterator().next();
+        }
+        throw new IllegalArgumentException("Unregistered EntityManager bundle: '" + name + "'");
+    }
+
+    EntityManagerFactory getEntityManagerFactory() {
+        return entityManagerFactory;
+    }
+
+    boolean isReadOnly() {
+        return readOnly;
+    }
+
+    boolean isTransactional() {
+        return transactional;
+    }
+
+    CacheMode getCacheMode() {
+        return cacheMode;
+    }
+
+    FlushMode getFlushMode() {
+        return flushMode;
+    }
+
+    boolean isLazy() {
+        return lazy;
+    }
+
+    boolean isCacheableQueries() {
+        return cacheableQueries;
+    }
+
+    /**
+     * @return the metrics recording the executions of this plan, or null if they aren't recorded
+     */
+    UnitOfWorkMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,184 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.google.common.base.MoreObjects;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The settings of a programmatic unit of work run by {@link UnitOfWorks}.  The settings mirror the
+ * attributes of the {@link UnitOfWork} annotation and have the same defaults.
+ * <p>Settings are immutable; each {@code with} method returns a copy with one setting changed, so a
+ * settings instance can be kept in a constant and shared between threads.</p>
+ */
+public final class UnitOfWorkSettings {
+
+    private static final UnitOfWorkSettings DEFAULTS =
+            new UnitOfWorkSettings(false, true, CacheMode.NORMAL, FlushMode.AUTO, false, false);
+
+    private final boolean readOnly;
+    private final boolean transactional;
+    private final CacheMode cacheMode;
+    private final FlushMode flushMode;
+    private final boolean lazy;
+    private final boolean cacheableQueries;
+
+    private UnitOfWorkSettings(boolean readOnly, boolean transactional, CacheMode cacheMode, FlushMode flushMode,
+                               boolean lazy, boolean cacheableQueries) {
+        this.readOnly = readOnly;
+        this.transactional = transactional;
+        this.cacheMode = requireNonNull(cacheMode);
+        this.flushMode = requireNonNull(flushMode);
+        this.lazy = lazy;
+        this.cacheableQueries = cacheableQueries;
+    }
+
+    /**
+     * Returns the settings of a {@link UnitOfWork} annotation that uses all of its default values.
+     *
+     * @return the default settings
+     */
+    public static UnitOfWorkSettings defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return whether the Hibernate EntityManager will default to loading read-only entities
+     * @see UnitOfWork#readOnly()
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * @param readOnly whether the Hibernate EntityManager will default to loading read-only entities
+     * @return a copy of these settings with the given value
+     * @see UnitOfWork#readOnly()
+     */
+    public UnitOfWorkSettings withReadOnly(boolean readOnly) {
+        return new UnitOfWorkSettings(readOnly, transactional, cacheMode, flushMode, lazy, cacheableQueries);
+    }
+
+    /**
+     * @return whether a transaction is started around the unit of work
+     * @see UnitOfWork#transactional()
+     */
+    public boolean isTransactional() {
+        return transactional;
+    }
+
+    /**
+     * @param transactional whether a transaction is started around the unit of work
+     * @return a copy of these settings with the given value
+     * @see UnitOfWork#transactional()
+     */
+    public UnitOfWorkSettings withTransactional(boolean transactional) {
+        return new UnitOfWorkSettings(readOnly, transactional, cacheMode, flushMode, lazy, cacheableQueries);
+    }
+
+    /**
+     * @return the {@link CacheMode} for the Hibernate EntityManager
+     * @see UnitOfWork#cacheMode()
+     */
+    public CacheMode getCacheMode() {
+        return cacheMode;
+    }
+
+    /**
+     * @param cacheMode the {@link CacheMode} for the Hibernate EntityManager
+     * @return a copy of these settings with the given value
+     * @see UnitOfWork#cacheMode()
+     */
+    public UnitOfWorkSettings withCacheMode(CacheMode cacheMode) {
+        return new UnitOfWorkSettings(readOnly, transactional, cacheMode, flushMode, lazy, cacheableQueries);
+    }
+
+    /**
+     * @return the {@link FlushMode} for the Hibernate EntityManager
+     * @see UnitOfWork#flushMode()
+     */
+    public FlushMode getFlushMode() {
+        return flushMode;
+    }
+
+    /**
+     * @param flushMode the {@link FlushMode} for the Hibernate EntityManager
+     * @return a copy of these settings with the given value
+     * @see UnitOfWork#flushMode()
+     */
+    public UnitOfWorkSettings withFlushMode(FlushMode flushMode) {
+        return new UnitOfWorkSettings(readOnly, transactional, cacheMode, flushMode, lazy, cacheableQueries);
+    }
+
+    /**
+     * @return whether the Hibernate EntityManager is only opened on first use
+     * @see UnitOfWork#lazy()
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * @param lazy whether the Hibernate EntityManager is only opened on first use
+     * @return a copy of these settings with the given value
+     * @see UnitOfWork#lazy()
+     */
+    public UnitOfWorkSettings withLazy(boolean lazy) {
+        return new UnitOfWorkSettings(readOnly, transactional, cacheMode, flushMode, lazy, cacheableQueries);
+    }
+
+    /**
+     * @return whether the queries created through the shared EntityManager are cacheable by default
+     * @see UnitOfWork#cacheableQueries()
+     */
+    public boolean isCacheableQueries() {
+        return cacheableQueries;
+    }
+
+    /**
+     * @param cacheableQueries whether the queries created through the shared EntityManager are cacheable
+     *                         by default
+     * @return a copy of these settings with the given value
+     * @see UnitOfWork#cacheableQueries()
+     */
+    public UnitOfWorkSettings withCacheableQueries(boolean cacheableQueries) {
+        return new UnitOfWorkSettings(readOnly, transactional, cacheMode, flushMode, lazy, cacheableQueries);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final UnitOfWorkSettings that = (UnitOfWorkSettings) o;
+        return readOnly == that.readOnly &&
+                transactional == that.transactional &&
+                lazy == that.lazy &&
+                cacheableQueries == that.cacheableQueries &&
+                cacheMode == that.cacheMode &&
+                flushMode == that.flushMode;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(readOnly, transactional, cacheMode, flushMode, lazy, cacheableQueries);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("readOnly", readOnly)
+                .add("transactional", transactional)
+                .add("cacheMode", cacheMode)
+                .add("flushMode", flushMode)
+                .add("lazy", lazy)
+                .add("cacheableQueries", cacheableQueries)
+                .toString();
+    }
+}
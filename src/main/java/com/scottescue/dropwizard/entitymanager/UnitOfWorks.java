@@ -0,0 +1,128 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs code in a unit of work without a proxy, for components such as managed objects, queue consumers
+ * and scheduled jobs.
+ * <p>A unit of work run by this class behaves like a method annotated with {@link UnitOfWork}: an
+ * EntityManager is made available to the current thread of execution through the shared EntityManager,
+ * and a transaction is optionally started, then committed if the code completes normally and rolled
+ * back if it throws an exception.  The EntityManager is always closed before the call returns, and any
+ * EntityManager previously bound to the current thread is bound again.</p>
+ * <pre>{@code
+ * final UnitOfWorks unitOfWorks = new UnitOfWorks(bundle);
+ * final User user = unitOfWorks.call(() -> userDao.findById(id));
+ * unitOfWorks.run("audit", UnitOfWorkSettings.defaults().withLazy(true), () -> auditDao.record(user));
+ * }</pre>
+ */
+public class UnitOfWorks {
+
+    private final ImmutableMap<String, EntityManagerFactory> entityManagerFactories;
+
+    public UnitOfWorks(String name, EntityManagerFactory entityManagerFactory) {
+        entityManagerFactories = ImmutableMap.of(name, entityManagerFactory);
+    }
+
+    public UnitOfWorks(EntityManagerBundle<?>... bundles) {
+        final ImmutableMap.Builder<String, EntityManagerFactory> factoriesBuilder = ImmutableMap.builder();
+        for (EntityManagerBundle<?> bundle : bundles) {
+            factoriesBuilder.put(bundle.name(), bundle.getEntityManagerFactory());
+        }
+        entityManagerFactories = factoriesBuilder.build();
+    }
+
+    /**
+     * Runs the given code in a unit of work with the default settings, against the only registered
+     * EntityManager bundle or the one named {@value EntityManagerBundle#DEFAULT_NAME}.
+     *
+     * @param runnable the code to run
+     */
+    public void run(Runnable runnable) {
+        run(EntityManagerBundle.DEFAULT_NAME, UnitOfWorkSettings.defaults(), runnable);
+    }
+
+    /**
+     * Runs the given code in a unit of work.
+     *
+     * @param name     the name of the EntityManager bundle to open the EntityManager from
+     * @param settings the settings of the unit of work
+     * @param runnable the code to run
+     * @throws IllegalArgumentException if the name is not a registered EntityManager bundle
+     */
+    public void run(String name, UnitOfWorkSettings settings, Runnable runnable) {
+        execute(plan(name, settings), () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Calls the given code in a unit of work with the default settings, against the only registered
+     * EntityManager bundle or the one named {@value EntityManagerBundle#DEFAULT_NAME}.
+     *
+     * @param callable the code to call
+     * @param <T>      the type of the result
+     * @return the result of the code
+     * @throws Exception if the code throws an exception
+     */
+    public <T> T call(Callable<T> callable) throws Exception {
+        return call(EntityManagerBundle.DEFAULT_NAME, UnitOfWorkSettings.defaults(), callable);
+    }
+
+    /**
+     * Calls the given code in a unit of work.
+     *
+     * @param name     the name of the EntityManager bundle to open the EntityManager from
+     * @param settings the settings of the unit of work
+     * @param callable the code to call
+     * @param <T>      the type of the result
+     * @return the result of the code
+     * @throws Exception if the code throws an exception
+     * @throws IllegalArgumentException if the name is not a registered EntityManager bundle
+     */
+    public <T> T call(String name, UnitOfWorkSettings settings, Callable<T> callable) throws Exception {
+        return execute(plan(name, settings), callable::call);
+    }
+
+    @VisibleForTesting
+    ImmutableMap<String, EntityManagerFactory> getEntityManagerFactories() {
+        return entityManagerFactories;
+    }
+
+    private UnitOfWorkPlan plan(String name, UnitOfWorkSettings settings) {
+        return UnitOfWorkPlan.compile(UnitOfWorkPlan.resolve(name, entityManagerFactories), settings);
+    }
+
+    /**
+     * Executes the given work in a unit of work described by the given plan, restoring the EntityManagers
+     * previously bound to the current thread once the work completes.
+     */
+    static <T, E extends Exception> T execute(UnitOfWorkPlan plan, Work<T, E> work) throws E {
+        final EntityManagerBindings previous = EntityManagerContext.capture();
+        final UnitOfWorkAspect unitOfWorkAspect = new UnitOfWorkAspect();
+        try {
+            unitOfWorkAspect.beforeStart(plan);
+            final T result = work.execute();
+            unitOfWorkAspect.afterEnd();
+            return result;
+        } catch (Exception | Error e) {
+            unitOfWorkAspect.onError();
+            throw e;
+        } finally {
+            try {
+                unitOfWorkAspect.onFinish();
+            } finally {
+                EntityManagerContext.restore(previous);
+            }
+        }
+    }
+
+    interface Work<T, E extends Exception> {
+        T execute() throws E;
+    }
+}
@@ -0,0 +1,108 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.codahale.metrics.MetricRegistry;
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateEntityManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BatchProcessorTest {
+    private final EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+    private final EntityManagerContext entityManagerContext = new EntityManagerContext(entityManagerFactory);
+    private final HibernateEntityManager entityManager = mock(HibernateEntityManager.class);
+    private final EntityTransaction transaction = mock(EntityTransaction.class);
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final BatchProcessor processor = new BatchProcessor(entityManagerFactory,
+            UnitOfWorkSettings.defaults(), 2, metrics, "reindex");
+
+    @Before
+    public void setUp() throws Exception {
+        when(entityManagerFactory.createEntityManager()).thenReturn(entityManager);
+        when(entityManager.getEntityManagerFactory()).thenReturn(entityManagerFactory);
+        when(entityManager.getSession()).thenReturn(mock(Session.class));
+        when(entityManager.getTransaction()).thenReturn(transaction);
+        when(transaction.isActive()).thenReturn(true);
+    }
+
+    @Test
+    public void processesEachChunkInItsOwnTransaction() {
+        final List<Integer> processed = new ArrayList<>();
+
+        final long committed = processor.process(IntStream.range(0, 5).boxed(), item -> {
+            assertThat(entityManagerContext.currentEntityManager()).isSameAs(entityManager);
+            processed.add(item);
+        });
+
+        assertThat(committed).isEqualTo(5);
+        assertThat(processed).containsExactly(0, 1, 2, 3, 4);
+        verify(transaction, times(3)).begin();
+        verify(transaction, times(3)).commit();
+        verify(entityManager, times(3)).close();
+        assertThat(EntityManagerContext.hasBind(entityManagerFactory)).isFalse();
+    }
+
+    @Test
+    public void rollsBackOnlyTheFailedChunk() {
+        try {
+            processor.process(Arrays.asList(1, 2, 3, 4, 5).iterator(), item -> {
+                if (item == 4) {
+                    throw new IllegalStateException("Bad item");
+                }
+            });
+            fail("Should have thrown an exception");
+        } catch (BatchProcessingException e) {
+            assertThat(e.getCommittedItems()).isEqualTo(2);
+            assertThat(e.getCause()).hasMessage("Bad item");
+        }
+
+        verify(transaction, times(1)).commit();
+        verify(transaction, times(1)).rollback();
+        verify(entityManager, times(2)).close();
+        assertThat(metrics.meter("reindex.items").getCount()).isEqualTo(2);
+        assertThat(metrics.meter("reindex.failed-chunks").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void rethrowsErrorsUnchanged() {
+        final OutOfMemoryError error = new OutOfMemoryError();
+        try {
+            processor.process(Arrays.asList(1, 2).iterator(), item -> {
+                throw error;
+            });
+            fail("Should have thrown an error");
+        } catch (OutOfMemoryError e) {
+            assertThat(e).isSameAs(error);
+        }
+
+        verify(transaction).rollback();
+        assertThat(metrics.meter("reindex.failed-chunks").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void recordsThroughputAndChunkLatency() {
+        processor.process(IntStream.range(0, 4).boxed(), item -> {});
+
+        assertThat(metrics.meter("reindex.items").getCount()).isEqualTo(4);
+        assertThat(metrics.timer("reindex.chunks").getCount()).isEqualTo(2);
+        assertThat(metrics.meter("reindex.failed-chunks").getCount()).isZero();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyChunks() {
+        new BatchProcessor(entityManagerFactory, UnitOfWorkSettings.defaults(), 0, metrics, "empty");
+    }
+}
@@ -0,0 +1,62 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.google.common.io.ByteStreams;
+import com.scottescue.dropwizard.entitymanager.entity.Person;
+import com.scottescue.dropwizard.entitymanager.entity.PersonType;
+import com.scottescue.dropwizard.entitymanager.entity.Personable;
+import org.junit.Test;
+
+import javax.persistence.Entity;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClassFileHeaderTest {
+
+    @Test
+    public void readsTheClassName() throws Exception {
+        assertThat(header(Person.class).getClassName()).isEqualTo(Person.class.getName());
+        assertThat(header(Nested.class).getClassName()).isEqualTo(Nested.class.getName());
+    }
+
+    @Test
+    public void readsTheAccessFlags() throws Exception {
+        assertThat(header(Person.class).isPublic()).isTrue();
+        assertThat(header(Person.class).isAnnotation()).isFalse();
+        assertThat(header(Person.class).isEnum()).isFalse();
+        assertThat(header(Personable.class).isAnnotation()).isTrue();
+        assertThat(header(PersonType.class).isEnum()).isTrue();
+    }
+
+    @Test
+    public void readsTheClassAnnotations() throws Exception {
+        assertThat(header(Person.class).isAnnotatedWith(Entity.class)).isTrue();
+        assertThat(header(PersonType.class).isAnnotatedWith(Entity.class)).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedClassFiles() throws Exception {
+        final byte[] bytes = bytes(Person.class);
+        ClassFileHeader.parse(Arrays.copyOf(bytes, bytes.length / 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherFiles() {
+        ClassFileHeader.parse("not a class file".getBytes());
+    }
+
+    private static ClassFileHeader header(Class<?> type) throws Exception {
+        return ClassFileHeader.parse(bytes(type));
+    }
+
+    private static byte[] bytes(Class<?> type) throws Exception {
+        final String resource = type.getName().replace('.', '/') + ".class";
+        try (InputStream in = type.getClassLoader().getResourceAsStream(resource)) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    static class Nested {
+    }
+}
@@ -0,0 +1,127 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import io.dropwizard.db.ManagedDataSource;
+import io.dropwizard.util.Duration;
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateEntityManager;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
+import javax.ws.rs.ServiceUnavailableException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DeferredEntityManagerFactoryTest {
+    private final EntityManagerFactory factory = mock(EntityManagerFactory.class);
+    private final ManagedDataSource dataSource = mock(ManagedDataSource.class);
+    private final CountDownLatch built = new CountDownLatch(1);
+
+    @After
+    public void tearDown() throws Exception {
+        built.countDown();
+        EntityManagerContext.unBindAll(em -> {});
+    }
+
+    @Test
+    public void delegatesOnceBuilt() throws Exception {
+        final DeferredEntityManagerFactory deferred = deferred(Duration.seconds(5));
+        assertThat(deferred.isInitializing()).isTrue();
+        built.countDown();
+
+        deferred.getCache();
+
+        verify(factory).getCache();
+        verify(dataSource).start();
+        assertThat(deferred.isInitializing()).isFalse();
+    }
+
+    @Test
+    public void failsFastWhileInitializing() throws Exception {
+        final DeferredEntityManagerFactory deferred = deferred(Duration.milliseconds(0));
+
+        try {
+            deferred.createEntityManager();
+            fail("Should have thrown an exception");
+        } catch (ServiceUnavailableException e) {
+            assertThat(e.getResponse().getStatus()).isEqualTo(503);
+        }
+    }
+
+    @Test
+    public void reportsTheBuildFailure() throws Exception {
+        final DeferredEntityManagerFactory deferred = new DeferredEntityManagerFactory("test", Duration.seconds(5),
+                () -> {
+                    throw new IllegalStateException("Schema validation failed");
+                });
+
+        try {
+            deferred.createEntityManager();
+            fail("Should have thrown an exception");
+        } catch (PersistenceException e) {
+            assertThat(e.getCause()).hasMessage("Schema validation failed");
+        }
+        assertThat(deferred.isOpen()).isFalse();
+        deferred.stop();
+    }
+
+    @Test
+    public void closesTheFactoryWhenStopped() throws Exception {
+        final DeferredEntityManagerFactory deferred = deferred(Duration.seconds(5));
+        built.countDown();
+
+        deferred.stop();
+
+        verify(factory).close();
+        verify(dataSource).stop();
+    }
+
+    @Test
+    public void stopsWaitingForABuildThatDoesNotComplete() throws Exception {
+        final DeferredEntityManagerFactory deferred = new DeferredEntityManagerFactory("test", Duration.seconds(5),
+                Duration.milliseconds(10), this::build);
+
+        deferred.stop();
+
+        assertThat(deferred.isInitializing()).isFalse();
+        assertThat(deferred.isOpen()).isFalse();
+        built.countDown();
+        verify(factory, timeout(5000)).close();
+        verify(dataSource, timeout(5000)).stop();
+    }
+
+    @Test
+    public void bindsEntityManagersForTheDeferredFactory() throws Exception {
+        final HibernateEntityManager entityManager = mock(HibernateEntityManager.class);
+        when(factory.createEntityManager()).thenReturn(entityManager);
+        when(entityManager.getEntityManagerFactory()).thenReturn(factory);
+        when(entityManager.getSession()).thenReturn(mock(Session.class));
+        when(entityManager.getTransaction()).thenReturn(mock(EntityTransaction.class));
+        final DeferredEntityManagerFactory deferred = deferred(Duration.seconds(5));
+        built.countDown();
+
+        new UnitOfWorks("test", deferred).run(() ->
+                assertThat(new EntityManagerContext(deferred).currentEntityManager()).isSameAs(entityManager));
+    }
+
+    private DeferredEntityManagerFactory deferred(Duration maxWait) {
+        return new DeferredEntityManagerFactory("test", maxWait, this::build);
+    }
+
+    private EntityManagerFactoryManager build() {
+        try {
+            built.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        return new EntityManagerFactoryManager(factory, dataSource);
+    }
+}
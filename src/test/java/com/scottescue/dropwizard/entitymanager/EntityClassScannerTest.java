@@ -0,0 +1,157 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.google.common.collect.ImmutableList;
+import com.scottescue.dropwizard.entitymanager.entity.fake.entities.pckg.FakeEntity1;
+import com.scottescue.dropwizard.entitymanager.entity.fake.entities.pckg.deep.DeepFakeEntity;
+import com.scottescue.dropwizard.entitymanager.entity.fake.entities.pckg.deep.deeper.DeeperFakeEntity;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.Modifier;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.annotation.Annotation;
+import javassist.bytecode.annotation.StringMemberValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.persistence.Entity;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EntityClassScannerTest {
+    private static final String PACKAGE = "com.example.generated";
+    private static final int CLASSES = 2000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scansPackagesAndSubpackages() {
+        final EntityClassScanner scanner = new EntityClassScanner(getClass().getClassLoader());
+
+        assertThat(scanner.scan(ImmutableList.of(FakeEntity1.class.getPackage().getName())))
+                .containsExactly(FakeEntity1.class, DeepFakeEntity.class, DeeperFakeEntity.class);
+    }
+
+    @Test
+    public void scansGeneratedClassDirectories() throws Exception {
+        final File directory = folder.newFolder("classes");
+        final List<String> entities = generateClasses(directory);
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{directory.toURI().toURL()})) {
+            assertThat(names(new EntityClassScanner(classLoader).scan(ImmutableList.of(PACKAGE))))
+                    .isEqualTo(entities);
+        }
+    }
+
+    @Test
+    public void scansGeneratedJars() throws Exception {
+        final File directory = folder.newFolder("classes");
+        final List<String> entities = generateClasses(directory);
+        final File jar = jar(directory);
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{jar.toURI().toURL()})) {
+            assertThat(names(new EntityClassScanner(classLoader).scan(ImmutableList.of(PACKAGE + ".sub"))))
+                    .isEqualTo(entities.stream().filter(name -> name.startsWith(PACKAGE + ".sub.")).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void findsBytePatterns() {
+        final byte[] bytes = "LLjavax/persistence/Entity;".getBytes();
+
+        assertThat(EntityClassScanner.contains(bytes, "Ljavax/persistence/Entity;".getBytes())).isTrue();
+        assertThat(EntityClassScanner.contains(bytes, "Ljavax/persistence/Entity;;".getBytes())).isFalse();
+        assertThat(EntityClassScanner.contains(new byte[0], "L".getBytes())).isFalse();
+    }
+
+    /**
+     * Generates classes in the package and a subpackage: public entities, non-public entities, classes only
+     * referencing {@link Entity} through an annotation invisible at runtime, and plain classes.
+     *
+     * @return the names of the public entities, in order
+     */
+    private List<String> generateClasses(File directory) throws Exception {
+        final ClassPool pool = new ClassPool(true);
+        for (int i = 0; i < CLASSES; i++) {
+            final String packageName = packageName(i);
+            final CtClass ctClass = pool.makeClass(String.format("%s.Generated%04d", packageName, i));
+            final ClassFile classFile = ctClass.getClassFile();
+            switch (i % 8) {
+                case 0:
+                    ctClass.setModifiers(Modifier.PUBLIC);
+                    annotate(classFile, AnnotationsAttribute.visibleTag);
+                    break;
+                case 1:
+                    ctClass.setModifiers(0);
+                    annotate(classFile, AnnotationsAttribute.visibleTag);
+                    break;
+                case 2:
+                    ctClass.setModifiers(Modifier.PUBLIC);
+                    annotate(classFile, AnnotationsAttribute.invisibleTag);
+                    break;
+                default:
+                    ctClass.setModifiers(Modifier.PUBLIC);
+            }
+            ctClass.writeFile(directory.getPath());
+            ctClass.detach();
+        }
+        final List<String> entities = new ArrayList<>();
+        for (int i = 0; i < CLASSES; i += 8) {
+            entities.add(String.format("%s.Generated%04d", packageName(i), i));
+        }
+        entities.sort(String::compareTo);
+        return entities;
+    }
+
+    private static String packageName(int i) {
+        return (i / 8) % 2 == 0 ? PACKAGE : PACKAGE + ".sub";
+    }
+
+    private static void annotate(ClassFile classFile, String tag) {
+        final ConstPool constPool = classFile.getConstPool();
+        final AnnotationsAttribute attribute = new AnnotationsAttribute(constPool, tag);
+        final Annotation annotation = new Annotation(Entity.class.getName(), constPool);
+        annotation.addMemberValue("name", new StringMemberValue("generated", constPool));
+        attribute.addAnnotation(annotation);
+        classFile.addAttribute(attribute);
+    }
+
+    private File jar(File directory) throws Exception {
+        final File jar = folder.newFile("generated.jar");
+        final Path root = directory.toPath();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+             Stream<Path> files = Files.walk(root)) {
+            // Package directories are listed like in jars built by Maven, so the class loader finds them
+            for (Path file : (Iterable<Path>) files.filter(file -> !file.equals(root))::iterator) {
+                final String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+                if (Files.isDirectory(file)) {
+                    out.putNextEntry(new JarEntry(name + "/"));
+                } else {
+                    out.putNextEntry(new JarEntry(name));
+                    Files.copy(file, out);
+                }
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static List<String> names(List<Class<?>> classes) {
+        return classes.stream().map(Class::getName).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,90 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import org.hibernate.bytecode.enhance.spi.DefaultEnhancementContext;
+import org.hibernate.bytecode.enhance.spi.Enhancer;
+
+import javax.persistence.Entity;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compiles entity classes into a class directory, optionally running the {@link EntityIndexProcessor} or
+ * Hibernate's bytecode enhancer like an application's build does.
+ */
+final class EntityCompiler {
+    private EntityCompiler() {
+    }
+
+    /**
+     * @param directory the class directory
+     * @param indexed whether the entity index processor is run
+     * @param classNames the names of the entity classes
+     */
+    static void compile(File directory, boolean indexed, String... classNames) throws Exception {
+        final File sources = new File(directory.getParentFile(), directory.getName() + "-sources");
+        final List<String> arguments = new ArrayList<>();
+        arguments.add("-d");
+        arguments.add(directory.getPath());
+        arguments.add("-classpath");
+        arguments.add(location(Entity.class) + File.pathSeparator + location(EntityIndexProcessor.class));
+        if (indexed) {
+            arguments.add("-processor");
+            arguments.add(EntityIndexProcessor.class.getName());
+        } else {
+            arguments.add("-proc:none");
+        }
+        for (String className : classNames) {
+            arguments.add(writeSource(sources, className).getPath());
+        }
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertThat(compiler).as("a JDK compiler").isNotNull();
+        assertThat(compiler.run(null, null, null, arguments.toArray(new String[arguments.size()])))
+                .as("compilation of %s", (Object) classNames)
+                .isZero();
+    }
+
+    /**
+     * Enhances a compiled entity class in place, with the enhancer the hibernate-enhance-maven-plugin runs.
+     *
+     * @param directory the class directory
+     * @param className the name of the entity class
+     */
+    static void enhance(File directory, String className) throws Exception {
+        final Path file = directory.toPath().resolve(className.replace('.', '/') + ".class");
+        final byte[] enhanced = new Enhancer(new DefaultEnhancementContext())
+                .enhance(className, Files.readAllBytes(file));
+        assertThat(enhanced).as("enhanced %s", className).isNotNull();
+        Files.write(file, enhanced);
+    }
+
+    private static File writeSource(File sources, String className) throws IOException {
+        final int lastDot = className.lastIndexOf('.');
+        final String packageName = className.substring(0, lastDot);
+        final String simpleName = className.substring(lastDot + 1);
+        final File source = new File(sources, className.replace('.', '/') + ".java");
+        Files.createDirectories(source.getParentFile().toPath());
+        Files.write(source.toPath(), ("package " + packageName + ";\n" +
+                "@javax.persistence.Entity\n" +
+                "public class " + simpleName + " {\n" +
+                "    @javax.persistence.Id\n" +
+                "    private long id;\n" +
+                "}\n").getBytes(StandardCharsets.UTF_8));
+        return source;
+    }
+
+    private static String location(Class<?> type) throws URISyntaxException {
+        return Paths.get(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+    }
+}
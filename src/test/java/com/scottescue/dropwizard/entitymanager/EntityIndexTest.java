@@ -0,0 +1,86 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EntityIndexTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void indexesTheEntitiesAtCompileTime() throws Exception {
+        final File classes = folder.newFolder("classes");
+        EntityCompiler.compile(classes, true,
+                "com.example.users.User", "com.example.users.admin.Admin", "com.example.orders.Order");
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{classes.toURI().toURL()}, null)) {
+            final EntityIndex index = EntityIndex.load(classLoader);
+
+            assertThat(index.indexes(classes.toURI().toURL())).isTrue();
+            assertThat(index.classNamesIn("com.example.users"))
+                    .containsExactly("com.example.users.User", "com.example.users.admin.Admin");
+            assertThat(index.classNamesIn("com.example.orders")).containsExactly("com.example.orders.Order");
+        }
+    }
+
+    @Test
+    public void indexesOnlyTheRootsWithAnIndex() throws Exception {
+        final URL indexed = indexDirectory("indexed", "com.example.users.User");
+        final URL unindexed = folder.newFolder("unindexed").toURI().toURL();
+
+        final EntityIndex index = EntityIndex.load(new URLClassLoader(new URL[]{indexed, unindexed}, null));
+
+        assertThat(index.indexes(indexed)).isTrue();
+        assertThat(index.indexes(unindexed)).isFalse();
+    }
+
+    @Test
+    public void findsTheRootOfAResource() throws Exception {
+        assertThat(EntityIndex.rootOf(new URL("file:/app/classes/com/example/"), "com/example"))
+                .isEqualTo(new URL("file:/app/classes/"));
+        assertThat(EntityIndex.rootOf(new URL("jar:file:/app/lib/app.jar!/com/example"), "com/example"))
+                .isEqualTo(new URL("jar:file:/app/lib/app.jar!/"));
+        assertThat(EntityIndex.rootOf(new URL("jar:file:/app/lib/app.jar!/" + EntityIndex.LOCATION),
+                EntityIndex.LOCATION)).isEqualTo(new URL("jar:file:/app/lib/app.jar!/"));
+    }
+
+    @Test
+    public void mergesTheIndexOfEveryClassPathEntry() throws Exception {
+        final URLClassLoader classLoader = new URLClassLoader(new URL[]{
+                indexDirectory("first", "com.example.users.User", "# generated", "", "com.example.orders.Order"),
+                indexDirectory("second", "com.example.users.Account")
+        }, null);
+
+        final EntityIndex index = EntityIndex.load(classLoader);
+
+        assertThat(index.classNamesIn("com.example.users"))
+                .containsExactly("com.example.users.Account", "com.example.users.User");
+        assertThat(index.classNamesIn("com.example")).hasSize(3);
+        assertThat(index.classNamesIn("com.example.user")).isEmpty();
+    }
+
+    @Test
+    public void isEmptyWithoutAnIndex() throws Exception {
+        final URLClassLoader classLoader = new URLClassLoader(new URL[]{folder.newFolder().toURI().toURL()}, null);
+
+        assertThat(EntityIndex.load(classLoader).isEmpty()).isTrue();
+    }
+
+    private URL indexDirectory(String name, String... lines) throws IOException {
+        final File directory = folder.newFolder(name);
+        final File index = new File(directory, EntityIndex.LOCATION);
+        assertThat(index.getParentFile().mkdirs()).isTrue();
+        Files.write(index.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        return directory.toURI().toURL();
+    }
+}
@@ -9,11 +9,14 @@ import com.scottescue.dropwizard.entitymanager.entity.Person;
 import com.scottescue.dropwizard.entitymanager.entity.fake.entities.pckg.FakeEntity1;
 import io.dropwizard.Configuration;
 import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.db.ManagedDataSource;
 import io.dropwizard.db.PooledDataSourceFactory;
 import io.dropwizard.jersey.DropwizardResourceConfig;
 import io.dropwizard.jersey.setup.JerseyEnvironment;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -165,6 +168,25 @@ public class EntityManagerBundleTest {
         verify(healthChecks).register(eq("custom-hibernate"), captor.capture());
     }
 
+    @Test
+    public void buildsTheEntityManagerFactoryInTheBackground() throws Exception {
+        final LifecycleEnvironment lifecycle = mock(LifecycleEnvironment.class);
+        when(environment.lifecycle()).thenReturn(lifecycle);
+        when(factory.buildManaged(bundle, environment, dbConfig, entities, "hibernate-entitymanager"))
+                .thenReturn(new EntityManagerFactoryManager(entityManagerFactory, mock(ManagedDataSource.class)));
+
+        bundle.enableBackgroundInitialization(Duration.seconds(5));
+        bundle.run(configuration, environment);
+
+        assertThat(bundle.getEntityManagerFactory()).isInstanceOf(DeferredEntityManagerFactory.class);
+        verify(lifecycle).manage((DeferredEntityManagerFactory) bundle.getEntityManagerFactory());
+        verify(factory, never()).build(any(EntityManagerBundle.class), any(Environment.class),
+                any(DataSourceFactory.class), anyList(), anyString());
+
+        bundle.getEntityManagerFactory().getCache();
+        verify(entityManagerFactory).getCache();
+    }
+
     @Test
     public void serializingLazyLoadedEntitiesConfigChanges() {
         bundle.setSerializeLazyLoadedEntitiesEnabled(false);
@@ -185,4 +207,30 @@ public class EntityManagerBundleTest {
         // Ensure the value IS NOT changed since the bundle was already initialized
         assertThat(bundle.isSerializeLazyLoadedEntitiesEnabled()).isTrue();
     }
+
+    @Test
+    public void collectsFullStatisticsByDefault() {
+        assertThat(bundle.getStatisticsMode()).isEqualTo(StatisticsMode.FULL);
+        assertThat(bundle.getStatisticsSampleInterval()).isEqualTo(100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANonPositiveStatisticsSampleInterval() {
+        bundle.setStatisticsSampleInterval(0);
+    }
+
+    @Test
+    public void doesNotDetectRepeatedStatementsByDefault() {
+        assertThat(bundle.getRepeatedStatementThreshold()).isZero();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANonPositiveRepeatedStatementThreshold() {
+        bundle.enableRepeatedStatementDetection(0);
+    }
+
+    @Test
+    public void doesNotInstrumentJdbcByDefault() {
+        assertThat(bundle.isJdbcMetricsEnabled()).isFalse();
+    }
 }
@@ -1,5 +1,6 @@
 package com.scottescue.dropwizard.entitymanager;
 
+import org.junit.After;
 import org.junit.Test;
 
 import javax.persistence.EntityManager;
@@ -17,12 +18,17 @@ import static org.mockito.Mockito.when;
 public class EntityManagerContextTest {
     final private ExecutorService executor = Executors.newCachedThreadPool();
 
+    @After
+    public void tearDown() throws Exception {
+        EntityManagerContext.unBindAll(em -> {});
+    }
+
     @Test
     public void exposesEntityManagerToThread() {
         EntityManager em = createEntityManager();
         EntityManagerContext.bind(em);
 
-        Map<EntityManagerFactory, EntityManager> map = EntityManagerContext.entityManagerMap(false);
+        Map<EntityManagerFactory, EntityManager> map = EntityManagerContext.entityManagerMap();
         assertThat(map).isNotNull();
         assertThat(map.get(em.getEntityManagerFactory())).isSameAs(em);
     }
@@ -30,8 +36,7 @@ public class EntityManagerContextTest {
     @Test
     public void exposesCurrentEntityManagerToThread() {
         EntityManager em = createEntityManager();
-        Map<EntityManagerFactory, EntityManager> map = EntityManagerContext.entityManagerMap(true);
-        map.put(em.getEntityManagerFactory(), em);
+        EntityManagerContext.bind(em);
 
         EntityManagerContext entityManagerContext = new EntityManagerContext(em.getEntityManagerFactory());
         assertThat(entityManagerContext.currentEntityManager()).isSameAs(em);
@@ -43,7 +48,7 @@ public class EntityManagerContextTest {
         EntityManagerContext.bind(em);
 
         Boolean hasEntityManager = invoke(() -> {
-            Map<EntityManagerFactory, EntityManager> map = EntityManagerContext.entityManagerMap(false);
+            Map<EntityManagerFactory, EntityManager> map = EntityManagerContext.entityManagerMap();
             return map != null && map.get(em.getEntityManagerFactory()) == em;
         });
 
@@ -53,8 +58,7 @@ public class EntityManagerContextTest {
     @Test
     public void hidesCurrentEntityManagerOutsideThread() {
         final EntityManager em = createEntityManager();
-        Map<EntityManagerFactory, EntityManager> map = EntityManagerContext.entityManagerMap(true);
-        map.put(em.getEntityManagerFactory(), em);
+        EntityManagerContext.bind(em);
 
         Throwable throwable = invoke((Callable<Throwable>) () -> {
             try {
@@ -72,12 +76,59 @@ public class EntityManagerContextTest {
     @Test
     public void removesEntityManagerFromThread() {
         EntityManager em = createEntityManager();
-        Map<EntityManagerFactory, EntityManager> map = EntityManagerContext.entityManagerMap(true);
-        map.put(em.getEntityManagerFactory(), em);
+        EntityManagerContext.bind(em);
         assertThat(EntityManagerContext.hasBind(em.getEntityManagerFactory())).isTrue();
 
         EntityManagerContext.unbind(em.getEntityManagerFactory());
-        assertThat(map.get(em.getEntityManagerFactory())).isNull();
+        assertThat(EntityManagerContext.hasBind(em.getEntityManagerFactory())).isFalse();
+        assertThat(EntityManagerContext.entityManagerMap()).isNull();
+    }
+
+    @Test
+    public void capturesAnUnchangingSnapshotOfTheBindings() {
+        EntityManager em = createEntityManager();
+        EntityManager other = createEntityManager();
+        EntityManagerContext.bind(em);
+
+        EntityManagerBindings snapshot = EntityManagerContext.capture();
+        EntityManagerContext.bind(other);
+        EntityManagerContext.unbind(em);
+        assertThat(snapshot.entityManagers()).containsOnlyKeys(em.getEntityManagerFactory());
+
+        EntityManagerContext.restore(snapshot);
+        assertThat(EntityManagerContext.entityManagerMap()).containsOnlyKeys(em.getEntityManagerFactory());
+
+        EntityManagerContext.unBindAll(entityManager -> {});
+        assertThat(EntityManagerContext.entityManagerMap()).isNull();
+    }
+
+    @Test
+    public void isolatesEntityManagersBetweenConcurrentThreads() throws Exception {
+        final int threads = 8;
+        final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            tasks.add(() -> {
+                EntityManager em = mock(EntityManager.class);
+                when(em.getEntityManagerFactory()).thenReturn(emf);
+                EntityManagerContext entityManagerContext = new EntityManagerContext(emf);
+
+                barrier.await();
+                boolean isolated = true;
+                for (int j = 0; j < 1000; j++) {
+                    EntityManagerContext.bind(em);
+                    isolated &= entityManagerContext.currentEntityManager() == em;
+                    EntityManagerContext.unbind(emf);
+                    isolated &= !EntityManagerContext.hasBind(emf);
+                }
+                return isolated;
+            });
+        }
+
+        for (Future<Boolean> result : executor.invokeAll(tasks)) {
+            assertThat(result.get()).isTrue();
+        }
     }
 
     private EntityManager createEntityManager() {
@@ -123,6 +123,77 @@ public class EntityManagerFactoryFactoryTest {
         }
     }
 
+    @Test
+    public void exportsStatisticsUntilClosed() throws Exception {
+        when(bundle.isEntityMetricsEnabled()).thenReturn(true);
+        build();
+        final String prefix = bundle.name() + ".";
+
+        final EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.close();
+
+        assertThat(metricRegistry.getGauges().get(prefix + "sessions.opened").getValue()).isEqualTo(1L);
+        assertThat(metricRegistry.getGauges().get(prefix + "sessions.closed").getValue()).isEqualTo(1L);
+
+        entityManagerFactory.close();
+        entityManagerFactory = null;
+
+        assertThat(metricRegistry.getNames().stream().filter(name -> name.startsWith(prefix))).isEmpty();
+    }
+
+    @Test
+    public void reportsNoStatisticsWhenTurnedOff() throws Exception {
+        when(bundle.getStatisticsMode()).thenReturn(StatisticsMode.OFF);
+        build();
+
+        assertThat(metricRegistry.getGauges().keySet().stream().filter(name -> name.startsWith(bundle.name() + ".")))
+                .isEmpty();
+    }
+
+    @Test
+    public void recordsStatementsWhenDetectingRepeatedStatements() throws Exception {
+        when(bundle.getRepeatedStatementThreshold()).thenReturn(1);
+        build();
+
+        final StatementLog log = new StatementLog(bundle.name());
+        final EntityManager entityManager = entityManagerFactory.createEntityManager();
+        log.bind();
+        try {
+            entityManager.createNativeQuery("select 1 from INFORMATION_SCHEMA.SYSTEM_USERS").getResultList();
+        } finally {
+            log.unbind();
+            entityManager.close();
+        }
+
+        assertThat(log.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void instrumentsJdbcWhenEnabled() throws Exception {
+        when(bundle.isJdbcMetricsEnabled()).thenReturn(true);
+        build();
+
+        final EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.createNativeQuery("select 1 from INFORMATION_SCHEMA.SYSTEM_USERS").getResultList();
+        } finally {
+            entityManager.close();
+        }
+
+        final String prefix = bundle.name() + ".jdbc.";
+        assertThat(metricRegistry.timer(prefix + "prepare").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.timer(prefix + "execute").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.histogram(prefix + "rows").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void doesNotInstrumentJdbcByDefault() throws Exception {
+        build();
+
+        assertThat(metricRegistry.getNames().stream().filter(name -> name.startsWith(bundle.name() + ".jdbc.")))
+                .isEmpty();
+    }
+
     @Test
     public void configureRunsBeforeSessionFactoryCreation(){
         final String expectedFactoryName = "Dropwizard Hibernate JPA Test Factory";
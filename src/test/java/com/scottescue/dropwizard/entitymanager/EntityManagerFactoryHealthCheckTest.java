@@ -1,10 +1,13 @@
 package com.scottescue.dropwizard.entitymanager;
 
 import com.codahale.metrics.health.HealthCheck;
+import io.dropwizard.db.ManagedDataSource;
+import io.dropwizard.util.Duration;
 import org.junit.Test;
 import org.mockito.InOrder;
 
 import javax.persistence.*;
+import java.util.concurrent.CountDownLatch;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.anyString;
@@ -76,4 +79,27 @@ public class EntityManagerFactoryHealthCheckTest {
 
         verify(transaction, never()).commit();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void isUnhealthyWhileInitializing() throws Exception {
+        final CountDownLatch built = new CountDownLatch(1);
+        final DeferredEntityManagerFactory deferred = new DeferredEntityManagerFactory("test", Duration.seconds(0),
+                () -> {
+                    try {
+                        built.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return new EntityManagerFactoryManager(factory, mock(ManagedDataSource.class));
+                });
+        try {
+            final HealthCheck.Result result = new EntityManagerFactoryHealthCheck(deferred, "SELECT 1").execute();
+
+            assertThat(result.isHealthy()).isFalse();
+            assertThat(result.getMessage()).isEqualTo("initializing");
+            verify(factory, never()).createEntityManager();
+        } finally {
+            built.countDown();
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.scottescue.dropwizard.entitymanager;
 
+import com.codahale.metrics.MetricRegistry;
 import io.dropwizard.db.ManagedDataSource;
 import org.junit.Test;
 
 import javax.persistence.EntityManagerFactory;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
@@ -27,6 +29,16 @@ public class EntityManagerFactoryManagerTest {
         verify(dataSource).stop();
     }
 
+    @Test
+    public void removesTheJdbcMetricsOnStopping() throws Exception {
+        final MetricRegistry metrics = new MetricRegistry();
+        final InstrumentedDataSource instrumentedDataSource = new InstrumentedDataSource(dataSource, metrics, "db");
+
+        new EntityManagerFactoryManager(factory, dataSource, instrumentedDataSource).stop();
+
+        assertThat(metrics.getNames()).isEmpty();
+    }
+
     @Test
     public void startsTheDataSourceOnStarting() throws Exception {
         manager.start();
@@ -0,0 +1,154 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.codahale.metrics.MetricRegistry;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InstrumentedDataSourceTest {
+    private static final String INSERT = "insert into people (id, name) values (?, ?)";
+    private static final String SELECT = "select name from people where id > ?";
+    private static final String INSERT_METRICS = "db.jdbc.sql." +
+            StatementLog.key("insert into people (id, name) values (?)");
+    private static final String SELECT_METRICS = "db.jdbc.sql." + StatementLog.key(SELECT);
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private InstrumentedDataSource dataSource;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        final JDBCDataSource hsqldb = new JDBCDataSource();
+        hsqldb.setUrl("jdbc:hsqldb:mem:InstrumentedDataSourceTest-" + System.nanoTime());
+        hsqldb.setUser("sa");
+        dataSource = new InstrumentedDataSource(hsqldb, metrics, "db");
+        connection = dataSource.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table people (id integer primary key, name varchar(32))");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    public void timesPreparationsAndExecutions() throws Exception {
+        try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+            statement.setInt(1, 1);
+            statement.setString(2, "Coda Hale");
+            statement.executeUpdate();
+        }
+
+        assertThat(metrics.timer("db.jdbc.prepare").getCount()).isEqualTo(1);
+        // The table was created by a plain statement
+        assertThat(metrics.timer("db.jdbc.execute").getCount()).isEqualTo(2);
+        assertThat(metrics.timer(INSERT_METRICS + ".prepare").getCount()).isEqualTo(1);
+        assertThat(metrics.timer(INSERT_METRICS + ".execute").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void recordsTheSizeOfBatches() throws Exception {
+        try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+            for (int id = 1; id <= 3; id++) {
+                statement.setInt(1, id);
+                statement.setString(2, "Person " + id);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+
+        assertThat(metrics.histogram("db.jdbc.batch-size").getSnapshot().getValues()).containsExactly(3);
+        assertThat(metrics.histogram(INSERT_METRICS + ".batch-size").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void recordsTheRowsFetchedFromEachResultSet() throws Exception {
+        insertPeople(5);
+
+        try (PreparedStatement statement = connection.prepareStatement(SELECT)) {
+            statement.setInt(1, 2);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    assertThat(resultSet.getString(1)).startsWith("Person");
+                }
+            }
+        }
+
+        assertThat(metrics.timer("db.jdbc.fetch").getCount()).isEqualTo(1);
+        assertThat(metrics.histogram("db.jdbc.rows").getSnapshot().getValues()).containsExactly(3);
+        assertThat(metrics.histogram(SELECT_METRICS + ".rows").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void recordsAPartiallyIteratedResultSetWhenClosed() throws Exception {
+        insertPeople(5);
+
+        try (PreparedStatement statement = connection.prepareStatement(SELECT)) {
+            statement.setInt(1, 0);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+            }
+        }
+
+        assertThat(metrics.histogram("db.jdbc.rows").getSnapshot().getValues()).containsExactly(1);
+    }
+
+    @Test
+    public void shapesTheSqlOfPlainStatements() throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("insert into people (id, name) values (1, 'Coda Hale')");
+            statement.executeUpdate("insert into people (id, name) values (2, 'Scott Escue')");
+        }
+
+        assertThat(metrics.timer(INSERT_METRICS + ".execute").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void keepsTheMetricsOfABoundedNumberOfShapes() throws Exception {
+        for (int column = 0; column <= 1_000; column++) {
+            connection.prepareStatement("select name as c" + column + " from people").close();
+        }
+
+        assertThat(metrics.getTimers((metricName, metric) ->
+                metricName.startsWith("db.jdbc.sql.") && metricName.endsWith(".prepare")).size())
+                .isLessThanOrEqualTo(1_000);
+    }
+
+    @Test
+    public void removesItsMetrics() throws Exception {
+        insertPeople(1);
+
+        dataSource.removeMetrics();
+
+        assertThat(metrics.getNames().stream().anyMatch(metricName -> metricName.startsWith("db.jdbc."))).isFalse();
+    }
+
+    @Test
+    public void wrapsEachStatementInAProxyEqualOnlyToItself() throws Exception {
+        try (PreparedStatement statement = connection.prepareStatement(SELECT);
+             PreparedStatement other = connection.prepareStatement(SELECT)) {
+            assertThat(statement).isEqualTo(statement);
+            assertThat(statement).isNotEqualTo(other);
+        }
+    }
+
+    private void insertPeople(int count) throws Exception {
+        try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+            for (int id = 1; id <= count; id++) {
+                statement.setInt(1, id);
+                statement.setString(2, "Person " + id);
+                statement.executeUpdate();
+            }
+        }
+    }
+}
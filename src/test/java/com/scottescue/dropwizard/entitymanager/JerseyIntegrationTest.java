@@ -14,11 +14,14 @@ import javax.persistence.EntityManager;
 import javax.persistence.PersistenceException;
 import javax.ws.rs.*;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.ExceptionMapper;
 import java.sql.SQLDataException;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
@@ -85,6 +88,14 @@ public class JerseyIntegrationTest extends AbstractIntegrationTest {
         public void save(Person person) {
             service.persist(person);
         }
+
+        @GET
+        @Path("async")
+        @UnitOfWork(readOnly = true)
+        public void findAsync(@PathParam("name") String name, @Suspended AsyncResponse asyncResponse) {
+            final Optional<Person> person = service.findByName(name);
+            ForkJoinPool.commonPool().execute(() -> asyncResponse.resume(person.orNull()));
+        }
     }
 
     public static class DataExceptionMapper implements ExceptionMapper<PersistenceException> {
@@ -123,6 +134,18 @@ public class JerseyIntegrationTest extends AbstractIntegrationTest {
                 .isEqualTo(new DateTime(1979, 1, 2, 0, 22, DateTimeZone.UTC));
     }
 
+    @Test
+    public void findsExistingDataAsynchronously() throws Exception {
+        final Person coda = client.target(getUrl("/people/Coda/async")).request(MediaType.APPLICATION_JSON)
+                .get(Person.class);
+
+        assertThat(coda.getName())
+                .isEqualTo("Coda");
+
+        assertThat(coda.getEmail())
+                .isEqualTo("coda@example.com");
+    }
+
     @Test
     public void doesNotFindMissingData() throws Exception {
         try {
@@ -0,0 +1,370 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.scottescue.dropwizard.entitymanager.entity.Person;
+import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import io.dropwizard.logging.BootstrapLogging;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Size;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.SharedCacheMode;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LocalCacheRegionFactoryTest {
+    static {
+        BootstrapLogging.bootstrap();
+    }
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final SecondLevelCacheFactory configuration = new SecondLevelCacheFactory();
+    private LocalCacheRegionFactory regionFactory;
+    private EntityManagerFactory entityManagerFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        final SecondLevelCacheFactory.Region small = new SecondLevelCacheFactory.Region();
+        small.setMaximumSize(1L);
+        configuration.getRegions().put("small", small);
+        final SecondLevelCacheFactory.Region offHeap = new SecondLevelCacheFactory.Region();
+        offHeap.setOffHeapSize(Size.bytes(256));
+        configuration.getRegions().put("off-heap", offHeap);
+        final SecondLevelCacheFactory.Region bytes = new SecondLevelCacheFactory.Region();
+        bytes.setMaximumBytes(Size.kilobytes(1));
+        configuration.getRegions().put("bytes", bytes);
+
+        final Properties properties = new Properties();
+        properties.putAll(configuration.integrationSettings("test", metrics));
+        regionFactory = new LocalCacheRegionFactory(properties);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+
+    @Test
+    public void cachesEntitiesOfTheBundle() throws Exception {
+        entityManagerFactory = buildEntityManagerFactory();
+        find("Scott");
+        find("Scott");
+
+        final String region = "cached.second-level-cache." + Person.class.getName();
+        assertThat(metrics.meter(region + ".misses").getCount()).isEqualTo(1);
+        assertThat(metrics.meter(region + ".puts").getCount()).isEqualTo(1);
+        assertThat(metrics.meter(region + ".hits").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void cachesQueriesUntilTheirTablesAreUpdated() throws Exception {
+        configuration.setQueryCacheEnabled(true);
+        entityManagerFactory = buildEntityManagerFactory();
+        final UnitOfWorks unitOfWorks = new UnitOfWorks("cached", entityManagerFactory);
+        final EntityManager sharedEntityManager = new SharedEntityManager(new EntityManagerContext(entityManagerFactory));
+        final UnitOfWorkSettings settings = UnitOfWorkSettings.defaults().withCacheableQueries(true);
+        final String query = "select p from Person p where p.email = 'scott@example.com'";
+        final Runnable findByEmail = () -> assertThat(sharedEntityManager.createQuery(query, Person.class)
+                .getResultList()).extracting(Person::getName).containsExactly("Scott");
+
+        unitOfWorks.run("cached", settings, findByEmail);
+        unitOfWorks.run("cached", settings, findByEmail);
+
+        final String metric = "cached.query-cache." + StatementLog.key("select p from Person p where p.email = ?");
+        assertThat(metrics.meter(metric + ".misses").getCount()).isEqualTo(1);
+        assertThat(metrics.meter(metric + ".puts").getCount()).isEqualTo(1);
+        assertThat(metrics.meter(metric + ".hits").getCount()).isEqualTo(1);
+
+        unitOfWorks.run("cached", settings, () ->
+                sharedEntityManager.createQuery("update Person set birthday = null").executeUpdate());
+        unitOfWorks.run("cached", settings, findByEmail);
+
+        assertThat(metrics.meter(metric + ".misses").getCount()).isEqualTo(2);
+        assertThat(metrics.meter(metric + ".hits").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void leavesQueriesUncachedByDefault() throws Exception {
+        configuration.setQueryCacheEnabled(true);
+        entityManagerFactory = buildEntityManagerFactory();
+        final UnitOfWorks unitOfWorks = new UnitOfWorks("cached", entityManagerFactory);
+        final EntityManager sharedEntityManager = new SharedEntityManager(new EntityManagerContext(entityManagerFactory));
+
+        unitOfWorks.run(() -> sharedEntityManager.createQuery("select p from Person p").getResultList());
+
+        assertThat(metrics.getMeters((name, metric) -> name.startsWith("cached.query-cache."))).isEmpty();
+    }
+
+    @Test
+    public void issuesIncreasingTimestamps() {
+        final long first = regionFactory.nextTimestamp();
+        final long second = regionFactory.nextTimestamp();
+
+        assertThat(second).isGreaterThan(first);
+        assertThat(first / LocalCacheRegionFactory.TIMESTAMPS_PER_MILLISECOND)
+                .isLessThanOrEqualTo(System.currentTimeMillis());
+    }
+
+    @Test
+    public void locksUpdatedItemsUntilTheUpdateCompletes() {
+        final EntityRegionAccessStrategy strategy = strategy("region", AccessType.READ_WRITE);
+        strategy.putFromLoad(null, "key", "loaded", 0, null);
+
+        final SoftLock lock = strategy.lockItem(null, "key", null);
+
+        assertThat(strategy.get(null, "key", 0)).isNull();
+        assertThat(strategy.putFromLoad(null, "key", "stale", 0, null)).isFalse();
+        assertThat(strategy.afterUpdate(null, "key", "updated", null, null, lock)).isTrue();
+        assertThat(strategy.get(null, "key", 0)).isEqualTo("updated");
+    }
+
+    @Test
+    public void keepsRemovedItemsLockedUntilTheRemovalCompletes() {
+        final EntityRegionAccessStrategy strategy = strategy("region", AccessType.READ_WRITE);
+        strategy.putFromLoad(null, "key", "loaded", 0, null);
+
+        final SoftLock lock = strategy.lockItem(null, "key", null);
+        strategy.remove(null, "key");
+
+        assertThat(strategy.putFromLoad(null, "key", "stale", 0, null)).isFalse();
+        strategy.unlockItem(null, "key", lock);
+        assertThat(strategy.putFromLoad(null, "key", "reloaded", regionFactory.nextTimestamp(), null)).isTrue();
+    }
+
+    @Test
+    public void doesNotCacheItemsLoadedBeforeTheirRemovalCompleted() {
+        final EntityRegionAccessStrategy strategy = strategy("region", AccessType.READ_WRITE);
+        final long loadStarted = regionFactory.nextTimestamp();
+
+        final SoftLock lock = strategy.lockItem(null, "key", null);
+        strategy.remove(null, "key");
+        strategy.unlockItem(null, "key", lock);
+
+        assertThat(strategy.putFromLoad(null, "key", "stale", loadStarted, null)).isFalse();
+        assertThat(strategy.get(null, "key", 0)).isNull();
+        assertThat(strategy.putFromLoad(null, "key", "reloaded", regionFactory.nextTimestamp(), null)).isTrue();
+    }
+
+    @Test
+    public void doesNotCacheItemsLoadedBeforeTheRegionWasUnlocked() {
+        final EntityRegionAccessStrategy strategy = strategy("region", AccessType.READ_WRITE);
+        final long loadStarted = regionFactory.nextTimestamp();
+
+        final SoftLock lock = strategy.lockRegion();
+        assertThat(strategy.putFromLoad(null, "key", "stale", regionFactory.nextTimestamp(), null)).isFalse();
+        strategy.unlockRegion(lock);
+
+        assertThat(strategy.putFromLoad(null, "key", "stale", loadStarted, null)).isFalse();
+        assertThat(strategy.putFromLoad(null, "key", "reloaded", regionFactory.nextTimestamp(), null)).isTrue();
+    }
+
+    @Test
+    public void keepsItemsLockedWhenTheRegionIsEvicted() {
+        final EntityRegionAccessStrategy strategy = strategy("small", AccessType.READ_WRITE);
+        final SoftLock lock = strategy.lockItem(null, "key", null);
+
+        strategy.putFromLoad(null, "other", "loaded", 0, null);
+        strategy.evictAll();
+
+        assertThat(strategy.putFromLoad(null, "key", "stale", 0, null)).isFalse();
+        assertThat(strategy.get(null, "key", 0)).isNull();
+        assertThat(strategy.afterUpdate(null, "key", "updated", null, null, lock)).isTrue();
+        assertThat(strategy.get(null, "key", 0)).isEqualTo("updated");
+    }
+
+    @Test
+    public void evictsUpdatedItemsWhoseLockIsGone() {
+        final EntityRegionAccessStrategy strategy = strategy("region", AccessType.READ_WRITE);
+        final SoftLock lock = strategy.lockItem(null, "key", null);
+        strategy.unlockItem(null, "key", lock);
+        strategy.putFromLoad(null, "key", "stale", 0, null);
+
+        assertThat(strategy.afterUpdate(null, "key", "updated", null, null, lock)).isFalse();
+
+        assertThat(strategy.get(null, "key", 0)).isNull();
+    }
+
+    @Test
+    public void evictsItemsUpdatedWithNonstrictAccess() {
+        final EntityRegionAccessStrategy strategy = strategy("region", AccessType.NONSTRICT_READ_WRITE);
+        strategy.putFromLoad(null, "key", "loaded", 0, null);
+
+        assertThat(strategy.update(null, "key", "updated", null, null)).isFalse();
+
+        assertThat(strategy.get(null, "key", 0)).isNull();
+    }
+
+    @Test
+    public void rejectsUpdatesOfReadOnlyItems() {
+        final EntityRegionAccessStrategy strategy = strategy("region", AccessType.READ_ONLY);
+
+        assertThatThrownBy(() -> strategy.update(null, "key", "updated", null, null))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void rejectsTransactionalAccess() {
+        assertThatThrownBy(() -> strategy("region", AccessType.TRANSACTIONAL))
+                .isInstanceOf(CacheException.class);
+    }
+
+    @Test
+    public void boundsRegionsBySize() {
+        final EntityRegionAccessStrategy strategy = strategy("small", AccessType.READ_WRITE);
+
+        strategy.putFromLoad(null, "first", "value", 0, null);
+        strategy.putFromLoad(null, "second", "value", 0, null);
+
+        assertThat(strategy.getRegion().getElementCountInMemory()).isEqualTo(1);
+        assertThat(metrics.meter("test.second-level-cache.small.evictions").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void boundsRegionsByBytes() {
+        final EntityRegionAccessStrategy strategy = strategy("bytes", AccessType.READ_WRITE);
+
+        for (int i = 0; i < 100; i++) {
+            strategy.putFromLoad(null, i, Strings.repeat("a", 100), 0, null);
+        }
+
+        assertThat(LocalCacheRegion.weigh("key", Strings.repeat("a", 100))).isGreaterThan(100);
+        assertThat(strategy.getRegion().getElementCountInMemory()).isBetween(1L, 10L);
+        assertThat(metrics.meter("test.second-level-cache.bytes.evictions").getCount()).isPositive();
+    }
+
+    @Test
+    public void storesEntriesOffHeap() {
+        final EntityRegionAccessStrategy strategy = strategy("off-heap", AccessType.READ_WRITE);
+        final String value = "loaded";
+
+        assertThat(strategy.putFromLoad(null, "key", value, 0, null)).isTrue();
+
+        assertThat(strategy.get(null, "key", 0)).isEqualTo(value).isNotSameAs(value);
+        assertThat(metrics.getGauges().get("test.second-level-cache.off-heap.off-heap.capacity").getValue())
+                .isEqualTo(256);
+        assertThat((Long) metrics.getGauges().get("test.second-level-cache.off-heap.off-heap.used").getValue())
+                .isPositive();
+    }
+
+    @Test
+    public void writesOffHeapOnlyTheValuesItCaches() {
+        final EntityRegionAccessStrategy strategy = strategy("off-heap", AccessType.READ_WRITE);
+        strategy.putFromLoad(null, "key", "loaded", 0, null);
+        final Object used = metrics.getGauges().get("test.second-level-cache.off-heap.off-heap.used").getValue();
+
+        assertThat(strategy.putFromLoad(null, "key", "again", 0, null)).isFalse();
+        final SoftLock first = strategy.lockItem(null, "key", null);
+        final SoftLock second = strategy.lockItem(null, "key", null);
+        assertThat(strategy.afterUpdate(null, "key", "updated", null, null, first)).isFalse();
+
+        assertThat(metrics.getGauges().get("test.second-level-cache.off-heap.off-heap.used").getValue())
+                .isEqualTo(used);
+        assertThat(strategy.afterUpdate(null, "key", "updated", null, null, second)).isTrue();
+        assertThat(strategy.get(null, "key", 0)).isEqualTo("updated");
+    }
+
+    @Test
+    public void evictsEntriesOverwrittenOffHeap() {
+        final EntityRegionAccessStrategy strategy = strategy("off-heap", AccessType.READ_WRITE);
+        strategy.putFromLoad(null, "first", Strings.repeat("a", 150), 0, null);
+        strategy.putFromLoad(null, "second", Strings.repeat("b", 150), 0, null);
+
+        assertThat(strategy.get(null, "first", 0)).isNull();
+        assertThat(strategy.get(null, "second", 0)).isEqualTo(Strings.repeat("b", 150));
+        assertThat(metrics.meter("test.second-level-cache.off-heap.evictions").getCount()).isEqualTo(1);
+        assertThat(strategy.putFromLoad(null, "first", "reloaded", 0, null)).isTrue();
+    }
+
+    @Test
+    public void removesTheMetricsOfDestroyedRegions() {
+        final EntityRegionAccessStrategy strategy = strategy("region", AccessType.READ_WRITE);
+        assertThat(metrics.getNames()).contains("test.second-level-cache.region.hits");
+
+        strategy.getRegion().destroy();
+
+        assertThat(metrics.getNames()).isEmpty();
+    }
+
+    @Test
+    public void keepsTheMetricsOfRegionsNamedAfterADestroyedOne() {
+        final EntityRegionAccessStrategy strategy = strategy("region", AccessType.READ_WRITE);
+        strategy("region.items", AccessType.READ_WRITE);
+
+        strategy.getRegion().destroy();
+
+        assertThat(metrics.getNames()).contains("test.second-level-cache.region.items.hits")
+                .doesNotContain("test.second-level-cache.region.hits");
+    }
+
+    @Test
+    public void requiresTheBundleConfiguration() {
+        assertThatThrownBy(() -> new LocalCacheRegionFactory(new Properties()))
+                .isInstanceOf(CacheException.class);
+    }
+
+    private EntityManagerFactory buildEntityManagerFactory() {
+        final EntityManagerBundle<?> bundle = mock(EntityManagerBundle.class);
+        when(bundle.name()).thenReturn("cached");
+        when(bundle.getSecondLevelCache()).thenReturn(configuration);
+        doAnswer(invocation -> ((PersistenceUnitConfig) invocation.getArguments()[0])
+                .setSharedCacheMode(SharedCacheMode.ALL))
+                .when(bundle).configure(any(PersistenceUnitConfig.class));
+        final Environment environment = mock(Environment.class);
+        when(environment.metrics()).thenReturn(metrics);
+        when(environment.lifecycle()).thenReturn(mock(LifecycleEnvironment.class));
+        final DataSourceFactory dbConfig = new DataSourceFactory();
+        dbConfig.setUrl("jdbc:hsqldb:mem:CacheTest-" + System.nanoTime());
+        dbConfig.setUser("sa");
+        dbConfig.setDriverClass("org.hsqldb.jdbcDriver");
+        dbConfig.setValidationQuery("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+
+        entityManagerFactory = new EntityManagerFactoryFactory()
+                .build(bundle, environment, dbConfig, ImmutableList.<Class<?>>of(Person.class));
+        execute("CREATE TABLE people (name varchar(100) primary key, email varchar(100), birthday timestamp)");
+        execute("INSERT INTO people VALUES ('Scott', 'scott@example.com', '1978-10-26 10:40:00')");
+        return entityManagerFactory;
+    }
+
+    private EntityRegionAccessStrategy strategy(String region, AccessType accessType) {
+        return regionFactory.buildEntityRegion(region, new Properties(), null).buildAccessStrategy(accessType);
+    }
+
+    private void execute(String sql) {
+        final EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            entityManager.createNativeQuery(sql).executeUpdate();
+            entityManager.getTransaction().commit();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private void find(String name) {
+        final EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            assertThat(entityManager.find(Person.class, name).getEmail()).isEqualTo("scott@example.com");
+        } finally {
+            entityManager.close();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+
+public class MeteredStatisticsTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final SessionFactoryImplementor sessionFactory = mock(SessionFactoryImplementor.class, RETURNS_DEEP_STUBS);
+
+    @Test
+    public void registersGaugesWhileEnabled() {
+        final MeteredStatistics statistics = new MeteredStatistics(sessionFactory, metrics, "db", StatisticsMode.FULL, 1, false, false);
+        assertThat(metrics.getGauges()).isEmpty();
+
+        statistics.setStatisticsEnabled(true);
+        statistics.openSession();
+        statistics.loadEntity("Person");
+        statistics.queryExecuted("from Person", 1, 42);
+        statistics.endTransaction(true);
+
+        assertThat(gauge("db.sessions.opened")).isEqualTo(1L);
+        assertThat(gauge("db.entities.loads")).isEqualTo(1L);
+        assertThat(gauge("db.queries.executions")).isEqualTo(1L);
+        assertThat(gauge("db.queries.max-time")).isEqualTo(42L);
+        assertThat(gauge("db.transactions.successful")).isEqualTo(1L);
+
+        statistics.setStatisticsEnabled(false);
+        assertThat(metrics.getGauges()).isEmpty();
+    }
+
+    @Test
+    public void reportsCacheHitRatios() {
+        final MeteredStatistics statistics = new MeteredStatistics(sessionFactory, metrics, "db", StatisticsMode.FULL, 1, false, false);
+        statistics.setStatisticsEnabled(true);
+
+        statistics.secondLevelCacheHit("Person");
+        statistics.secondLevelCacheHit("Person");
+        statistics.secondLevelCacheHit("Person");
+        statistics.secondLevelCacheMiss("Person");
+
+        assertThat(gauge("db.second-level-cache.hit-ratio")).isEqualTo(0.75);
+        assertThat((Double) gauge("db.query-cache.hit-ratio")).isNaN();
+    }
+
+    @Test
+    public void metersEachEntityAndQueryWhenSwitchedOn() {
+        final MeteredStatistics statistics = new MeteredStatistics(sessionFactory, metrics, "db", StatisticsMode.FULL, 1, true, true);
+        statistics.setStatisticsEnabled(true);
+
+        statistics.insertEntity("Person");
+        statistics.insertEntity("Person");
+        statistics.queryExecuted("from Person", 2, 10);
+
+        assertThat(metrics.meter("db.entities.Person.inserts").getCount()).isEqualTo(2);
+        assertThat(metrics.timer("db.queries." + StatementLog.key("from Person")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void namesQueryMetricsByTheKeyOfTheirShape() {
+        final MeteredStatistics statistics = new MeteredStatistics(sessionFactory, metrics, "db", StatisticsMode.FULL, 1, false, true);
+        statistics.setStatisticsEnabled(true);
+
+        statistics.queryExecuted("from Person where name = 'Scott'", 1, 10);
+        statistics.queryExecuted("from Person where name = 'Coda'", 1, 10);
+        statistics.queryCacheMiss("from Person where name = 'Scott'", "default");
+        statistics.queryCacheMiss("from Person where name = 'Coda'", "default");
+
+        final String key = StatementLog.key("from Person where name = ?");
+        assertThat(metrics.timer("db.queries." + key).getCount()).isEqualTo(2);
+        assertThat(metrics.meter("db.query-cache." + key + ".misses").getCount()).isEqualTo(2);
+        assertThat(metrics.getNames().stream().anyMatch(name -> name.contains("Person"))).isFalse();
+    }
+
+    @Test
+    public void givesMetricsToABoundedNumberOfShapes() {
+        final MeteredStatistics statistics = new MeteredStatistics(sessionFactory, metrics, "db", StatisticsMode.FULL, 1, false, true);
+        statistics.setStatisticsEnabled(true);
+
+        for (int alias = 0; alias <= 1_000; alias++) {
+            statistics.queryExecuted("from Person p" + alias, 1, 10);
+        }
+
+        assertThat(metrics.getTimers((name, metric) -> name.startsWith("db.queries."))).hasSize(1_000);
+    }
+
+    @Test
+    public void leavesEachEntityAndQueryUnmeteredByDefault() {
+        final MeteredStatistics statistics = new MeteredStatistics(sessionFactory, metrics, "db", StatisticsMode.FULL, 1, false, false);
+        statistics.setStatisticsEnabled(true);
+
+        statistics.insertEntity("Person");
+        statistics.queryExecuted("from Person", 2, 10);
+
+        assertThat(metrics.getMeters()).isEmpty();
+        assertThat(metrics.getTimers()).isEmpty();
+    }
+
+    @Test
+    public void removesItsMetricsWhenStopped() {
+        final MeteredStatistics statistics = new MeteredStatistics(sessionFactory, metrics, "db", StatisticsMode.FULL, 1, true, true);
+        statistics.setStatisticsEnabled(true);
+        statistics.insertEntity("Person");
+        statistics.queryExecuted("from Person", 2, 10);
+        statistics.queryCacheMiss("from Person", "default");
+        metrics.counter("db-pool.active");
+
+        statistics.stop();
+
+        assertThat(metrics.getNames()).containsExactly("db-pool.active");
+    }
+
+    @Test
+    public void recordsQueryTimesOfSampledSessionsOnly() {
+        final MeteredStatistics sampled = new MeteredStatistics(sessionFactory, metrics, "sampled",
+                StatisticsMode.SAMPLED, 1, false, true);
+        final MeteredStatistics unsampled = new MeteredStatistics(sessionFactory, metrics, "unsampled",
+                StatisticsMode.SAMPLED, Integer.MAX_VALUE, false, true);
+
+        for (MeteredStatistics statistics : new MeteredStatistics[] {sampled, unsampled}) {
+            statistics.setStatisticsEnabled(true);
+            statistics.openSession();
+            statistics.queryExecuted("from Person", 2, 10);
+            assertThat(statistics.getQueryExecutionCount()).isEqualTo(1);
+        }
+
+        assertThat(sampled.getQueryExecutionMaxTime()).isEqualTo(10);
+        assertThat(sampled.getQueryExecutionMaxTimeQueryString()).isEqualTo("from Person");
+        assertThat(metrics.timer("sampled.queries." + StatementLog.key("from Person")).getCount()).isEqualTo(1);
+        assertThat(unsampled.getQueryExecutionMaxTime()).isEqualTo(0);
+        assertThat(metrics.getTimers().keySet()).doesNotContain("unsampled.queries." + StatementLog.key("from Person"));
+    }
+
+    @Test
+    public void countsEventsFromManyThreads() throws Exception {
+        final MeteredStatistics statistics = new MeteredStatistics(sessionFactory, metrics, "db",
+                StatisticsMode.SAMPLED, 1, false, false);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10_000; j++) {
+                        statistics.loadEntity("Person");
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(80_000);
+    }
+
+    @Test
+    public void keepsHibernatesBreakdownsInFullMode() {
+        final MeteredStatistics statistics = new MeteredStatistics(sessionFactory, metrics, "db",
+                StatisticsMode.FULL, 1, false, false);
+        statistics.setStatisticsEnabled(true);
+
+        statistics.loadEntity("Person");
+        statistics.queryExecuted("from Person", 2, 10);
+        statistics.secondLevelCacheHit("Person");
+
+        assertThat(statistics.getEntityStatistics("Person").getLoadCount()).isEqualTo(1);
+        assertThat(statistics.getQueryStatistics("from Person").getExecutionCount()).isEqualTo(1);
+        assertThat(statistics.getSecondLevelCacheStatistics("Person").getHitCount()).isEqualTo(1);
+        assertThat(statistics.getQueryExecutionMaxTime()).isEqualTo(10);
+    }
+
+    @Test
+    public void keepsOnlyTotalsInSampledMode() {
+        final MeteredStatistics statistics = new MeteredStatistics(sessionFactory, metrics, "db",
+                StatisticsMode.SAMPLED, 1, false, false);
+        statistics.setStatisticsEnabled(true);
+
+        statistics.loadEntity("Person");
+
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(1);
+        assertThat(statistics.getEntityStatistics("Person").getLoadCount()).isZero();
+    }
+
+    @Test
+    public void clearsItsCounters() {
+        final MeteredStatistics statistics = new MeteredStatistics(sessionFactory, metrics, "db",
+                StatisticsMode.SAMPLED, 1, false, false);
+        statistics.flush();
+        statistics.queryExecuted("from Person", 2, 10);
+
+        statistics.clear();
+
+        assertThat(statistics.getFlushCount()).isZero();
+        assertThat(statistics.getQueryExecutionCount()).isZero();
+        assertThat(statistics.getQueryExecutionMaxTime()).isZero();
+        assertThat(statistics.getQueryExecutionMaxTimeQueryString()).isNull();
+    }
+
+    private Object gauge(String name) {
+        final Gauge<?> gauge = metrics.getGauges().get(name);
+        assertThat(gauge).as(name).isNotNull();
+        return gauge.getValue();
+    }
+}
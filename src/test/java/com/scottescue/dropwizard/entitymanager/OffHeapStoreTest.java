@@ -0,0 +1,62 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OffHeapStoreTest {
+    private final OffHeapStore store = new OffHeapStore(10);
+
+    @Test
+    public void readsWrittenArrays() {
+        final OffHeapStore.Address first = store.write(new byte[]{1, 2, 3});
+        final OffHeapStore.Address second = store.write(new byte[]{4, 5});
+
+        assertThat(store.read(first)).isEqualTo(new byte[]{1, 2, 3});
+        assertThat(store.read(second)).isEqualTo(new byte[]{4, 5});
+        assertThat(store.getUsed()).isEqualTo(5);
+    }
+
+    @Test
+    public void overwritesTheOldestArraysWhenFull() {
+        final OffHeapStore.Address first = store.write(new byte[]{1, 2, 3, 4});
+        final OffHeapStore.Address second = store.write(new byte[]{5, 6, 7, 8});
+        // Doesn't fit in the 2 remaining bytes, so it is written at the start of the buffer
+        final OffHeapStore.Address third = store.write(new byte[]{9, 10, 11});
+
+        assertThat(store.read(first)).isNull();
+        assertThat(store.isReadable(first)).isFalse();
+        assertThat(store.read(second)).isEqualTo(new byte[]{5, 6, 7, 8});
+        assertThat(store.read(third)).isEqualTo(new byte[]{9, 10, 11});
+        assertThat(store.getUsed()).isEqualTo(10);
+    }
+
+    @Test
+    public void neverReadsArraysBeingOverwritten() throws Exception {
+        final byte[] ones = new byte[4];
+        Arrays.fill(ones, (byte) 1);
+        final OffHeapStore.Address address = store.write(ones);
+        final CompletableFuture<Void> writes = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                store.write(new byte[]{2, 2, 2, 2});
+            }
+        });
+
+        while (!writes.isDone()) {
+            final byte[] bytes = store.read(address);
+            if (bytes != null) {
+                assertThat(bytes).isEqualTo(ones);
+            }
+        }
+        writes.get();
+        assertThat(store.read(address)).isNull();
+    }
+
+    @Test
+    public void rejectsArraysLargerThanTheStore() {
+        assertThat(store.write(new byte[11])).isNull();
+    }
+}
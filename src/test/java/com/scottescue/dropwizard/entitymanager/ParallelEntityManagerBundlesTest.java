@@ -0,0 +1,107 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.google.common.collect.ImmutableList;
+import com.scottescue.dropwizard.entitymanager.entity.Person;
+import io.dropwizard.Configuration;
+import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.jersey.DropwizardResourceConfig;
+import io.dropwizard.jersey.setup.JerseyEnvironment;
+import io.dropwizard.setup.Environment;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.*;
+
+public class ParallelEntityManagerBundlesTest {
+    private final DataSourceFactory dbConfig = new DataSourceFactory();
+    private final ImmutableList<Class<?>> entities = ImmutableList.<Class<?>>of(Person.class);
+    private final EntityManagerFactoryFactory factory = mock(EntityManagerFactoryFactory.class);
+    private final SharedEntityManagerFactory sharedEntityManagerFactory = mock(SharedEntityManagerFactory.class);
+    private final HealthCheckRegistry healthChecks = mock(HealthCheckRegistry.class);
+    private final Configuration configuration = mock(Configuration.class);
+    private final JerseyEnvironment jerseyEnvironment = mock(JerseyEnvironment.class);
+    private final Environment environment = mock(Environment.class);
+    private final EntityManagerFactory usersFactory = mock(EntityManagerFactory.class);
+    private final EntityManagerFactory ordersFactory = mock(EntityManagerFactory.class);
+    private final EntityManagerBundle<Configuration> usersBundle = bundle("users");
+    private final EntityManagerBundle<Configuration> ordersBundle = bundle("orders");
+
+    @Before
+    public void setUp() throws Exception {
+        when(environment.jersey()).thenReturn(jerseyEnvironment);
+        when(jerseyEnvironment.getResourceConfig()).thenReturn(new DropwizardResourceConfig());
+        when(environment.healthChecks()).thenReturn(healthChecks);
+        when(sharedEntityManagerFactory.build(any(EntityManagerContext.class))).thenReturn(mock(EntityManager.class));
+    }
+
+    @Test
+    public void buildsTheEntityManagerFactoriesConcurrently() throws Exception {
+        // Each build waits for the other one, so the bundles can only be run if they are built concurrently
+        final CountDownLatch latch = new CountDownLatch(2);
+        when(factory.build(usersBundle, environment, dbConfig, entities, "users")).thenAnswer(invocation -> {
+            latch.countDown();
+            assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+            return usersFactory;
+        });
+        when(factory.build(ordersBundle, environment, dbConfig, entities, "orders")).thenAnswer(invocation -> {
+            latch.countDown();
+            assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+            return ordersFactory;
+        });
+
+        new ParallelEntityManagerBundles<>(2, usersBundle, ordersBundle).run(configuration, environment);
+
+        assertThat(usersBundle.getEntityManagerFactory()).isSameAs(usersFactory);
+        assertThat(ordersBundle.getEntityManagerFactory()).isSameAs(ordersFactory);
+        verify(healthChecks).register(eq("users"), any(EntityManagerFactoryHealthCheck.class));
+        verify(healthChecks).register(eq("orders"), any(EntityManagerFactoryHealthCheck.class));
+    }
+
+    @Test
+    public void aggregatesFailures() throws Exception {
+        when(factory.build(usersBundle, environment, dbConfig, entities, "users"))
+                .thenThrow(new IllegalStateException("users schema is invalid"));
+        when(factory.build(ordersBundle, environment, dbConfig, entities, "orders"))
+                .thenThrow(new IllegalStateException("orders database is down"));
+
+        try {
+            new ParallelEntityManagerBundles<>(1, usersBundle, ordersBundle).run(configuration, environment);
+            fail("Should have thrown an exception");
+        } catch (IllegalStateException e) {
+            assertThat(e.getSuppressed()).hasSize(2);
+            assertThat(e.getSuppressed()[0]).hasMessageContaining("'users'");
+            assertThat(e.getSuppressed()[0].getCause()).hasMessage("users schema is invalid");
+            assertThat(e.getSuppressed()[1]).hasMessageContaining("'orders'");
+            assertThat(e.getSuppressed()[1].getCause()).hasMessage("orders database is down");
+        }
+
+        verify(healthChecks, never()).register(anyString(), any(EntityManagerFactoryHealthCheck.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveParallelism() {
+        new ParallelEntityManagerBundles<>(0, usersBundle);
+    }
+
+    private EntityManagerBundle<Configuration> bundle(String name) {
+        return new EntityManagerBundle<Configuration>(entities, factory, sharedEntityManagerFactory) {
+            @Override
+            public DataSourceFactory getDataSourceFactory(Configuration configuration) {
+                return dbConfig;
+            }
+
+            @Override
+            protected String name() {
+                return name;
+            }
+        };
+    }
+}
@@ -1,10 +1,15 @@
 package com.scottescue.dropwizard.entitymanager;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
 import com.scottescue.dropwizard.entitymanager.entity.Person;
 import com.scottescue.dropwizard.entitymanager.entity.PersonType;
 import com.scottescue.dropwizard.entitymanager.entity.Personable;
+import org.hibernate.engine.spi.ManagedEntity;
 import org.hibernate.jpa.AvailableSettings;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 
 import javax.persistence.SharedCacheMode;
@@ -12,15 +17,23 @@ import javax.persistence.ValidationMode;
 import javax.persistence.spi.ClassTransformer;
 import javax.sql.DataSource;
 
+import java.io.File;
 import java.net.URL;
+import java.net.URLClassLoader;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 public class PersistenceUnitInfoImplTest {
 
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private final DataSource dataSource = mock(DataSource.class);
     private final Logger logger = mock(Logger.class);
     private final PersistenceUnitInfoImpl persistenceUnitInfo =
@@ -99,16 +112,33 @@ public class PersistenceUnitInfoImplTest {
     }
 
     @Test
-    public void testSetEnhancerPropertyGeneratesWarning() {
-        persistenceUnitInfo.setProperty(AvailableSettings.ENHANCER_ENABLE_ASSOCIATION_MANAGEMENT, "true");
-        verify(logger).warn(contains(AvailableSettings.ENHANCER_ENABLE_ASSOCIATION_MANAGEMENT));
+    public void testAddingClassTransformerDoesNotWarn() {
+        persistenceUnitInfo.addTransformer(mock(ClassTransformer.class));
+        verify(logger, never()).warn(anyString(), any(Object.class));
+    }
+
+    @Test
+    public void testEntitiesNotEnhancedGenerateWarning() throws Exception {
+        persistenceUnitInfo.setProperty(AvailableSettings.ENHANCER_ENABLE_DIRTY_TRACKING, "true");
+        persistenceUnitInfo.addTransformer(mock(ClassTransformer.class));
+        persistenceUnitInfo.verifyEnhancement(ImmutableList.of(Person.class, enhancedEntity()));
+        verify(logger).warn(anyString(), eq(ImmutableSortedSet.of(Person.class.getName())));
+    }
+
+    @Test
+    public void testEnhancedEntitiesDoNotGenerateWarning() throws Exception {
+        final Class<?> enhancedEntity = enhancedEntity();
+        assertThat(ManagedEntity.class.isAssignableFrom(enhancedEntity)).isTrue();
+
+        persistenceUnitInfo.addTransformer(mock(ClassTransformer.class));
+        persistenceUnitInfo.verifyEnhancement(ImmutableList.of(enhancedEntity));
+        verify(logger, never()).warn(anyString(), any(Object.class));
     }
 
     @Test
-    public void testAddingClassTransformerGeneratesWarning() {
-        ClassTransformer classTransformer = mock(ClassTransformer.class);
-        persistenceUnitInfo.addTransformer(classTransformer);
-        verify(logger).warn(contains("does not support"));
+    public void testEntitiesAreNotVerifiedWithoutTransformers() {
+        persistenceUnitInfo.verifyEnhancement(ImmutableList.of(Person.class));
+        verify(logger, never()).warn(anyString(), any(Object.class));
     }
 
     @Test
@@ -128,4 +158,15 @@ public class PersistenceUnitInfoImplTest {
         return getClass().getClassLoader()
                 .getResource(type.getName().replace(".", "/").concat(".class"));
     }
-}
\ No newline at end of file
+
+    /**
+     * @return an entity class enhanced at build time
+     */
+    private Class<?> enhancedEntity() throws Exception {
+        final File classes = temporaryFolder.newFolder("classes");
+        EntityCompiler.compile(classes, false, "enhanced.Book");
+        EntityCompiler.enhance(classes, "enhanced.Book");
+        return new URLClassLoader(new URL[] {classes.toURI().toURL()}, getClass().getClassLoader())
+                .loadClass("enhanced.Book");
+    }
+}
@@ -8,12 +8,28 @@ import com.scottescue.dropwizard.entitymanager.entity.fake.entities.pckg3.FakeEn
 import io.dropwizard.Configuration;
 import io.dropwizard.db.PooledDataSourceFactory;
 import io.dropwizard.setup.Environment;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class ScanningEntityManagerBundleTest {
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testScansTheTestClassesWithoutAnIndex() {
+        assertThat(getClass().getClassLoader().getResource(EntityIndex.LOCATION)).isNull();
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void testFindEntityClassesFromDirectory() {
@@ -59,4 +75,56 @@ public class ScanningEntityManagerBundleTest {
                 DeepFakeEntity.class,
                 DeeperFakeEntity.class);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReadsTheEntitiesOfAnIndexedRootFromItsIndex() throws Exception {
+        final File indexed = folder.newFolder("indexed");
+        EntityCompiler.compile(indexed, true, "com.example.users.User");
+        // Not indexed, so not found: an indexed root isn't scanned
+        EntityCompiler.compile(indexed, false, "com.example.users.Unlisted");
+
+        assertThat(entityNames("com.example.users", indexed)).containsExactly("com.example.users.User");
+    }
+
+    @Test
+    public void testScansRootsWithoutAnIndex() throws Exception {
+        final File unindexed = folder.newFolder("unindexed");
+        EntityCompiler.compile(unindexed, false, "com.example.users.User", "com.example.users.admin.Admin");
+
+        assertThat(entityNames("com.example.users", unindexed))
+                .containsExactly("com.example.users.User", "com.example.users.admin.Admin");
+    }
+
+    @Test
+    public void testFindsThePackageSplitBetweenIndexedAndUnindexedRoots() throws Exception {
+        final File indexed = folder.newFolder("indexed");
+        final File unindexed = folder.newFolder("unindexed");
+        EntityCompiler.compile(indexed, true, "com.example.users.User");
+        EntityCompiler.compile(unindexed, false, "com.example.users.Account");
+
+        assertThat(entityNames("com.example.users", indexed, unindexed))
+                .containsExactly("com.example.users.Account", "com.example.users.User");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> entityNames(String packageName, File... roots) throws Exception {
+        final URL[] urls = new URL[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            urls[i] = roots[i].toURI().toURL();
+        }
+        final Thread thread = Thread.currentThread();
+        final ClassLoader contextClassLoader = thread.getContextClassLoader();
+        try (URLClassLoader classLoader = new URLClassLoader(urls, getClass().getClassLoader())) {
+            thread.setContextClassLoader(classLoader);
+            final ScanningEntityManagerBundle bundle = new ScanningEntityManagerBundle(packageName) {
+                @Override
+                public PooledDataSourceFactory getDataSourceFactory(Configuration configuration) {
+                    return null;
+                }
+            };
+            return ((List<Class<?>>) bundle.getEntities()).stream().map(Class::getName).collect(Collectors.toList());
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+    }
+}
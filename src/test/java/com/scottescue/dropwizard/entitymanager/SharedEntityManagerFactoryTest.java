@@ -1,11 +1,15 @@
 package com.scottescue.dropwizard.entitymanager;
 
 import org.hibernate.jpa.HibernateEntityManager;
+import org.hibernate.jpa.QueryHints;
 import org.junit.Test;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
 import javax.persistence.LockModeType;
+import javax.persistence.Query;
 import javax.persistence.TransactionRequiredException;
+import javax.persistence.TypedQuery;
 import java.util.HashMap;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -116,6 +120,44 @@ public class SharedEntityManagerFactoryTest {
         verify(entityManager).find(type, primaryKey);
     }
 
+    @Test
+    public void delegatesToPersistWithActiveTransaction() {
+        EntityTransaction transaction = mock(EntityTransaction.class);
+        when(transaction.isActive()).thenReturn(true);
+        when(entityManager.getTransaction()).thenReturn(transaction);
+
+        Object entity = new Object();
+        createProxy().persist(entity);
+        verify(entityManager).persist(entity);
+    }
+
+    @Test
+    public void delegatesToCreateQuery() {
+        createProxy().createQuery("from Person");
+        verify(entityManager).createQuery("from Person");
+    }
+
+    @Test
+    public void makesQueriesCacheableWhenEnabled() {
+        TypedQuery<Object> query = mock(TypedQuery.class);
+        when(entityManager.createQuery("from Person", Object.class)).thenReturn(query);
+        CacheableQueries.enable(entityManager);
+        try {
+            assertThat(createProxy().createQuery("from Person", Object.class)).isSameAs(query);
+            verify(query).setHint(QueryHints.HINT_CACHEABLE, true);
+        } finally {
+            CacheableQueries.disable(entityManager);
+        }
+    }
+
+    @Test
+    public void leavesQueriesUncacheableByDefault() {
+        Query query = mock(Query.class);
+        when(entityManager.createNamedQuery("person.all")).thenReturn(query);
+        createProxy().createNamedQuery("person.all");
+        verify(query, never()).setHint(anyString(), any());
+    }
+
     private EntityManager createProxy() {
         when(entityManagerContext.currentEntityManager()).thenReturn(entityManager);
         return sharedEntityManagerFactory.build(entityManagerContext);
@@ -0,0 +1,92 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StatementLogTest {
+    private final StatementLog.Inspector inspector = new StatementLog.Inspector("db");
+
+    @Test
+    public void shapesStatementsRegardlessOfTheirLiterals() {
+        assertThat(StatementLog.shape("/* load Person */ select p.id,\n  p.name from people p where p.id = 42"))
+                .isEqualTo("select p.id, p.name from people p where p.id = ?");
+        assertThat(StatementLog.shape("select * from people where name = 'O''Brien' and id in (?, ?, ?)"))
+                .isEqualTo("select * from people where name = ? and id in (?)");
+        assertThat(StatementLog.shape("select dogs0_.person_id from dogs dogs0_ where dogs0_.person_id=?"))
+                .isEqualTo("select dogs0_.person_id from dogs dogs0_ where dogs0_.person_id=?");
+    }
+
+    @Test
+    public void samplesTheCommentOrTheTableOfAStatement() {
+        assertThat(StatementLog.sample("/* load one-to-many Person.dogs */ select * from dogs where person_id=?"))
+                .isEqualTo("load one-to-many Person.dogs");
+        assertThat(StatementLog.sample("select * from people where id=?")).isEqualTo("people");
+        assertThat(StatementLog.sample("call refresh()")).isNull();
+    }
+
+    @Test
+    public void groupsTheStatementsOfTheBoundLogByShape() {
+        final StatementLog log = new StatementLog("db");
+        log.bind();
+        try {
+            inspector.inspect("/* load one-to-many Person.dogs */ select * from dogs where person_id=1");
+            inspector.inspect("/* load one-to-many Person.dogs */ select * from dogs where person_id=2");
+            inspector.inspect("select * from people");
+        } finally {
+            log.unbind();
+        }
+        inspector.inspect("select * from people");
+
+        assertThat(log.getCount()).isEqualTo(3);
+        assertThat(log.getShapes()).hasSize(2);
+        final StatementLog.Shape dogs = log.getShapes().get("select * from dogs where person_id=?");
+        assertThat(dogs.getCount()).isEqualTo(2);
+        assertThat(dogs.getSample()).isEqualTo("load one-to-many Person.dogs");
+    }
+
+    @Test
+    public void leavesStatementsUnchanged() {
+        assertThat(inspector.inspect("select * from people where id=1")).isEqualTo("select * from people where id=1");
+    }
+
+    @Test
+    public void recordsOnlyTheStatementsOfItsBundle() {
+        final StatementLog log = new StatementLog("db");
+        log.bind();
+        try {
+            new StatementLog.Inspector("analytics").inspect("select * from events");
+        } finally {
+            log.unbind();
+        }
+
+        assertThat(log.getCount()).isZero();
+    }
+
+    @Test
+    public void leavesNoLogsBoundOnceUnbound() {
+        final StatementLog log = new StatementLog("db");
+        log.bind();
+        log.unbind();
+
+        assertThat(StatementLog.isBound()).isFalse();
+    }
+
+    @Test
+    public void restoresTheEnclosingLogWhenUnbound() {
+        final StatementLog outer = new StatementLog("db");
+        final StatementLog inner = new StatementLog("db");
+        outer.bind();
+        try {
+            inner.bind();
+            inspector.inspect("select * from dogs");
+            inner.unbind();
+            inspector.inspect("select * from people");
+        } finally {
+            outer.unbind();
+        }
+
+        assertThat(inner.getShapes()).containsOnlyKeys("select * from dogs");
+        assertThat(outer.getShapes()).containsOnlyKeys("select * from people");
+    }
+}
@@ -3,13 +3,21 @@ package com.scottescue.dropwizard.entitymanager;
 import com.scottescue.dropwizard.entitymanager.entity.Person;
 import com.scottescue.dropwizard.entitymanager.entity.PersonType;
 import com.scottescue.dropwizard.entitymanager.entity.Personable;
+import javassist.ClassPool;
+import javassist.CtClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
@@ -20,6 +28,9 @@ public class TemporaryClassLoaderTest {
     private final ClassLoader parentClassLoader = Thread.currentThread().getContextClassLoader();
     private final TemporaryClassLoader temporaryClassLoader = spy(new TemporaryClassLoader(parentClassLoader));
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void unprotectedClassIsLoadedByTemporary() throws Exception {
         Class type = temporaryClassLoader.loadClass(Person.class.getName());
@@ -52,6 +63,33 @@ public class TemporaryClassLoaderTest {
         assertClassLoadedByParent(type);
     }
 
+    @Test
+    public void malformedClassFileDefersToParent() throws Exception {
+        doReturn(new byte[] {(byte) 0xCA, (byte) 0xFE}).when(temporaryClassLoader).readBytes(any());
+
+        Class type = temporaryClassLoader.loadClass(Person.class.getName());
+        assertClassLoadedByParent(type);
+    }
+
+    @Test
+    public void loadsManyClasses() throws Exception {
+        final File directory = folder.newFolder();
+        final ClassPool pool = new ClassPool(true);
+        for (int i = 0; i < 5000; i++) {
+            final CtClass ctClass = pool.makeClass("com.example.generated.Generated" + i);
+            ctClass.writeFile(directory.getPath());
+            ctClass.detach();
+        }
+
+        try (URLClassLoader parent = new URLClassLoader(new URL[]{directory.toURI().toURL()}, null)) {
+            final TemporaryClassLoader classLoader = new TemporaryClassLoader(parent);
+            for (int i = 0; i < 5000; i++) {
+                assertThat(classLoader.loadClass("com.example.generated.Generated" + i).getClassLoader())
+                        .isSameAs(classLoader);
+            }
+        }
+    }
+
     @Test
     public void classIsNotLoadedTwice() throws Exception {
         Class first = temporaryClassLoader.loadClass(Person.class.getName());
@@ -1,5 +1,6 @@
 package com.scottescue.dropwizard.entitymanager;
 
+import com.codahale.metrics.MetricRegistry;
 import org.glassfish.jersey.server.ExtendedUriInfo;
 import org.glassfish.jersey.server.model.Resource;
 import org.glassfish.jersey.server.model.ResourceMethod;
@@ -19,15 +20,22 @@ import org.mockito.InOrder;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
+import javax.persistence.RollbackException;
+import javax.ws.rs.container.AsyncResponse;
 import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.*;
 
 public class UnitOfWorkApplicationListenerTest {
     private final EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
     private final EntityManagerFactory analyticsEntityManagerFactory = mock(EntityManagerFactory.class);
-    private final UnitOfWorkApplicationListener listener = new UnitOfWorkApplicationListener();
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final UnitOfWorkApplicationListener listener = new UnitOfWorkApplicationListener(metrics);
     private final ApplicationEvent appEvent = mock(ApplicationEvent.class);
     private final ExtendedUriInfo uriInfo = mock(ExtendedUriInfo.class);
 
@@ -36,6 +44,7 @@ public class UnitOfWorkApplicationListenerTest {
     private final RequestEvent responseFiltersStartEvent = mock(RequestEvent.class);
     private final RequestEvent responseFinishedEvent = mock(RequestEvent.class);
     private final RequestEvent requestMethodExceptionEvent = mock(RequestEvent.class);
+    private final RequestEvent requestMethodFinishedEvent = mock(RequestEvent.class);
     private final HibernateEntityManager entityManager = mock(HibernateEntityManager.class);
     private final HibernateEntityManager analyticsEntityManager = mock(HibernateEntityManager.class);
     private final Session session = mock(Session.class);
@@ -66,10 +75,12 @@ public class UnitOfWorkApplicationListenerTest {
         when(responseFiltersStartEvent.getType()).thenReturn(RequestEvent.Type.RESP_FILTERS_START);
         when(responseFinishedEvent.getType()).thenReturn(RequestEvent.Type.FINISHED);
         when(requestMethodExceptionEvent.getType()).thenReturn(RequestEvent.Type.ON_EXCEPTION);
+        when(requestMethodFinishedEvent.getType()).thenReturn(RequestEvent.Type.RESOURCE_METHOD_FINISHED);
         when(requestMethodStartEvent.getUriInfo()).thenReturn(uriInfo);
         when(responseFiltersStartEvent.getUriInfo()).thenReturn(uriInfo);
         when(responseFinishedEvent.getUriInfo()).thenReturn(uriInfo);
         when(requestMethodExceptionEvent.getUriInfo()).thenReturn(uriInfo);
+        when(requestMethodFinishedEvent.getUriInfo()).thenReturn(uriInfo);
 
         prepareAppEvent("methodWithDefaultAnnotation");
     }
@@ -112,7 +123,7 @@ public class UnitOfWorkApplicationListenerTest {
             return RequestEvent.Type.RESOURCE_METHOD_START;
         }).when(requestMethodStartEvent).getType();
 
-        prepareAppEvent("methodNotAnnotated");
+        prepareAppEvent("methodNotAnnotated", "methodWithDefaultAnnotation");
         execute();
 
         verify(entityManager).close();
@@ -230,6 +241,84 @@ public class UnitOfWorkApplicationListenerTest {
         verify(transaction, never()).rollback();
     }
 
+    @Test
+    public void timesTheUnitOfWorkOfTheResourceMethod() throws Exception {
+        execute();
+
+        final String prefix = metricPrefix("methodWithDefaultAnnotation", EntityManagerBundle.DEFAULT_NAME);
+        assertThat(metrics.timer(prefix + "entity-manager").getCount()).isEqualTo(1);
+        assertThat(metrics.timer(prefix + "transaction").getCount()).isEqualTo(1);
+        assertThat(metrics.timer(prefix + "commit").getCount()).isEqualTo(1);
+        assertThat(metrics.meter(prefix + "rollbacks").getCount()).isZero();
+    }
+
+    @Test
+    public void metersRollbacksOfTheResourceMethod() throws Exception {
+        executeWithException();
+
+        final String prefix = metricPrefix("methodWithDefaultAnnotation", EntityManagerBundle.DEFAULT_NAME);
+        assertThat(metrics.meter(prefix + "rollbacks").getCount()).isEqualTo(1);
+        assertThat(metrics.timer(prefix + "transaction").getCount()).isEqualTo(1);
+        assertThat(metrics.timer(prefix + "commit").getCount()).isZero();
+        assertThat(metrics.timer(prefix + "entity-manager").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void metersFailedCommitsAsRollbacks() throws Exception {
+        doThrow(new RollbackException("Constraint violation")).when(transaction).commit();
+        doAnswer(invocation -> {
+            when(transaction.isActive()).thenReturn(false);
+            return null;
+        }).when(transaction).rollback();
+
+        assertThatThrownBy(this::execute).hasCauseInstanceOf(RollbackException.class);
+
+        final String prefix = metricPrefix("methodWithDefaultAnnotation", EntityManagerBundle.DEFAULT_NAME);
+        assertThat(metrics.meter(prefix + "rollbacks").getCount()).isEqualTo(1);
+        assertThat(metrics.timer(prefix + "commit").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void timesTheUnitOfWorkOfEachBundle() throws Exception {
+        prepareAppEvent("methodWithUnitOfWorkOnAnalyticsDatabase");
+        execute();
+
+        final String prefix = metricPrefix("methodWithUnitOfWorkOnAnalyticsDatabase", "analytics");
+        assertThat(metrics.timer(prefix + "transaction").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void detectsRepeatedStatementsOfTheResourceMethod() throws Exception {
+        final StatementLog.Inspector inspector = new StatementLog.Inspector(EntityManagerBundle.DEFAULT_NAME);
+        listener.registerRepeatedStatementThreshold(EntityManagerBundle.DEFAULT_NAME, 2);
+        listener.onEvent(appEvent);
+
+        final RequestEventListener requestListener = listener.onRequest(requestStartEvent);
+        requestListener.onEvent(requestMethodStartEvent);
+        inspector.inspect("select * from people");
+        requestListener.onEvent(responseFiltersStartEvent);
+        // Lazy loading while the response is serialized
+        for (int id = 1; id <= 3; id++) {
+            inspector.inspect("/* load one-to-many Person.dogs */ select * from dogs where person_id=" + id);
+        }
+        requestListener.onEvent(responseFinishedEvent);
+        inspector.inspect("select * from dogs where person_id=4");
+
+        final String prefix = metricPrefix("methodWithDefaultAnnotation", EntityManagerBundle.DEFAULT_NAME);
+        assertThat(metrics.histogram(prefix + "statements").getCount()).isEqualTo(1);
+        assertThat(metrics.histogram(prefix + "statements").getSnapshot().getMax()).isEqualTo(4);
+        assertThat(metrics.meter(prefix + "repeated-statements").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void doesNotCountStatementsByDefault() throws Exception {
+        execute();
+
+        assertThat(metrics.getHistograms()).isEmpty();
+        assertThat(metrics.getMeters().keySet()).doesNotContain(
+                metricPrefix("methodWithDefaultAnnotation", EntityManagerBundle.DEFAULT_NAME) + "repeated-statements");
+    }
+
     @Test
     public void beginsAndCommitsATransactionForAnalytics() throws Exception {
         prepareAppEvent("methodWithUnitOfWorkOnAnalyticsDatabase");
@@ -253,9 +342,177 @@ public class UnitOfWorkApplicationListenerTest {
         }
     }
 
-    private void prepareAppEvent(String resourceMethodName) throws NoSuchMethodException {
+    @Test
+    public void failsInitializationOnNotRegisteredDatabase() throws Exception {
+        prepareAppEvent("methodWithDefaultAnnotation", "methodWithUnitOfWorkOnNotRegisteredDatabase");
+
+        assertThatThrownBy(() -> listener.onEvent(appEvent))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Unregistered EntityManager bundle: 'warehouse'");
+    }
+
+    @Test
+    public void returnsNoRequestListenerWithoutUnitOfWorkMethods() throws Exception {
+        prepareAppEvent("methodNotAnnotated");
+        listener.onEvent(appEvent);
+
+        assertThat(listener.onRequest(requestStartEvent)).isNull();
+    }
+
+    @Test
+    public void doesNotOpenAnEntityManagerForMethodNotAnnotated() throws Exception {
+        prepareAppEvent("methodNotAnnotated", "methodWithDefaultAnnotation");
+
+        execute();
+
+        verify(entityManagerFactory, never()).createEntityManager();
+    }
+
+    @Test
+    public void doesNotOpenALazyEntityManagerThatIsNotUsed() throws Exception {
+        prepareAppEvent("methodWithLazyAnnotation");
+
+        execute();
+
+        verify(entityManagerFactory, never()).createEntityManager();
+        assertThat(EntityManagerContext.hasBind(entityManagerFactory)).isFalse();
+    }
+
+    @Test
+    public void opensALazyEntityManagerOnFirstUse() throws Exception {
+        prepareAppEvent("methodWithLazyAnnotation");
+        final EntityManagerContext entityManagerContext = new EntityManagerContext(entityManagerFactory);
+
+        listener.onEvent(appEvent);
+        RequestEventListener requestListener = listener.onRequest(requestStartEvent);
+        requestListener.onEvent(requestMethodStartEvent);
+        verify(entityManagerFactory, never()).createEntityManager();
+
+        assertThat(entityManagerContext.currentEntityManager()).isSameAs(entityManager);
+        assertThat(entityManagerContext.currentEntityManager()).isSameAs(entityManager);
+        requestListener.onEvent(responseFiltersStartEvent);
+        requestListener.onEvent(responseFinishedEvent);
+
+        final InOrder inOrder = inOrder(entityManagerFactory, entityManager, transaction);
+        inOrder.verify(entityManagerFactory).createEntityManager();
+        inOrder.verify(transaction).begin();
+        inOrder.verify(transaction).commit();
+        inOrder.verify(entityManager).close();
+        verify(entityManagerFactory, times(1)).createEntityManager();
+    }
+
+    @Test
+    public void completesAnAsynchronousUnitOfWorkOnTheResumingThread() throws Exception {
+        prepareAsyncAppEvent("methodWithDefaultAnnotation");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        listener.onEvent(appEvent);
+        final RequestEventListener requestListener = listener.onRequest(requestStartEvent);
+        requestListener.onEvent(requestMethodStartEvent);
+        requestListener.onEvent(requestMethodFinishedEvent);
+        assertThat(EntityManagerContext.hasBind(entityManagerFactory)).isFalse();
+        verify(entityManager, never()).close();
+
+        final Boolean boundWhileResuming = executor.submit(() -> {
+            requestListener.onEvent(responseFiltersStartEvent);
+            final boolean bound = EntityManagerContext.hasBind(entityManagerFactory);
+            requestListener.onEvent(responseFinishedEvent);
+            return bound && !EntityManagerContext.hasBind(entityManagerFactory);
+        }).get();
+        executor.shutdown();
+
+        assertThat(boundWhileResuming).isTrue();
+        final InOrder inOrder = inOrder(entityManager, transaction);
+        inOrder.verify(transaction).begin();
+        inOrder.verify(transaction).commit();
+        inOrder.verify(entityManager).close();
+    }
+
+    @Test
+    public void queriesOnTheResumingThreadBeforeResuming() throws Exception {
+        prepareAsyncAppEvent("methodWithDefaultAnnotation");
+        final ExecutorService executor = UnitOfWorkAwareExecutors.wrap(Executors.newSingleThreadExecutor(),
+                UnitOfWorkAwareExecutors.Propagation.SHARED);
+        final EntityManagerContext context = new EntityManagerContext(entityManagerFactory);
+
+        listener.onEvent(appEvent);
+        final RequestEventListener requestListener = listener.onRequest(requestStartEvent);
+        requestListener.onEvent(requestMethodStartEvent);
+        // The continuation queries, then resumes the response before the resource method has even returned
+        executor.submit(() -> {
+            context.currentEntityManager().createQuery("from Person");
+            requestListener.onEvent(responseFiltersStartEvent);
+            requestListener.onEvent(responseFinishedEvent);
+        }).get();
+        requestListener.onEvent(requestMethodFinishedEvent);
+        executor.shutdown();
+
+        final InOrder inOrder = inOrder(entityManager, transaction);
+        inOrder.verify(transaction).begin();
+        inOrder.verify(entityManager).createQuery("from Person");
+        inOrder.verify(transaction).commit();
+        inOrder.verify(entityManager).close();
+        assertThat(EntityManagerContext.hasBind(entityManagerFactory)).isFalse();
+    }
+
+    @Test
+    public void doesNotCloseOtherEntityManagersOnTheResumingThread() throws Exception {
+        final EntityManager otherEntityManager = mock(EntityManager.class);
+        final EntityManagerFactory otherEntityManagerFactory = mock(EntityManagerFactory.class);
+        when(otherEntityManager.getEntityManagerFactory()).thenReturn(otherEntityManagerFactory);
+        prepareAsyncAppEvent("methodWithDefaultAnnotation");
+
+        listener.onEvent(appEvent);
+        final RequestEventListener requestListener = listener.onRequest(requestStartEvent);
+        requestListener.onEvent(requestMethodStartEvent);
+        requestListener.onEvent(requestMethodFinishedEvent);
+
+        EntityManagerContext.bind(otherEntityManager);
+        requestListener.onEvent(responseFiltersStartEvent);
+        requestListener.onEvent(responseFinishedEvent);
+
+        verify(entityManager).close();
+        verify(otherEntityManager, never()).close();
+        assertThat(EntityManagerContext.unbind(otherEntityManagerFactory)).isSameAs(otherEntityManager);
+    }
+
+    private void prepareAsyncAppEvent(String resourceMethodName) throws NoSuchMethodException {
         final Resource.Builder builder = Resource.builder();
         final MockResource mockResource = new MockResource();
+        final Method method = mockResource.getClass().getMethod(resourceMethodName);
+
+        final ResourceMethod resourceMethod = builder.addMethod()
+                .handlingMethod(method)
+                .handledBy(mockResource, method)
+                .suspended(AsyncResponse.NO_TIMEOUT, TimeUnit.MILLISECONDS)
+                .build();
+        final ResourceModel model = new ResourceModel.Builder(false).addResource(builder.build()).build();
+
+        when(appEvent.getResourceModel()).thenReturn(model);
+        when(uriInfo.getMatchedResourceMethod()).thenReturn(resourceMethod);
+    }
+
+    private void prepareAppEvent(String resourceMethodName, String... otherResourceMethodNames)
+            throws NoSuchMethodException {
+        final Resource.Builder builder = Resource.builder();
+        final MockResource mockResource = new MockResource();
+        final ResourceModel.Builder modelBuilder = new ResourceModel.Builder(false);
+
+        final ResourceMethod resourceMethod = addMethod(builder, mockResource, resourceMethodName);
+        modelBuilder.addResource(builder.build());
+        for (String otherResourceMethodName : otherResourceMethodNames) {
+            final Resource.Builder otherBuilder = Resource.builder();
+            addMethod(otherBuilder, mockResource, otherResourceMethodName);
+            modelBuilder.addResource(otherBuilder.build());
+        }
+        final ResourceModel model = modelBuilder.build();
+
+        when(appEvent.getResourceModel()).thenReturn(model);
+        when(uriInfo.getMatchedResourceMethod()).thenReturn(resourceMethod);
+    }
+
+    private ResourceMethod addMethod(Resource.Builder builder, MockResource mockResource, String resourceMethodName)
+            throws NoSuchMethodException {
         final Method handlingMethod = mockResource.getClass().getMethod(resourceMethodName);
 
         Method definitionMethod = handlingMethod;
@@ -264,14 +521,9 @@ public class UnitOfWorkApplicationListenerTest {
             definitionMethod = interfaceClass.getMethod(resourceMethodName);
         }
 
-        final ResourceMethod resourceMethod = builder.addMethod()
+        return builder.addMethod()
                 .handlingMethod(handlingMethod)
                 .handledBy(mockResource, definitionMethod).build();
-        final Resource resource = builder.build();
-        final ResourceModel model = new ResourceModel.Builder(false).addResource(resource).build();
-
-        when(appEvent.getResourceModel()).thenReturn(model);
-        when(uriInfo.getMatchedResourceMethod()).thenReturn(resourceMethod);
     }
 
     private boolean methodDefinedOnInterface(String methodName, Method[] methods) {
@@ -283,6 +535,10 @@ public class UnitOfWorkApplicationListenerTest {
         return false;
     }
 
+    private String metricPrefix(String methodName, String bundleName) {
+        return MetricRegistry.name(MockResource.class, methodName, "unit-of-work", bundleName) + ".";
+    }
+
     private void execute() {
         listener.onEvent(appEvent);
         RequestEventListener requestListener = listener.onRequest(requestStartEvent);
@@ -344,6 +600,10 @@ public class UnitOfWorkApplicationListenerTest {
         public void methodWithUnitOfWorkOnNotRegisteredDatabase() {
         }
 
+        @UnitOfWork(lazy = true)
+        public void methodWithLazyAnnotation() {
+        }
+
         public void methodNotAnnotated() {
         }
     }
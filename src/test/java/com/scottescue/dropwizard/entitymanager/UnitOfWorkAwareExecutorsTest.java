@@ -0,0 +1,172 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import com.scottescue.dropwizard.entitymanager.UnitOfWorkAwareExecutors.Propagation;
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateEntityManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UnitOfWorkAwareExecutorsTest {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+    private final EntityManagerContext entityManagerContext = new EntityManagerContext(entityManagerFactory);
+    private final HibernateEntityManager entityManager = mock(HibernateEntityManager.class);
+    private final HibernateEntityManager newEntityManager = mock(HibernateEntityManager.class);
+    private final Session newSession = mock(Session.class);
+    private final EntityTransaction transaction = mock(EntityTransaction.class);
+
+    @Before
+    public void setUp() throws Exception {
+        when(entityManager.getEntityManagerFactory()).thenReturn(entityManagerFactory);
+        when(newEntityManager.getEntityManagerFactory()).thenReturn(entityManagerFactory);
+        when(newEntityManager.getSession()).thenReturn(newSession);
+        when(newEntityManager.getTransaction()).thenReturn(transaction);
+        when(transaction.isActive()).thenReturn(true);
+        when(entityManagerFactory.createEntityManager()).thenReturn(newEntityManager);
+
+        EntityManagerContext.bind(entityManager);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        EntityManagerContext.unBindAll(em -> {});
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sharesTheEntityManagerOfTheSubmittingThread() throws Exception {
+        CompletableFuture<EntityManager> future = UnitOfWorkAwareExecutors.supplyAsync(
+                entityManagerContext::currentEntityManager, executor, Propagation.SHARED);
+
+        assertThat(future.get()).isSameAs(entityManager);
+        verify(entityManagerFactory, never()).createEntityManager();
+    }
+
+    @Test
+    public void opensALazyEntityManagerBeforeSharingIt() throws Exception {
+        EntityManagerContext.unbind(entityManagerFactory);
+        EntityManagerContext.bindInitializer(entityManagerFactory, () -> {
+            EntityManagerContext.bind(entityManager);
+            return entityManager;
+        });
+
+        CompletableFuture<EntityManager> future = UnitOfWorkAwareExecutors.supplyAsync(
+                entityManagerContext::currentEntityManager, executor, Propagation.SHARED);
+
+        assertThat(future.get()).isSameAs(entityManager);
+        assertThat(entityManagerContext.currentEntityManager()).isSameAs(entityManager);
+    }
+
+    @Test
+    public void runsTasksInANewUnitOfWork() throws Exception {
+        CompletableFuture<EntityManager> future = UnitOfWorkAwareExecutors.supplyAsync(
+                entityManagerContext::currentEntityManager, executor, Propagation.NEW);
+
+        assertThat(future.get()).isSameAs(newEntityManager);
+        verify(transaction).begin();
+        verify(transaction).commit();
+        verify(newEntityManager).close();
+    }
+
+    @Test
+    public void runsTasksInANewUnitOfWorkWithTheGivenSettings() throws Exception {
+        CompletableFuture<EntityManager> future = UnitOfWorkAwareExecutors.supplyAsync(
+                entityManagerContext::currentEntityManager, executor, Propagation.NEW,
+                UnitOfWorkSettings.defaults().withReadOnly(true));
+
+        assertThat(future.get()).isSameAs(newEntityManager);
+        verify(newSession).setDefaultReadOnly(true);
+    }
+
+    @Test
+    public void rollsBackANewUnitOfWorkOnException() throws Exception {
+        CompletableFuture<Void> future = UnitOfWorkAwareExecutors.runAsync(() -> {
+            throw new IllegalStateException("Task failed");
+        }, executor, Propagation.NEW);
+
+        try {
+            future.get();
+            fail("Should have thrown an exception");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+        verify(transaction).rollback();
+        verify(transaction, never()).commit();
+        verify(newEntityManager).close();
+    }
+
+    @Test
+    public void rollsBackANewUnitOfWorkOfASubmittedTaskOnException() throws Exception {
+        ExecutorService wrapped = UnitOfWorkAwareExecutors.wrap(executor, Propagation.NEW);
+
+        Future<?> future = wrapped.submit(() -> {
+            throw new IllegalStateException("Task failed");
+        });
+
+        try {
+            future.get();
+            fail("Should have thrown an exception");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+        verify(transaction).rollback();
+        verify(transaction, never()).commit();
+        verify(newEntityManager).close();
+    }
+
+    @Test
+    public void restoresTheEntityManagersOfTheRunningThread() throws Exception {
+        Executor sameThread = UnitOfWorkAwareExecutors.wrap((Executor) Runnable::run, Propagation.NEW);
+
+        sameThread.execute(() ->
+                assertThat(entityManagerContext.currentEntityManager()).isSameAs(newEntityManager));
+
+        assertThat(entityManagerContext.currentEntityManager()).isSameAs(entityManager);
+    }
+
+    @Test
+    public void rejectsTasksSharingTheEntityManagerOfASharedTask() throws Exception {
+        final ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<Object> future = UnitOfWorkAwareExecutors.supplyAsync(() ->
+                    UnitOfWorkAwareExecutors.supplyAsync(entityManagerContext::currentEntityManager, other,
+                            Propagation.SHARED).join(), executor, Propagation.SHARED);
+
+            try {
+                future.get();
+                fail("Should have thrown an exception");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+            }
+        } finally {
+            other.shutdownNow();
+        }
+    }
+
+    @Test
+    public void leavesNoEntityManagerBoundToWorkerThreads() throws Exception {
+        ExecutorService wrapped = UnitOfWorkAwareExecutors.wrap(executor, Propagation.SHARED);
+        wrapped.submit(entityManagerContext::currentEntityManager).get();
+
+        Boolean hasBind = executor.submit(() -> EntityManagerContext.hasBind(entityManagerFactory)).get();
+        assertThat(hasBind).isFalse();
+    }
+}
@@ -123,6 +123,26 @@ public class UnitOfWorkAwareProxyFactoryTest {
                 .authenticate("b812ae4");
     }
 
+    @Test
+    public void testProxyClassIsGeneratedOnce() {
+        final UnitOfWorkAwareProxyFactory first = new UnitOfWorkAwareProxyFactory("default", entityManagerFactory);
+        final UnitOfWorkAwareProxyFactory second = new UnitOfWorkAwareProxyFactory("default", entityManagerFactory);
+
+        assertThat(first.create(BrokenAuthenticator.class).getClass())
+                .isSameAs(first.create(BrokenAuthenticator.class).getClass())
+                .isSameAs(second.create(BrokenAuthenticator.class).getClass());
+    }
+
+    @Test
+    public void testProxyOnlyOverridesUnitOfWorkMethods() throws Exception {
+        final Class<?> proxyClass = new UnitOfWorkAwareProxyFactory("default", entityManagerFactory)
+                .create(MixedAuthenticator.class)
+                .getClass();
+
+        assertThat(proxyClass.getMethod("authenticate", String.class).getDeclaringClass()).isSameAs(proxyClass);
+        assertThat(proxyClass.getMethod("describe").getDeclaringClass()).isSameAs(MixedAuthenticator.class);
+    }
+
     static class SessionService {
 
         private EntityManager entityManager;
@@ -170,4 +190,16 @@ public class UnitOfWorkAwareProxyFactoryTest {
         }
     }
 
-}
\ No newline at end of file
+    static class MixedAuthenticator {
+
+        @UnitOfWork
+        public boolean authenticate(String token) {
+            return true;
+        }
+
+        public String describe() {
+            return "mixed";
+        }
+    }
+
+}
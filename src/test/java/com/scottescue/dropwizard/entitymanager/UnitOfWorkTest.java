@@ -46,4 +46,16 @@ public class UnitOfWorkTest {
         assertThat(unitOfWork.flushMode())
                 .isEqualTo(FlushMode.AUTO);
     }
+
+    @Test
+    public void defaultsToEagerOpening() throws Exception {
+        assertThat(unitOfWork.lazy())
+                .isFalse();
+    }
+
+    @Test
+    public void defaultsToUncacheableQueries() throws Exception {
+        assertThat(unitOfWork.cacheableQueries())
+                .isFalse();
+    }
 }
@@ -0,0 +1,149 @@
+package com.scottescue.dropwizard.entitymanager;
+
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateEntityManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UnitOfWorksTest {
+    private final EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+    private final EntityManagerContext entityManagerContext = new EntityManagerContext(entityManagerFactory);
+    private final HibernateEntityManager entityManager = mock(HibernateEntityManager.class);
+    private final Session session = mock(Session.class);
+    private final EntityTransaction transaction = mock(EntityTransaction.class);
+    private final UnitOfWorks unitOfWorks = new UnitOfWorks("default", entityManagerFactory);
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Before
+    public void setUp() throws Exception {
+        when(entityManagerFactory.createEntityManager()).thenReturn(entityManager);
+        when(entityManager.getEntityManagerFactory()).thenReturn(entityManagerFactory);
+        when(entityManager.getSession()).thenReturn(session);
+        when(entityManager.getTransaction()).thenReturn(transaction);
+        when(transaction.isActive()).thenReturn(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        EntityManagerContext.unBindAll(em -> {});
+    }
+
+    @Test
+    public void callsInATransactionAndClosesTheEntityManager() throws Exception {
+        final EntityManager current = unitOfWorks.call(entityManagerContext::currentEntityManager);
+
+        assertThat(current).isSameAs(entityManager);
+        verify(transaction).begin();
+        verify(transaction).commit();
+        verify(entityManager).close();
+        assertThat(EntityManagerContext.hasBind(entityManagerFactory)).isFalse();
+    }
+
+    @Test
+    public void rollsBackAndClosesTheEntityManagerOnException() {
+        try {
+            unitOfWorks.run(() -> {
+                throw new IllegalStateException("Queue is down");
+            });
+            fail("Should have thrown an exception");
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("Queue is down");
+        }
+
+        verify(transaction).rollback();
+        verify(transaction, never()).commit();
+        verify(entityManager).close();
+        assertThat(EntityManagerContext.hasBind(entityManagerFactory)).isFalse();
+    }
+
+    @Test
+    public void appliesTheSettings() {
+        unitOfWorks.run("default", UnitOfWorkSettings.defaults()
+                .withReadOnly(true)
+                .withCacheMode(CacheMode.IGNORE)
+                .withFlushMode(FlushMode.MANUAL)
+                .withTransactional(false), () -> {});
+
+        verify(session).setDefaultReadOnly(true);
+        verify(session).setCacheMode(CacheMode.IGNORE);
+        verify(session).setFlushMode(FlushMode.MANUAL);
+        verify(transaction, never()).begin();
+        verify(entityManager).close();
+    }
+
+    @Test
+    public void doesNotOpenALazyEntityManagerThatIsNeverUsed() {
+        unitOfWorks.run("default", UnitOfWorkSettings.defaults().withLazy(true), () -> {});
+
+        verify(entityManagerFactory, never()).createEntityManager();
+        assertThat(EntityManagerContext.boundFactories()).isEmpty();
+    }
+
+    @Test
+    public void rebindsTheEnclosingEntityManager() {
+        final EntityManager enclosing = mock(EntityManager.class);
+        when(enclosing.getEntityManagerFactory()).thenReturn(entityManagerFactory);
+        EntityManagerContext.bind(enclosing);
+
+        unitOfWorks.run(() -> assertThat(entityManagerContext.currentEntityManager()).isSameAs(entityManager));
+
+        assertThat(entityManagerContext.currentEntityManager()).isSameAs(enclosing);
+        verify(entityManager).close();
+    }
+
+    @Test
+    public void makesQueriesCacheableWithinTheUnitOfWork() {
+        unitOfWorks.run("default", UnitOfWorkSettings.defaults().withCacheableQueries(true),
+                () -> assertThat(CacheableQueries.isEnabled(entityManager)).isTrue());
+
+        assertThat(CacheableQueries.isEnabled(entityManager)).isFalse();
+    }
+
+    @Test
+    public void failsOnUnregisteredBundle() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Unregistered EntityManager bundle: 'reports'");
+
+        unitOfWorks.run("reports", UnitOfWorkSettings.defaults(), () -> {});
+    }
+
+    @Test
+    public void settingsDefaultToTheAnnotationDefaults() throws Exception {
+        final UnitOfWork unitOfWork = Defaults.class.getMethod("method").getAnnotation(UnitOfWork.class);
+        final UnitOfWorkSettings settings = UnitOfWorkSettings.defaults();
+
+        assertThat(settings.isReadOnly()).isEqualTo(unitOfWork.readOnly());
+        assertThat(settings.isTransactional()).isEqualTo(unitOfWork.transactional());
+        assertThat(settings.getCacheMode()).isEqualTo(unitOfWork.cacheMode());
+        assertThat(settings.getFlushMode()).isEqualTo(unitOfWork.flushMode());
+        assertThat(settings.isLazy()).isEqualTo(unitOfWork.lazy());
+        assertThat(settings.isCacheableQueries()).isEqualTo(unitOfWork.cacheableQueries());
+        assertThat(settings.withLazy(true)).isNotEqualTo(settings).isEqualTo(settings.withLazy(true));
+        assertThat(settings.withCacheableQueries(true)).isNotEqualTo(settings)
+                .isEqualTo(settings.withCacheableQueries(true));
+    }
+
+    static class Defaults {
+        @UnitOfWork
+        public void method() {
+        }
+    }
+}